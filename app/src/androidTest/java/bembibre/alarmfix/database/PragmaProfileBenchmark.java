@@ -0,0 +1,108 @@
+package bembibre.alarmfix.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the pragma profiles under a mixed load: one thread makes small committed writes, like
+ * the alarm handling does, while another one keeps scanning the table page by page, like the
+ * reminders list and the data export do.
+ *
+ * A scratch database is used, so the application data is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PragmaProfileBenchmark {
+
+    private static final String TAG = "PragmaProfileBenchmark";
+    private static final String DATABASE_NAME = "pragma_profile_benchmark";
+    private static final int INITIAL_ROWS = 10000;
+    private static final int WRITES = 500;
+    private static final int PAGE_SIZE = 100;
+
+    @Test
+    public void compareProfilesOnMixedLoad() throws Exception {
+        PragmaProfile[] profiles = {PragmaProfile.LEGACY, PragmaProfile.DURABLE, PragmaProfile.BALANCED, PragmaProfile.FAST};
+        for (PragmaProfile profile : profiles) {
+            run(profile);
+        }
+    }
+
+    private void run(PragmaProfile profile) throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        File file = context.getDatabasePath(DATABASE_NAME);
+        final SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            profile.applyTo(db);
+            db.execSQL("create table reminders (_id integer primary key autoincrement, title text not null, "
+                    + "notified integer, reminder_date_time integer not null)");
+            db.execSQL("create index reminders_date_time on reminders (reminder_date_time)");
+            db.beginTransaction();
+            try {
+                for (int index = 0; index < INITIAL_ROWS; index++) {
+                    db.execSQL("insert into reminders (title, notified, reminder_date_time) values (?, 0, ?)",
+                            new Object[] {"Title " + index, (long) index});
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            final long[] writeNanos = new long[1];
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    for (int index = 0; index < WRITES; index++) {
+                        db.execSQL("update reminders set notified = 1 where _id = ?", new Object[] {(long) (index + 1)});
+                    }
+                    writeNanos[0] = System.nanoTime() - start;
+                }
+            });
+
+            long readStart = System.nanoTime();
+            writer.start();
+            int scans = 0;
+            int rowsRead = 0;
+            while (writer.isAlive()) {
+                long last = -1;
+                Cursor cursor;
+                do {
+                    cursor = db.rawQuery("select _id, title, reminder_date_time from reminders where reminder_date_time > ? "
+                            + "order by reminder_date_time limit " + PAGE_SIZE, new String[] {String.valueOf(last)});
+                    int count = cursor.getCount();
+                    if (cursor.moveToLast()) {
+                        last = cursor.getLong(2);
+                    }
+                    cursor.close();
+                    rowsRead += count;
+                    if (count < PAGE_SIZE) {
+                        break;
+                    }
+                } while (writer.isAlive());
+                scans++;
+            }
+            writer.join();
+            long readNanos = System.nanoTime() - readStart;
+
+            assertTrue(rowsRead > 0);
+            Log.i(TAG, "Profile " + profile + ": " + WRITES + " writes in " + (writeNanos[0] / 1000000) + " ms ("
+                    + (writeNanos[0] / WRITES / 1000) + " microseconds each), meanwhile " + rowsRead + " rows read in "
+                    + scans + " scans (" + (rowsRead * 1000000000L / Math.max(readNanos, 1)) + " rows per second).");
+        } finally {
+            db.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+}
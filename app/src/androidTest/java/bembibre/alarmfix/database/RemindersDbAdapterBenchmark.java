@@ -0,0 +1,196 @@
+package bembibre.alarmfix.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the cost of each one of the most frequent database operations when the SQL is built by
+ * concatenating the values, like it was done before, and when it is run through the compiled
+ * statements of {@link RemindersDbAdapter}.
+ *
+ * Both ways run the statements of the adapter, the same ones with the values written in the text
+ * or bound, so they stay comparable whatever the adapter does with them. Each way starts with a
+ * scratch database of its own, so the application data is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RemindersDbAdapterBenchmark {
+
+    private static final String TAG = "RemindersDbBenchmark";
+    private static final String DATABASE_NAME = "reminders_benchmark";
+    private static final int OPERATIONS = 10000;
+
+    private Context context;
+    private RemindersDbAdapter dbAdapter;
+    private SQLiteDatabase db;
+    private long[] rowIds = new long[OPERATIONS];
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        closeDatabase();
+    }
+
+    @Test
+    public void concatenatedSqlVersusCompiledStatements() throws Exception {
+        // Before: a new SQL text for every call.
+        measure(false);
+
+        // After: compiled statements with bound parameters.
+        measure(true);
+    }
+
+    private void measure(boolean compiled) {
+        String way = compiled ? "compiled" : "concatenated";
+        openDatabase();
+        long now = System.currentTimeMillis();
+        long start;
+        int index;
+
+        start = System.nanoTime();
+        for (index = 0; index < OPERATIONS; index++) {
+            rowIds[index] = insert(compiled, RemindersDbAdapter.INSERT_REMINDER_SQL, "Title " + index,
+                    RemindersDbAdapter.FIRST_ALARM_ID, 2017L, 11L, now + index);
+            insert(compiled, RemindersDbAdapter.SAVE_BODY_SQL, rowIds[index], "Body " + index);
+        }
+        report("insert", way, start);
+
+        start = System.nanoTime();
+        for (index = 0; index < OPERATIONS; index++) {
+            assertEquals(1, update(compiled, RemindersDbAdapter.UPDATE_NOTIFIED_SQL, 1L, rowIds[index]));
+        }
+        report("mark notified", way, start);
+
+        start = System.nanoTime();
+        for (index = 0; index < OPERATIONS; index++) {
+            Cursor cursor = query(compiled, RemindersDbAdapter.FETCH_REMINDER_SQL, rowIds[index]);
+            assertTrue(cursor.moveToFirst());
+            cursor.close();
+        }
+        report("point fetch", way, start);
+
+        start = System.nanoTime();
+        for (index = 0; index < OPERATIONS; index++) {
+            assertEquals(1, update(compiled, RemindersDbAdapter.TOMBSTONE_REMINDER_SQL, now, rowIds[index]));
+        }
+        report("delete", way, start);
+
+        closeDatabase();
+    }
+
+    private void openDatabase() {
+        context.deleteDatabase(DATABASE_NAME);
+        dbAdapter = RemindersDbAdapter.create(context, DATABASE_NAME);
+        dbAdapter.start();
+        db = dbAdapter.getDatabase();
+        // Everything runs inside of a transaction that is rolled back, so the times don't include
+        // writing to the disk.
+        db.beginTransaction();
+    }
+
+    private void closeDatabase() {
+        if (dbAdapter != null) {
+            db.endTransaction();
+            dbAdapter.shutdown();
+            dbAdapter = null;
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private long insert(boolean compiled, String sql, Object... args) {
+        if (compiled) {
+            SQLiteStatement statement = dbAdapter.getStatement(sql);
+            bind(statement, args);
+            return statement.executeInsert();
+        }
+        SQLiteStatement statement = db.compileStatement(inline(sql, args));
+        try {
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private int update(boolean compiled, String sql, Object... args) {
+        if (compiled) {
+            SQLiteStatement statement = dbAdapter.getStatement(sql);
+            bind(statement, args);
+            return statement.executeUpdateDelete();
+        }
+        SQLiteStatement statement = db.compileStatement(inline(sql, args));
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Queries are compiled once by the cache of statements of the connection, as long as their
+     * text doesn't change.
+     */
+    private Cursor query(boolean compiled, String sql, long rowId) {
+        if (compiled) {
+            return db.rawQuery(sql, new String[] {String.valueOf(rowId)});
+        }
+        return db.rawQuery(inline(sql, rowId), null);
+    }
+
+    private static void bind(SQLiteStatement statement, Object... args) {
+        for (int index = 0; index < args.length; index++) {
+            if (args[index] instanceof String) {
+                statement.bindString(index + 1, (String) args[index]);
+            } else {
+                statement.bindLong(index + 1, ((Number) args[index]).longValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the values in the place of the parameters of a statement, both the numbered ones
+     * and the ones that take the next value.
+     */
+    private static String inline(String sql, Object... args) {
+        StringBuilder text = new StringBuilder();
+        int next = 0;
+        for (int position = 0; position < sql.length(); position++) {
+            char character = sql.charAt(position);
+            if (character != '?') {
+                text.append(character);
+                continue;
+            }
+            int end = position + 1;
+            while ((end < sql.length()) && Character.isDigit(sql.charAt(end))) {
+                end++;
+            }
+            int index = end > position + 1 ? Integer.parseInt(sql.substring(position + 1, end)) - 1 : next;
+            next = index + 1;
+            Object value = args[index];
+            text.append(value instanceof String ? DatabaseUtils.sqlEscapeString((String) value) : String.valueOf(value));
+            position = end - 1;
+        }
+        return text.toString();
+    }
+
+    private static void report(String operation, String way, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        Log.i(TAG, operation + " (" + way + "): " + OPERATIONS + " operations in " + (elapsed / 1000000)
+                + " ms, " + (elapsed / OPERATIONS / 1000) + " microseconds per operation.");
+    }
+}
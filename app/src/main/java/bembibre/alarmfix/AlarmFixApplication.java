@@ -0,0 +1,65 @@
+package bembibre.alarmfix;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+
+import bembibre.alarmfix.alarms.intentservices.MaintenanceJobService;
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+import bembibre.alarmfix.utils.CivilDateCalculator;
+
+/**
+ * The application. It opens the database connection once for the whole life of the process, so
+ * the activities, alarms and services that come later find it already open. It is opened in the
+ * background, because opening it can mean upgrading it, which can take long after an update of
+ * the application; whatever needs it before that is over waits for it in
+ * {@link RemindersDbAdapter#open()}.
+ */
+public class AlarmFixApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RemindersDbAdapter.getInstance(AlarmFixApplication.this).start();
+                } catch (Throwable t) {
+                    // The next lease of the connection tries again.
+                    Logger.log("Unable to open the database.", t);
+                }
+            }
+        }, "DatabaseStart").start();
+
+        // The database is tidied up while the phone is idle and charging.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            MaintenanceJobService.schedule(this);
+        }
+
+        // The months of the reminders are computed for the time zone of the phone.
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                CivilDateCalculator.invalidate();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        RemindersDbAdapter.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    public void onTerminate() {
+        // Only called on emulated processes, real devices just kill the process.
+        RemindersDbAdapter.getInstance(this).shutdown();
+        super.onTerminate();
+    }
+}
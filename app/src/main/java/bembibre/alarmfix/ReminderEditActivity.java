@@ -5,7 +5,6 @@ import android.app.DatePickerDialog;
 import android.app.Dialog;
 import android.app.TimePickerDialog;
 import android.content.DialogInterface;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
@@ -19,9 +18,9 @@ import java.util.Date;
 
 import bembibre.alarmfix.database.RemindersDbAdapter;
 import bembibre.alarmfix.logging.Logger;
+import bembibre.alarmfix.models.ReminderSnapshot;
 import bembibre.alarmfix.core.SynchronizedWork;
 import bembibre.alarmfix.userinterface.UserInterfaceUtils;
-import bembibre.alarmfix.utils.GeneralUtils;
 
 public class ReminderEditActivity extends Activity {
 
@@ -107,8 +106,8 @@ public class ReminderEditActivity extends Activity {
     // they normally go here ...
     private void populateFields() {
         if (mRowId != null) {
-            Cursor reminder = mDbHelper.fetchReminder(mRowId);
-            if (reminder.getCount() < 1) {
+            ReminderSnapshot reminder = mDbHelper.getReminder(mRowId);
+            if (reminder == null) {
                 DialogInterface.OnClickListener listener = new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int which) {
                         dialog.dismiss();
@@ -119,17 +118,11 @@ public class ReminderEditActivity extends Activity {
                 UserInterfaceUtils.showWarningDialog(this, this.getResources().getString(R.string.reminder_does_not_exist), listener);
 
             } else {
-                startManagingCursor(reminder);
-                mTitleText.setText(reminder.getString(
-                        reminder.getColumnIndexOrThrow(RemindersDbAdapter.KEY_TITLE)));
-                mBodyText.setText(reminder.getString(
-                        reminder.getColumnIndexOrThrow(RemindersDbAdapter.KEY_BODY)));
-                alarmId = reminder.getLong(reminder.getColumnIndexOrThrow(RemindersDbAdapter.KEY_ALARM_ID));
-                SimpleDateFormat dateTimeFormat = new SimpleDateFormat(GeneralUtils.DATE_TIME_FORMAT);
-                long reminderDateTime = reminder.getLong(
-                        reminder.getColumnIndexOrThrow(
-                                RemindersDbAdapter.KEY_DATE_TIME));
-                mCalendar.setTime(new Date(reminderDateTime));
+                mTitleText.setText(reminder.getTitle());
+                // The body is not part of the reminder row, it is loaded on its own.
+                mBodyText.setText(mDbHelper.fetchReminderBody(mRowId));
+                alarmId = reminder.getAlarmId();
+                mCalendar.setTime(new Date(reminder.getDateTime()));
             }
         }
         updateDateButtonText();
@@ -10,25 +10,37 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
+import bembibre.alarmfix.alarms.SchedulingMode;
+import bembibre.alarmfix.alarms.intentservices.ArchiveService;
+import bembibre.alarmfix.alarms.intentservices.MigrationService;
+import bembibre.alarmfix.alarms.intentservices.PurgeService;
 import bembibre.alarmfix.core.CoreOperations;
 import bembibre.alarmfix.logging.Logger;
 import bembibre.alarmfix.logic.DataAccessHelper;
+import bembibre.alarmfix.logic.ChangeSchedulingMode;
 import bembibre.alarmfix.logic.DeleteAllReminders;
+import bembibre.alarmfix.logic.StartDatabase;
 import bembibre.alarmfix.logic.exportimport.DataExport;
 import bembibre.alarmfix.logic.exportimport.DataImport;
 import bembibre.alarmfix.core.SynchronizedWork;
@@ -49,9 +61,34 @@ public class ReminderListActivity extends ListActivity {
     private static final int ACTIVITY_CREATE = 0;
     private static final int PICKFILE_REQUEST_CODE = 1;
 
+    /**
+     * Time that the user has to stop typing before the search is made, so a search is not made for
+     * every single key.
+     */
+    private static final long SEARCH_DELAY_MILLIS = 300;
+
+    /*
+     * Ways of showing the reminders: the reminders of the month selected in the spinners, the
+     * reminders of a day or a week that the user moves with the previous and next buttons, or the
+     * next reminders that haven't been notified yet.
+     */
+
+    private static final int VIEW_MONTH = 0;
+    private static final int VIEW_DAY = 1;
+    private static final int VIEW_WEEK = 2;
+    private static final int VIEW_UPCOMING = 3;
+
     private RemindersDbAdapter mDbHelper;
     private Cursor remindersCursor;
 
+    /**
+     * Whether the database has been leased and the list can be loaded. The first time after an
+     * update the database could take a while to be upgraded, and until then the list is empty and
+     * says so.
+     */
+    private boolean databaseReady = false;
+    private StartDatabase startDatabase;
+
     Spinner yearSpinner;
     Spinner monthSpinner;
     private List<Integer> yearSpinnerValues;
@@ -62,16 +99,87 @@ public class ReminderListActivity extends ListActivity {
      */
     private YearsMonthsAndReminders yearsMonthsAndReminders;
 
+    /**
+     * The text field where the user searches reminders. While it has got some text, the list shows
+     * the search results instead of the reminders of the selected year and month.
+     */
+    private EditText searchText;
+
+    private int view = VIEW_MONTH;
+
+    /**
+     * Start of the day or the week shown when viewing by day or by week.
+     */
+    private final Calendar rangeStart = Calendar.getInstance();
+    private final Handler searchHandler = new Handler();
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ReminderListActivity.this.fillData();
+        }
+    };
+
+    /**
+     * When the first deletion that can still be undone was made, or 0 if there is nothing to
+     * undo. Deletions made one after another are undone together.
+     */
+    private long undoSince = 0;
+    private final Handler undoHandler = new Handler();
+    private final Runnable undoExpiredRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ReminderListActivity.this.undoSince = 0;
+            ReminderListActivity.this.invalidateOptionsMenu();
+            PurgeService.start(ReminderListActivity.this);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.reminder_list);
         mDbHelper = RemindersDbAdapter.getInstance(this);
 
-        this.mDbHelper.open();
+        // Search as you type, waiting for the user to stop typing.
+        this.searchText = (EditText) this.findViewById(R.id.search);
+        this.searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
 
-        // Fill spinners and data.
-        createSpinnersAndFillData();
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchHandler.removeCallbacks(searchRunnable);
+                searchHandler.postDelayed(searchRunnable, SEARCH_DELAY_MILLIS);
+            }
+        });
+
+        // Fill spinners and data, once the database is open.
+        if (this.mDbHelper.isStarted()) {
+            this.databaseReady();
+        } else {
+            ((TextView) this.findViewById(R.id.status_bar)).setText(R.string.database_upgrading);
+            this.startDatabase = new StartDatabase(this);
+            this.startDatabase.execute();
+        }
+
+        // Moving to the previous or next day or week.
+        this.findViewById(R.id.range_previous).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ReminderListActivity.this.moveRange(-1);
+            }
+        });
+        this.findViewById(R.id.range_next).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                ReminderListActivity.this.moveRange(1);
+            }
+        });
 
         // Lack of options button in the device.
         this.findViewById(R.id.options).setOnClickListener(new View.OnClickListener() {
@@ -88,6 +196,25 @@ public class ReminderListActivity extends ListActivity {
         }
     }
 
+    /**
+     * Leases the database, once it is open, and loads the list.
+     */
+    public void databaseReady() {
+        this.mDbHelper.open();
+        this.databaseReady = true;
+
+        // Old notified reminders are archived in the background while the user looks at the list.
+        ArchiveService.start(this);
+
+        // Heavy changes left by a database upgrade are made in the background too.
+        MigrationService.start(this);
+
+        // And so are the removal of the deleted reminders and the unsetting of their alarms.
+        PurgeService.start(this);
+
+        createSpinnersAndFillData();
+    }
+
     private void createYearSpinner() {
         Integer previousValue;
         Integer selectedPosition = null;
@@ -184,15 +311,38 @@ public class ReminderListActivity extends ListActivity {
      * Loads the reminder list from the database and makes it to be shown in the screen.
      */
     public void fillData() {
+        if (!this.databaseReady) {
+            return;
+        }
+
         // It is necessary to close gracefully previous data if it exists.
         if (this.remindersCursor != null) {
             stopManagingCursor(this.remindersCursor);
         }
 
-        int year = this.yearSpinnerValues.get(this.yearSpinner.getSelectedItemPosition());
-        int month = this.monthSpinnerValues.get(this.monthSpinner.getSelectedItemPosition());
-        Logger.log("Data for listing reminders is going to be retrieved from database for year " + year + ", month " + month + ".");
-        this.remindersCursor = mDbHelper.fetchAllReminders(year, month);
+        String search = this.searchText.getText().toString();
+        Cursor cursor = mDbHelper.searchReminders(search, RemindersDbAdapter.SEARCH_LIMIT);
+        if (cursor == null) {
+            switch (this.view) {
+                case VIEW_DAY:
+                case VIEW_WEEK:
+                    long start = this.rangeStart.getTimeInMillis();
+                    long end = this.getRangeEnd().getTimeInMillis();
+                    Logger.log("Data for listing reminders is going to be retrieved from database from " + start + " to " + end + ".");
+                    cursor = mDbHelper.fetchRemindersBetween(start, end, RemindersDbAdapter.RANGE_LIMIT);
+                    break;
+                case VIEW_UPCOMING:
+                    cursor = mDbHelper.fetchUpcomingReminders(System.currentTimeMillis(), RemindersDbAdapter.UPCOMING_COUNT);
+                    break;
+                default:
+                    int year = this.yearSpinnerValues.get(this.yearSpinner.getSelectedItemPosition());
+                    int month = this.monthSpinnerValues.get(this.monthSpinner.getSelectedItemPosition());
+                    Logger.log("Data for listing reminders is going to be retrieved from database for year " + year + ", month " + month + ".");
+                    cursor = mDbHelper.fetchAllReminders(year, month);
+                    break;
+            }
+        }
+        this.remindersCursor = cursor;
         startManagingCursor(remindersCursor);
         // Create an array to specify the fields we want (only the TITLE)
         String[] from = new String[]{RemindersDbAdapter.KEY_TITLE, RemindersDbAdapter.KEY_DATE_TIME, RemindersDbAdapter.KEY_NOTIFIED};
@@ -208,7 +358,91 @@ public class ReminderListActivity extends ListActivity {
         ((TextView)this.findViewById(R.id.status_bar)).setText(this.getResources().getString(R.string.total_reminders) + ": " + Integer.valueOf(count).toString());
     }
 
+    /**
+     * Changes the way of showing the reminders. Viewing by day or by week starts from today or
+     * from this week.
+     *
+     * @param view one of the <code>VIEW_*</code> values.
+     */
+    private void setView(int view) {
+        this.view = view;
+        if ((view == VIEW_DAY) || (view == VIEW_WEEK)) {
+            this.rangeStart.setTimeInMillis(System.currentTimeMillis());
+            this.rangeStart.set(Calendar.HOUR_OF_DAY, 0);
+            this.rangeStart.set(Calendar.MINUTE, 0);
+            this.rangeStart.set(Calendar.SECOND, 0);
+            this.rangeStart.set(Calendar.MILLISECOND, 0);
+            if (view == VIEW_WEEK) {
+                this.rangeStart.set(Calendar.DAY_OF_WEEK, this.rangeStart.getFirstDayOfWeek());
+            }
+        }
+        this.updateTopBar();
+        this.fillData();
+    }
+
+    /**
+     * Shows the previous or the next day or week.
+     *
+     * @param direction -1 for the previous one, 1 for the next one.
+     */
+    private void moveRange(int direction) {
+        if (this.view == VIEW_WEEK) {
+            this.rangeStart.add(Calendar.WEEK_OF_YEAR, direction);
+        } else {
+            this.rangeStart.add(Calendar.DAY_OF_MONTH, direction);
+        }
+        this.updateTopBar();
+        this.fillData();
+    }
+
+    /**
+     * Returns the start of the day or week that comes after the one shown.
+     */
+    private Calendar getRangeEnd() {
+        Calendar end = (Calendar) this.rangeStart.clone();
+        if (this.view == VIEW_WEEK) {
+            end.add(Calendar.WEEK_OF_YEAR, 1);
+        } else {
+            end.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return end;
+    }
+
+    /**
+     * Shows the spinners when viewing by month and the day or week with its buttons otherwise.
+     */
+    private void updateTopBar() {
+        boolean month = this.view == VIEW_MONTH;
+        boolean range = (this.view == VIEW_DAY) || (this.view == VIEW_WEEK);
+        this.yearSpinner.setVisibility(month ? View.VISIBLE : View.GONE);
+        this.monthSpinner.setVisibility(month ? View.VISIBLE : View.GONE);
+        this.findViewById(R.id.range_previous).setVisibility(range ? View.VISIBLE : View.GONE);
+        this.findViewById(R.id.range_next).setVisibility(range ? View.VISIBLE : View.GONE);
+        TextView label = (TextView) this.findViewById(R.id.range_label);
+        label.setVisibility(month ? View.GONE : View.VISIBLE);
+        DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.MEDIUM);
+        switch (this.view) {
+            case VIEW_DAY:
+                label.setText(dateFormat.format(this.rangeStart.getTime()));
+                break;
+            case VIEW_WEEK:
+                Calendar lastDay = this.getRangeEnd();
+                lastDay.add(Calendar.DAY_OF_MONTH, -1);
+                label.setText(this.getResources().getString(R.string.week_range,
+                        dateFormat.format(this.rangeStart.getTime()), dateFormat.format(lastDay.getTime())));
+                break;
+            case VIEW_UPCOMING:
+                label.setText(R.string.view_upcoming);
+                break;
+        }
+    }
+
     public synchronized void createSpinnersAndFillData() {
+        if (!this.databaseReady) {
+            // It is loaded when the database is ready.
+            return;
+        }
+
         // Spinners don't work for calling fillData()
         this.createYearSpinner();
         this.createMonthSpinner();
@@ -244,12 +478,81 @@ public class ReminderListActivity extends ListActivity {
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.menu_undo_delete).setVisible(this.undoSince > 0);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * Called when reminders have just been deleted. The user can undo it from the options menu
+     * until the time for it is over, and then the deleted reminders are purged.
+     *
+     * @param since when the deletion started.
+     */
+    public void remindersDeleted(long since) {
+        if (this.undoSince == 0) {
+            this.undoSince = since;
+        }
+        this.undoHandler.removeCallbacks(this.undoExpiredRunnable);
+        this.undoHandler.postDelayed(this.undoExpiredRunnable, PurgeService.UNDO_WINDOW_MILLIS);
+        this.invalidateOptionsMenu();
+        Toast.makeText(this, R.string.reminders_deleted, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Brings back the reminders deleted since the last time that there was nothing to undo.
+     */
+    private void undoDeletions() {
+        this.undoHandler.removeCallbacks(this.undoExpiredRunnable);
+        int restored = SynchronizedWork.undoDeletions(this, this.undoSince);
+        this.undoSince = 0;
+        this.invalidateOptionsMenu();
+        Toast.makeText(this, this.getResources().getString(R.string.reminders_restored, restored), Toast.LENGTH_SHORT).show();
+        this.createSpinnersAndFillData();
+    }
+
+    /**
+     * Lets the user choose the way in which the alarms of the reminders are set, and sets them
+     * again that way.
+     */
+    private void chooseSchedulingMode() {
+        final SchedulingMode current = SchedulingMode.load(this);
+        // In the order of the modes.
+        int[] names = {R.string.scheduling_chained, R.string.scheduling_windows, R.string.scheduling_per_reminder};
+        UserInterfaceUtils.showSingleChoiceDialog(this, names, current.ordinal(), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                SchedulingMode chosen = SchedulingMode.values()[which];
+                if (chosen != current) {
+                    new ChangeSchedulingMode(ReminderListActivity.this).execute(chosen);
+                }
+            }
+        });
+    }
+
     @Override
     public boolean onMenuItemSelected(int featureId, MenuItem item) {
+        if (!this.databaseReady) {
+            Toast.makeText(this, R.string.database_upgrading, Toast.LENGTH_SHORT).show();
+            return true;
+        }
         switch(item.getItemId()) {
             case R.id.menu_insert:
                 createReminder();
                 return true;
+            case R.id.menu_view_month:
+                setView(VIEW_MONTH);
+                return true;
+            case R.id.menu_view_day:
+                setView(VIEW_DAY);
+                return true;
+            case R.id.menu_view_week:
+                setView(VIEW_WEEK);
+                return true;
+            case R.id.menu_view_upcoming:
+                setView(VIEW_UPCOMING);
+                return true;
             case R.id.menu_export:
                 new DataExport(this).execute();
                 return true;
@@ -269,6 +572,12 @@ public class ReminderListActivity extends ListActivity {
                     }
                 });
                 return true;
+            case R.id.menu_undo_delete:
+                undoDeletions();
+                return true;
+            case R.id.menu_scheduling:
+                chooseSchedulingMode();
+                return true;
         }
         return super.onMenuItemSelected(featureId, item);
     }
@@ -368,6 +677,15 @@ public class ReminderListActivity extends ListActivity {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        this.mDbHelper.close();
+        this.searchHandler.removeCallbacks(this.searchRunnable);
+
+        // Whatever was left to undo is purged the next time that the list is opened.
+        this.undoHandler.removeCallbacks(this.undoExpiredRunnable);
+        if (this.databaseReady) {
+            this.mDbHelper.close();
+        } else if (this.startDatabase != null) {
+            // The list is not loaded when the database is ready.
+            this.startDatabase.cancel(false);
+        }
     }
 }
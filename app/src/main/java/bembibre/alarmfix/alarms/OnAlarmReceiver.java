@@ -19,12 +19,21 @@ public class OnAlarmReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         Logger.log("An alarm has been received right now.");
-        long rowid = intent.getExtras().getLong(RemindersDbAdapter.KEY_ROWID);
-        long alarmId = intent.getExtras().getLong(ReminderManager.EXTRA_ALARM_ID);
         WakeReminderIntentService.acquireStaticLock(context);
         Intent i = new Intent(context, ReminderService.class);
-        i.putExtra(RemindersDbAdapter.KEY_ROWID, rowid);
-        i.putExtra(ReminderManager.EXTRA_ALARM_ID, alarmId);
+        if (ReminderManager.ACTION_NEXT_ALARM.equals(intent.getAction())
+                || ReminderManager.ACTION_WINDOW_ALARM.equals(intent.getAction())) {
+            // The chained alarm or the alarm of a window, which carry no reminder.
+            i.setAction(intent.getAction());
+            if (intent.hasExtra(ReminderManager.EXTRA_WINDOW_END)) {
+                i.putExtra(ReminderManager.EXTRA_WINDOW_END, intent.getLongExtra(ReminderManager.EXTRA_WINDOW_END, 0));
+            }
+        } else {
+            long rowid = intent.getExtras().getLong(RemindersDbAdapter.KEY_ROWID);
+            long alarmId = intent.getExtras().getLong(ReminderManager.EXTRA_ALARM_ID);
+            i.putExtra(RemindersDbAdapter.KEY_ROWID, rowid);
+            i.putExtra(ReminderManager.EXTRA_ALARM_ID, alarmId);
+        }
         context.startService(i);
     }
 }
\ No newline at end of file
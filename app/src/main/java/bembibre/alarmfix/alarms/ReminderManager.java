@@ -4,10 +4,14 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Build;
 
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 
+import bembibre.alarmfix.database.AlarmRegistry;
+import bembibre.alarmfix.database.ReminderStore;
 import bembibre.alarmfix.database.RemindersDbAdapter;
 import bembibre.alarmfix.logging.Logger;
 import bembibre.alarmfix.utils.GeneralUtils;
@@ -17,7 +21,12 @@ import bembibre.alarmfix.utils.GeneralUtils;
  */
 
 /**
- * Sets alarms in the operating system for the reminders of this application.
+ * Sets alarms in the operating system for the reminders of this application. Every alarm that is
+ * set is recorded in the registry of the armed alarms of the store, so setting an alarm that is
+ * already set as wanted or unsetting one that isn't set costs no call to the alarm service.
+ *
+ * The registry can only be used while its store is open, so the store must be open while the
+ * methods of this class are called, see {@link ReminderStore#open()}.
  */
 public class ReminderManager {
 
@@ -27,13 +36,359 @@ public class ReminderManager {
      */
     public static final String EXTRA_ALARM_ID = "extra_alarm_id";
 
+    /**
+     * Length of the windows in which the reminders share a single alarm, in milliseconds. The
+     * alarm of a window goes off when the window ends, so a reminder is never notified early but
+     * it can be notified up to this late; the reminders are set to the minute, so with a window of
+     * a minute none is. The chained alarm is set for the end of the window of its reminder too.
+     */
+    public static final long COALESCING_WINDOW_MILLIS = 60 * 1000;
+
+    /**
+     * Action of the intent of the chained alarm, which carries no reminder.
+     */
+    public static final String ACTION_NEXT_ALARM = "bembibre.alarmfix.NEXT_ALARM";
+
+    /**
+     * Action of the intent of the alarm shared by the reminders of a window, which carries no
+     * reminder either.
+     */
+    public static final String ACTION_WINDOW_ALARM = "bembibre.alarmfix.WINDOW_ALARM";
+
+    /**
+     * Key of the end of the window in the intent of the alarm of a window.
+     */
+    public static final String EXTRA_WINDOW_END = "extra_window_end";
+
+    /**
+     * Request code of the chained alarm. The identifiers of the reminders start from 1, so it
+     * can't be taken for the alarm of a reminder.
+     */
+    private static final int NEXT_ALARM_REQUEST_CODE = 0;
+
+    /**
+     * Calls made to the alarm service for setting or unsetting alarms since the application
+     * started.
+     */
+    private static final AtomicLong alarmCallsMade = new AtomicLong();
+
+    /**
+     * Calls to the alarm service that the registry of the armed alarms has saved since the
+     * application started.
+     */
+    private static final AtomicLong alarmCallsSaved = new AtomicLong();
+
     private Context mContext;
     private AlarmManager mAlarmManager;
+    private AlarmRegistry registry;
+    private SchedulingMode mode;
 
+    /**
+     * Creates a manager whose registry is the one of the database of the application, which sets
+     * the alarms the way chosen by the user.
+     *
+     * @param context the context.
+     */
     public ReminderManager(Context context) {
+        this(context, RemindersDbAdapter.getInstance(context).getAlarmRegistry());
+    }
+
+    /**
+     * Creates a manager that records the alarms in the given registry and sets them the way chosen
+     * by the user.
+     *
+     * @param context the context.
+     * @param registry the registry of the store of the reminders, see
+     * {@link ReminderStore#getAlarmRegistry()}.
+     */
+    public ReminderManager(Context context, AlarmRegistry registry) {
+        this(context, registry, SchedulingMode.load(context));
+    }
+
+    /**
+     * Creates a manager that records the alarms in the given registry and sets them the given way.
+     *
+     * @param context the context.
+     * @param registry the registry of the store of the reminders, see
+     * {@link ReminderStore#getAlarmRegistry()}.
+     * @param mode the way in which the alarms of the reminders are set.
+     */
+    public ReminderManager(Context context, AlarmRegistry registry, SchedulingMode mode) {
         mContext = context;
         mAlarmManager =
                 (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        this.registry = registry;
+        this.mode = mode;
+    }
+
+    public SchedulingMode getSchedulingMode() {
+        return mode;
+    }
+
+    /**
+     * Returns whether a single chained alarm is kept set for the first reminder, so it must be set
+     * again every time that it goes off, see {@link SchedulingMode#CHAINED}.
+     */
+    public boolean isChained() {
+        return mode == SchedulingMode.CHAINED;
+    }
+
+    public static long getAlarmCallsMade() {
+        return alarmCallsMade.get();
+    }
+
+    public static long getAlarmCallsSaved() {
+        return alarmCallsSaved.get();
+    }
+
+    /**
+     * Returns the counters of the calls to the alarm service, for the log.
+     */
+    public static String getAlarmCallsReport() {
+        return "Alarm service calls made: " + alarmCallsMade.get() + ", saved by the registry: " + alarmCallsSaved.get() + ".";
+    }
+
+    /**
+     * Empties the registry of the armed alarms, because the system forgets all of them when the
+     * phone is turned off.
+     */
+    public void forgetArmedAlarms() {
+        registry.deleteAllArmedAlarms();
+    }
+
+    /**
+     * Takes out of the registry the alarm of a reminder that has gone off.
+     *
+     * @param taskId data base identifier of the reminder.
+     */
+    public void reminderAlarmWentOff(long taskId) {
+        alarmWentOff(AlarmRegistry.ALARM_KIND_REMINDER, taskId);
+    }
+
+    /**
+     * Takes out of the registry the alarm of a window that has gone off.
+     *
+     * @param windowEnd end of the window, as milliseconds since the Epoch.
+     */
+    public void windowAlarmWentOff(long windowEnd) {
+        alarmWentOff(AlarmRegistry.ALARM_KIND_WINDOW, windowEnd);
+    }
+
+    private void alarmWentOff(int kind, long target) {
+        registry.deleteArmedAlarm(kind, target);
+    }
+
+    /**
+     * Returns whether an alarm is in the registry as wanted, counting the call to the alarm
+     * service that is saved if it is.
+     */
+    private boolean isArmed(int kind, long target, long alarmId, long when) {
+        if (registry.getArmedAlarmTime(kind, target, alarmId) == when) {
+            alarmCallsSaved.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes an alarm out of the registry, counting the call to the alarm service that is saved if
+     * it wasn't there.
+     *
+     * @return <code>true</code> if the alarm was in the registry, so it must be unset.
+     */
+    private boolean disarmed(int kind, long target) {
+        if (registry.deleteArmedAlarm(kind, target)) {
+            return true;
+        }
+        alarmCallsSaved.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Makes sure that a reminder is going to be notified, the way chosen by the
+     * {@link SchedulingMode} of this manager: by bringing the chained alarm forward if the
+     * reminder comes before it, with the alarm of its window or with its own alarm.
+     *
+     * @param taskId  data base identifier of the reminder.
+     * @param alarmId number that helps distinguishing each one of the alarms set for a same reminder.
+     * @param when    when, as milliseconds since the Epoch.
+     */
+    public void scheduleReminder(long taskId, long alarmId, long when) throws AlarmException {
+        switch (mode) {
+            case CHAINED:
+                advanceNextAlarm(when);
+                break;
+            case WINDOWS:
+                setWindowAlarm(when);
+                break;
+            default:
+                setReminder(taskId, alarmId, when);
+                break;
+        }
+    }
+
+    /**
+     * Returns the end of the coalescing window in which a moment falls, when the alarm of the
+     * window goes off. A moment that is the end of a window belongs to it, so a reminder set to
+     * the minute has got its alarm at its very moment.
+     *
+     * @param when milliseconds since the Epoch.
+     * @return milliseconds since the Epoch, never before <code>when</code>.
+     */
+    public static long getWindowEnd(long when) {
+        long offset = when % COALESCING_WINDOW_MILLIS;
+        if (offset < 0) {
+            offset += COALESCING_WINDOW_MILLIS;
+        }
+        if (offset == 0) {
+            return when;
+        }
+        return when - offset + COALESCING_WINDOW_MILLIS;
+    }
+
+    /**
+     * Sets the alarm shared by the reminders of the window in which a moment falls, unless it is
+     * already set.
+     *
+     * @param when when, as milliseconds since the Epoch.
+     */
+    public void setWindowAlarm(long when) throws AlarmException {
+        long windowEnd = getWindowEnd(when);
+        if (isArmed(AlarmRegistry.ALARM_KIND_WINDOW, windowEnd, 0, windowEnd)) {
+            return;
+        }
+        PendingIntent pi = getWindowAlarmPendingIntent(windowEnd, PendingIntent.FLAG_UPDATE_CURRENT);
+        try {
+            this.setAlarm(pi, windowEnd);
+            registry.saveArmedAlarm(AlarmRegistry.ALARM_KIND_WINDOW, windowEnd, 0, windowEnd);
+            Logger.log("An alarm has been set successfully for the window at " + GeneralUtils.format(windowEnd) + ".");
+        } catch (Throwable throwable) {
+            Logger.log("The system doesn't let us to set an alarm for the window at " + GeneralUtils.format(windowEnd), throwable);
+            throw new AlarmException();
+        }
+    }
+
+    private PendingIntent getWindowAlarmPendingIntent(long windowEnd, int flags) {
+        Intent i = new Intent(mContext, OnAlarmReceiver.class);
+        i.setAction(ACTION_WINDOW_ALARM);
+        // The data tells the windows apart, the request code is not needed for it.
+        i.setData(Uri.parse("alarmfix://window/" + windowEnd));
+        i.putExtra(EXTRA_WINDOW_END, windowEnd);
+        return PendingIntent.getBroadcast(mContext, 0, i, flags);
+    }
+
+    /**
+     * Unsets the alarm of a window, if it is in the registry.
+     *
+     * @param windowEnd end of the window, as milliseconds since the Epoch.
+     */
+    private void unsetWindowAlarm(long windowEnd) {
+        if (!disarmed(AlarmRegistry.ALARM_KIND_WINDOW, windowEnd)) {
+            return;
+        }
+        PendingIntent pi = getWindowAlarmPendingIntent(windowEnd, PendingIntent.FLAG_NO_CREATE);
+        if (pi != null) {
+            cancelAlarm(pi);
+        }
+    }
+
+    /**
+     * Unsets every alarm of the registry, whatever its kind, so the reminders can be scheduled
+     * again in a different {@link SchedulingMode}.
+     */
+    public void unsetAllAlarms() {
+        long[] taskIds = registry.fetchArmedAlarmTargets(AlarmRegistry.ALARM_KIND_REMINDER);
+        if (taskIds.length > 0) {
+            unsetReminders(taskIds);
+        }
+        long[] windowEnds = registry.fetchArmedAlarmTargets(AlarmRegistry.ALARM_KIND_WINDOW);
+        for (long windowEnd : windowEnds) {
+            unsetWindowAlarm(windowEnd);
+        }
+        unsetNextAlarm();
+        Logger.log("Every alarm has been unset: " + taskIds.length + " of reminders and " + windowEnds.length + " of windows. " + getAlarmCallsReport());
+    }
+
+    /**
+     * Sets the chained alarm for the end of the window in which the given moment falls,
+     * replacing the one that was set, unless it is already set for then.
+     *
+     * @param when when, as milliseconds since the Epoch.
+     */
+    public void setNextAlarm(long when) throws AlarmException {
+        when = getWindowEnd(when);
+        if ((getNextAlarmPendingIntent(PendingIntent.FLAG_NO_CREATE) != null)
+                && (isArmed(AlarmRegistry.ALARM_KIND_NEXT, 0, 0, when))) {
+            return;
+        }
+        try {
+            this.setAlarm(getNextAlarmPendingIntent(PendingIntent.FLAG_UPDATE_CURRENT), when);
+            registry.saveArmedAlarm(AlarmRegistry.ALARM_KIND_NEXT, 0, 0, when);
+            Logger.log("The next alarm has been set successfully at " + GeneralUtils.format(when) + ".");
+        } catch (Throwable throwable) {
+            Logger.log("The system doesn't let us to set the next alarm at " + GeneralUtils.format(when), throwable);
+            throw new AlarmException();
+        }
+    }
+
+    /**
+     * Sets the chained alarm for the given moment only if it isn't set or it is set for a later
+     * window, so a reminder that doesn't come first, or that falls in the window of the first one,
+     * costs no call to the alarm service. When the first reminder is deleted or moved to later,
+     * the alarm is left as it is: it goes off early, finds nothing to notify and is set again for
+     * the next reminder.
+     *
+     * @param when when, as milliseconds since the Epoch.
+     * @return <code>true</code> if the alarm has been set again.
+     */
+    public boolean advanceNextAlarm(long when) throws AlarmException {
+        long nextAlarmTime = getNextAlarmTime();
+        if ((nextAlarmTime == 0) || (getWindowEnd(when) < nextAlarmTime)) {
+            setNextAlarm(when);
+            return true;
+        }
+        if (nextAlarmTime < System.currentTimeMillis()) {
+            /*
+             * It has gone off and it hasn't been set again, because that failed or because it is
+             * still being handled. It is set again for the same moment, so whatever is due gets
+             * handled and the alarm is set for the next reminder.
+             */
+            setNextAlarm(nextAlarmTime);
+            return true;
+        }
+        alarmCallsSaved.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Unsets the chained alarm, when there are no reminders left to notify.
+     */
+    public void unsetNextAlarm() {
+        if (disarmed(AlarmRegistry.ALARM_KIND_NEXT, 0)) {
+            PendingIntent pi = getNextAlarmPendingIntent(PendingIntent.FLAG_NO_CREATE);
+            if (pi != null) {
+                cancelAlarm(pi);
+            }
+            Logger.log("The next alarm has been unset, there are no reminders left to notify.");
+        }
+    }
+
+    /**
+     * Returns the moment for which the chained alarm is set, as milliseconds since the Epoch, or 0
+     * if it isn't set. The alarms of the application are lost when it is force stopped, so the
+     * moment is only trusted while the alarm is still there.
+     */
+    public long getNextAlarmTime() {
+        if (getNextAlarmPendingIntent(PendingIntent.FLAG_NO_CREATE) == null) {
+            return 0;
+        }
+        return Math.max(registry.getArmedAlarmTime(AlarmRegistry.ALARM_KIND_NEXT, 0, 0), 0);
+    }
+
+    private PendingIntent getNextAlarmPendingIntent(int flags) {
+        Intent i = new Intent(mContext, OnAlarmReceiver.class);
+        i.setAction(ACTION_NEXT_ALARM);
+        return PendingIntent.getBroadcast(mContext, NEXT_ALARM_REQUEST_CODE, i, flags);
     }
 
     /**
@@ -44,6 +399,21 @@ public class ReminderManager {
      * @param when    when.
      */
     public void setReminder(long taskId, long alarmId, Calendar when) throws AlarmException {
+        setReminder(taskId, alarmId, when.getTimeInMillis());
+    }
+
+    /**
+     * Part of the code that is responsible for setting an alarm. Nothing is done if the alarm is
+     * already set for the same moment and with the same alarm identifier.
+     *
+     * @param taskId  data base identifier of the reminder.
+     * @param alarmId number that helps distinguishing each one of the alarms set for a same reminder.
+     * @param when    when, as milliseconds since the Epoch.
+     */
+    public void setReminder(long taskId, long alarmId, long when) throws AlarmException {
+        if (isArmed(AlarmRegistry.ALARM_KIND_REMINDER, taskId, alarmId, when)) {
+            return;
+        }
         Intent i = new Intent(mContext, OnAlarmReceiver.class);
         i.putExtra(RemindersDbAdapter.KEY_ROWID, taskId);
         i.putExtra(ReminderManager.EXTRA_ALARM_ID, alarmId);
@@ -51,6 +421,7 @@ public class ReminderManager {
 
         try {
             this.setAlarm(pi, when);
+            registry.saveArmedAlarm(AlarmRegistry.ALARM_KIND_REMINDER, taskId, alarmId, when);
             Logger.log("An alarm has been set successfully for the reminder at " + GeneralUtils.format(when) + ". Reminder id: " + taskId);
         } catch (Throwable throwable) {
             Logger.log("The system doesn't let us to set an alarm for the reminder at " + GeneralUtils.format(when), throwable);
@@ -62,18 +433,43 @@ public class ReminderManager {
      * Unsets the alarm that would trigger for the reminder with the given database identifier.
      * When calling this method, the reminder could have been erased from the database and it
      * wouldn't be a problem. This method is only for unsetting its associated alarm from the
-     * system.
+     * system. Nothing is done if the reminder has got no alarm in the registry.
      *
      * @param taskId  database identifier of the reminder.
      * @param date    date for logging purposes.
      */
     public void unsetReminder(long taskId, String date) {
+        if (!disarmed(AlarmRegistry.ALARM_KIND_REMINDER, taskId)) {
+            return;
+        }
         Intent i = new Intent(mContext, OnAlarmReceiver.class);
         PendingIntent pi = getReminderPendingIntent(i, taskId);
-        mAlarmManager.cancel(pi);
+        cancelAlarm(pi);
         Logger.log("An alarm has been unset successfully for the reminder at " + date + ". Reminder id: " + taskId);
     }
 
+    /**
+     * Unsets at once the alarms that would trigger for the reminders with the given database
+     * identifiers. They are taken out of the registry all together, and the reminders that had no
+     * alarm in it are skipped without asking the alarm service.
+     *
+     * @param taskIds database identifiers of the reminders.
+     */
+    public void unsetReminders(long[] taskIds) {
+        long[] armedTaskIds = registry.deleteArmedAlarms(AlarmRegistry.ALARM_KIND_REMINDER, taskIds);
+        alarmCallsSaved.addAndGet(taskIds.length - armedTaskIds.length);
+        Intent i = new Intent(mContext, OnAlarmReceiver.class);
+        int unset = 0;
+        for (long taskId : armedTaskIds) {
+            PendingIntent pi = PendingIntent.getBroadcast(mContext, (int)taskId, i, PendingIntent.FLAG_NO_CREATE);
+            if (pi != null) {
+                cancelAlarm(pi);
+                unset++;
+            }
+        }
+        Logger.log("Alarms unset successfully for " + unset + " reminders out of " + taskIds.length + ". " + getAlarmCallsReport());
+    }
+
     /**
      * Returns the <code>PendingIntent</code> object that must be used for calling this application
      * when a reminder's alarm triggers.
@@ -93,7 +489,8 @@ public class ReminderManager {
      * @param operation
      * @param when
      */
-    private void setAlarm(PendingIntent operation, Calendar when) throws Throwable {
+    private void setAlarm(PendingIntent operation, long when) throws Throwable {
+        alarmCallsMade.incrementAndGet();
         /*
          * The alarm must be set differently depending on the OS version. Anyway, we need the
          * pending intent in order to know what was the reminder for which the alarm was fired, so
@@ -101,7 +498,7 @@ public class ReminderManager {
          */
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
             // Before Marshmallow, we can do this for setting a reliable alarm.
-            mAlarmManager.set(AlarmManager.RTC_WAKEUP, when.getTimeInMillis(), operation);
+            mAlarmManager.set(AlarmManager.RTC_WAKEUP, when, operation);
         } else {
             /*
              * Starting from Marshmallow, it seems like this is the only way for setting a reliable
@@ -110,7 +507,16 @@ public class ReminderManager {
              * If we use the setExactAndAllowWhileIdle the user will see nothing, but the OS can
              * delay alarms at some sort of situations.
              */
-            mAlarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, when.getTimeInMillis(), operation);
+            mAlarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, when, operation);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Unsets an alarm in the operating system.
+     */
+    private void cancelAlarm(PendingIntent operation) {
+        alarmCallsMade.incrementAndGet();
+        mAlarmManager.cancel(operation);
+        operation.cancel();
+    }
+}
@@ -0,0 +1,71 @@
+package bembibre.alarmfix.alarms;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The ways in which {@link ReminderManager} can set the alarms of the reminders. The mode is a
+ * setting of the user, kept in the shared preferences of the application; when it changes, the
+ * alarms of the old mode are unset and the reminders are scheduled again with the new one, see
+ * {@link bembibre.alarmfix.core.SynchronizedWork#changeSchedulingMode(Context, SchedulingMode)}.
+ *
+ * Whatever the mode, every alarm that goes off notifies the reminders that are due, so the alarms
+ * of a mode that are still set when the mode changes do no harm.
+ */
+public enum SchedulingMode {
+
+    /**
+     * A single alarm is kept set for the first reminder that hasn't been notified. When it goes
+     * off, everything that is due is notified and the alarm is set again for the next reminder, so
+     * the work of setting alarms doesn't grow with the number of reminders.
+     */
+    CHAINED,
+
+    /**
+     * The reminders that fall in the same window share a single alarm, which goes off when the
+     * window ends and notifies all of them.
+     */
+    WINDOWS,
+
+    /**
+     * Every reminder has got its own alarm, for the exact moment of the reminder.
+     */
+    PER_REMINDER;
+
+    private static final String PREFERENCES = "scheduling";
+    private static final String KEY_MODE = "mode";
+
+    /**
+     * The mode used until the user chooses another one.
+     */
+    public static final SchedulingMode DEFAULT = CHAINED;
+
+    /**
+     * Returns the mode chosen by the user.
+     *
+     * @param context the context.
+     * @return the mode, {@link #DEFAULT} if the user hasn't chosen any.
+     */
+    public static SchedulingMode load(Context context) {
+        String name = getPreferences(context).getString(KEY_MODE, DEFAULT.name());
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            // A mode that doesn't exist any more.
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Keeps this mode as the one chosen by the user.
+     *
+     * @param context the context.
+     */
+    public void save(Context context) {
+        getPreferences(context).edit().putString(KEY_MODE, name()).commit();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+}
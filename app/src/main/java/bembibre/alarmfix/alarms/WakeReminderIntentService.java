@@ -20,6 +20,14 @@ public abstract class WakeReminderIntentService extends IntentService {
         getLock(context).acquire();
     }
 
+    /**
+     * Releases the lock acquired for a service that couldn't be started, because then the service
+     * won't release it.
+     */
+    public static void releaseStaticLock(Context context) {
+        getLock(context).release();
+    }
+
     synchronized private static PowerManager.WakeLock getLock(Context context) {
         if (lockStatic == null) {
             PowerManager mgr = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
@@ -0,0 +1,76 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+
+import bembibre.alarmfix.core.SynchronizedWork;
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * Moves to the archive the reminders that were notified long ago, batch by batch, in the
+ * background. It is started when the phone is turned on and when the reminders list is opened.
+ */
+public class ArchiveService extends IntentService {
+
+    /**
+     * Optional extra with the age, in milliseconds, that a notified reminder must have for being
+     * archived.
+     */
+    public static final String EXTRA_MAX_AGE_MILLIS = "max_age_millis";
+
+    /**
+     * Age used when the intent doesn't say it: 30 days.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    public ArchiveService() {
+        super("ArchiveService");
+    }
+
+    /**
+     * Starts the service with the default age. From Oreo on the system refuses it while the
+     * application is in the background, and then the reminders are archived the next time that
+     * the list is opened.
+     *
+     * @param context the context.
+     */
+    public static void start(Context context) {
+        try {
+            context.startService(new Intent(context, ArchiveService.class));
+        } catch (IllegalStateException e) {
+            Logger.log("Unable to start the archiving of the old reminders.", e);
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        archiveOldReminders(this, intent.getLongExtra(EXTRA_MAX_AGE_MILLIS, DEFAULT_MAX_AGE_MILLIS));
+    }
+
+    /**
+     * Archives the reminders notified before the given age, batch by batch, until there are no
+     * more.
+     *
+     * @param context the context.
+     * @param maxAge age, in milliseconds, that a notified reminder must have for being archived.
+     */
+    static void archiveOldReminders(Context context, long maxAge) {
+        long before = System.currentTimeMillis() - maxAge;
+        try {
+            long start = System.currentTimeMillis();
+            int total = 0;
+            int moved;
+            do {
+                moved = SynchronizedWork.archiveOldReminders(context, before);
+                total += moved;
+            } while (moved == RemindersDbAdapter.ARCHIVE_BATCH_SIZE);
+            if (total > 0) {
+                Logger.log(total + " reminders archived in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+        } catch (Throwable t) {
+            Logger.log("Unable to archive the old reminders.", t);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+/**
+ * Archives the old reminders, runs the pending background migrations and purges the deleted
+ * reminders after the phone is turned on, as {@link ArchiveService}, {@link MigrationService}
+ * and {@link PurgeService} do before Oreo, where a service can still be started from the
+ * background. The system keeps the phone awake while the job runs. If it stops the job before
+ * the end, the work goes on the next time that the reminders list is opened.
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class BackgroundPassesJobService extends JobService {
+
+    /**
+     * Identifier of the job, see {@link MaintenanceJobService} and
+     * {@link BootSchedulingJobService} for the other ones.
+     */
+    private static final int JOB_ID = 3;
+
+    /**
+     * Enqueues the job, replacing the one of a previous boot if it is still pending.
+     *
+     * @param context the context.
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, BackgroundPassesJobService.class))
+                .setOverrideDeadline(0)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Each pass logs its own failures.
+                ArchiveService.archiveOldReminders(BackgroundPassesJobService.this, ArchiveService.DEFAULT_MAX_AGE_MILLIS);
+                MigrationService.runPendingMigrations(BackgroundPassesJobService.this);
+                PurgeService.purgeDeletedReminders(BackgroundPassesJobService.this);
+                jobFinished(params, false);
+            }
+        }, "BackgroundPassesJobService").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The passes go on when the reminders list is opened.
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.PersistableBundle;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bembibre.alarmfix.core.SynchronizedWork;
+
+/**
+ * Runs the second stage of the boot as soon as possible, see {@link BootSchedulingService}. The
+ * system keeps the phone awake while the job runs. If it stops the job before the end, the job
+ * runs again later from the same position: the alarms that were already set are in the registry
+ * of the armed alarms, so setting them again costs no call to the alarm service.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class BootSchedulingJobService extends JobService {
+
+    /**
+     * Identifier of the job, which must be different from the ones of the other jobs of the
+     * application, see {@link MaintenanceJobService}.
+     */
+    private static final int JOB_ID = 2;
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * Enqueues the job, replacing the one of a previous boot if it is still pending.
+     *
+     * @param context the context.
+     * @param position where the first stage of the boot has stopped.
+     */
+    static void schedule(Context context, SynchronizedWork.BootPosition position) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putLong(BootSchedulingService.EXTRA_DATE_TIME, position.getDateTime());
+        extras.putLong(BootSchedulingService.EXTRA_ROW_ID, position.getRowId());
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, BootSchedulingJobService.class))
+                .setOverrideDeadline(0)
+                .setExtras(extras)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        stopped.set(false);
+        PersistableBundle extras = params.getExtras();
+        final SynchronizedWork.BootPosition position = new SynchronizedWork.BootPosition(
+                extras.getLong(BootSchedulingService.EXTRA_DATE_TIME), extras.getLong(BootSchedulingService.EXTRA_ROW_ID));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                BootSchedulingService.scheduleLaterReminders(BootSchedulingJobService.this, position, stopped);
+                if (!stopped.get()) {
+                    jobFinished(params, false);
+                }
+            }
+        }, "BootSchedulingJobService").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped.set(true);
+        // It runs again from the start of the stage.
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import bembibre.alarmfix.alarms.ReminderManager;
+import bembibre.alarmfix.alarms.WakeReminderIntentService;
+import bembibre.alarmfix.core.SynchronizedWork;
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * Sets the alarms of the reminders that the first stage of the boot has left, batch by batch, in
+ * the background, once the wake lock of the boot has been released. The first stage has set the
+ * alarm of the first reminder left, so the phone wakes up before any of them is due.
+ *
+ * From Lollipop on the work is enqueued in the job scheduler, see
+ * {@link BootSchedulingJobService}, which keeps the phone awake while a job runs, and from Oreo on
+ * a service can't be started while the application is in the background. Before Lollipop this
+ * service does the work, holding the static wake lock, which is acquired before it is started.
+ */
+public class BootSchedulingService extends WakeReminderIntentService {
+
+    /**
+     * Date of the last reminder whose alarm has been set by the first stage.
+     */
+    static final String EXTRA_DATE_TIME = "date_time";
+
+    /**
+     * Row identifier of the last reminder whose alarm has been set by the first stage.
+     */
+    static final String EXTRA_ROW_ID = "row_id";
+
+    public BootSchedulingService() {
+        super("BootSchedulingService");
+    }
+
+    /**
+     * Starts the second stage of the boot.
+     *
+     * @param context the context.
+     * @param position where the first stage of the boot has stopped.
+     */
+    public static void start(Context context, SynchronizedWork.BootPosition position) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            BootSchedulingJobService.schedule(context, position);
+            return;
+        }
+        Intent intent = new Intent(context, BootSchedulingService.class);
+        intent.putExtra(EXTRA_DATE_TIME, position.getDateTime());
+        intent.putExtra(EXTRA_ROW_ID, position.getRowId());
+        WakeReminderIntentService.acquireStaticLock(context);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void doReminderWork(Intent intent) {
+        SynchronizedWork.BootPosition position = new SynchronizedWork.BootPosition(
+                intent.getLongExtra(EXTRA_DATE_TIME, 0), intent.getLongExtra(EXTRA_ROW_ID, 0));
+        scheduleLaterReminders(this, position, new AtomicBoolean());
+    }
+
+    /**
+     * Sets the alarms of the reminders after the given position, batch by batch, until there are
+     * no more or until it is told to stop, which is checked between the batches.
+     *
+     * @param context the context.
+     * @param position where the first stage of the boot has stopped.
+     * @param stopped becomes <code>true</code> when the work must stop.
+     */
+    static void scheduleLaterReminders(Context context, SynchronizedWork.BootPosition position, AtomicBoolean stopped) {
+        ReminderManager reminderManager = new ReminderManager(context);
+        RemindersDbAdapter dbHelper = RemindersDbAdapter.getInstance(context);
+        try {
+            long start = System.currentTimeMillis();
+            long longestBatch = 0;
+            int batches = 0;
+            int total = 0;
+            int scheduled;
+            do {
+                long batchStart = System.currentTimeMillis();
+                scheduled = SynchronizedWork.scheduleLaterReminders(reminderManager, dbHelper, position);
+                longestBatch = Math.max(longestBatch, System.currentTimeMillis() - batchStart);
+                batches++;
+                total += scheduled;
+            } while ((scheduled == RemindersDbAdapter.BOOT_BATCH_SIZE) && (!stopped.get()));
+            Logger.log("Boot stage 2: " + total + " reminders scheduled in " + batches + " batches and " + (System.currentTimeMillis() - start) + " ms, the longest batch took " + longestBatch + " ms" + (stopped.get() ? ", stopped by the system. " : ". ") + ReminderManager.getAlarmCallsReport());
+        } catch (Throwable t) {
+            Logger.log("Unable to set the alarms of the later reminders.", t);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package bembibre.alarmfix.alarms.intentservices;
 
 import android.content.Intent;
+import android.os.Build;
 import android.os.Handler;
 
 import bembibre.alarmfix.R;
@@ -10,11 +11,20 @@ import bembibre.alarmfix.core.SynchronizedWork;
 import bembibre.alarmfix.database.RemindersDbAdapter;
 
 /**
- * Class that notifies past alarms and sets the next alarm when the phone has just been turned on,
- * while a wake lock is retained for making sure that the work is done.
+ * Class that notifies past alarms and sets the upcoming alarms when the phone has just been turned
+ * on, while a wake lock is retained for making sure that the work is done. Only the first stage of
+ * the boot is run here, so the wake lock is held as short as possible during the storm of
+ * applications that start with the phone: the alarms of the reminders further away are set in the
+ * background by {@link BootSchedulingService}, which keeps the phone awake on its own.
  */
 public class BootService extends WakeReminderIntentService {
 
+    /**
+     * The alarms of the reminders due within this time since the phone is turned on are set in
+     * the first stage of the boot: 6 hours.
+     */
+    public static final long PRIORITY_HORIZON_MILLIS = 6L * 60 * 60 * 1000;
+
     Handler mHandler;
 
     public BootService() {
@@ -26,7 +36,18 @@ public class BootService extends WakeReminderIntentService {
     protected void doReminderWork(Intent intent) {
         ReminderManager reminderMgr = new ReminderManager(this);
         RemindersDbAdapter dbHelper = RemindersDbAdapter.getInstance(this);
-        SynchronizedWork.phoneHasJustBeenTurnedOn(this, reminderMgr, dbHelper);
+        SynchronizedWork.BootPosition position = SynchronizedWork.phoneHasJustBeenTurnedOn(this, reminderMgr, dbHelper);
         mHandler.post(new DisplayToast(this, this.getString(R.string.boot_received)));
+        if (position != null) {
+            BootSchedulingService.start(this, position);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // A service can't be started from the background any longer.
+            BackgroundPassesJobService.schedule(this);
+        } else {
+            ArchiveService.start(this);
+            MigrationService.start(this);
+            PurgeService.start(this);
+        }
     }
-}
\ No newline at end of file
+}
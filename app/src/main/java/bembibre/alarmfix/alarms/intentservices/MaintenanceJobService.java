@@ -0,0 +1,90 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+import bembibre.alarmfix.database.DatabaseMaintenance;
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * Runs the maintenance of the database once a day, when the phone is idle and charging. The
+ * system stops the job as soon as that is no longer true, and then the maintenance finishes
+ * after the step in progress.
+ *
+ * The job scheduler only exists from Lollipop on, so before that the maintenance never runs.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MaintenanceJobService extends JobService {
+
+    /**
+     * Identifier of the job, see {@link BootSchedulingJobService} and
+     * {@link BackgroundPassesJobService} for the other ones.
+     */
+    private static final int JOB_ID = 1;
+
+    private static final long PERIOD_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Time that a whole run can take. The system gives a job some minutes at most.
+     */
+    private static final long BUDGET_MILLIS = 2 * 60 * 1000;
+
+    private volatile DatabaseMaintenance maintenance;
+
+    /**
+     * Schedules the job, unless it is already scheduled, because scheduling it again would put
+     * off its next run.
+     *
+     * @param context the context.
+     */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        maintenance = new DatabaseMaintenance(RemindersDbAdapter.getInstance(this));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    maintenance.run(BUDGET_MILLIS);
+                    Logger.log("Database maintenance finished in " + (System.currentTimeMillis() - start) + " ms.");
+                } catch (Throwable t) {
+                    Logger.log("Unable to finish the database maintenance.", t);
+                }
+                jobFinished(params, false);
+            }
+        }, "MaintenanceJobService").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        DatabaseMaintenance current = maintenance;
+        if (current != null) {
+            current.stop();
+        }
+        // It runs again the next day.
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * Runs the background migrations left pending by a database upgrade, batch by batch, so the
+ * upgrade itself only changes the schema and the application can be used meanwhile. It is
+ * started when the phone is turned on and when the reminders list is opened, and it does nothing
+ * when there are no pending migrations.
+ */
+public class MigrationService extends IntentService {
+
+    public MigrationService() {
+        super("MigrationService");
+    }
+
+    /**
+     * Starts the service. From Oreo on the system refuses it while the application is in the
+     * background, and then the migrations go on the next time that the list is opened.
+     *
+     * @param context the context.
+     */
+    public static void start(Context context) {
+        try {
+            context.startService(new Intent(context, MigrationService.class));
+        } catch (IllegalStateException e) {
+            Logger.log("Unable to start the background migrations.", e);
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        runPendingMigrations(this);
+    }
+
+    /**
+     * Runs the pending background migrations, batch by batch, until there are no more.
+     *
+     * @param context the context.
+     */
+    static void runPendingMigrations(Context context) {
+        RemindersDbAdapter dbAdapter = RemindersDbAdapter.getInstance(context);
+        dbAdapter.open();
+        try {
+            // Each batch commits on its own, so whatever is left goes on the next time.
+            long start = System.currentTimeMillis();
+            int batches = 0;
+            while (dbAdapter.runMigrationBatch(RemindersDbAdapter.MIGRATION_BATCH_SIZE)) {
+                batches++;
+            }
+            if (batches > 0) {
+                Logger.log(batches + " background migration batches run in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+        } catch (Throwable t) {
+            Logger.log("Unable to run the background migrations.", t);
+        } finally {
+            dbAdapter.close();
+        }
+    }
+}
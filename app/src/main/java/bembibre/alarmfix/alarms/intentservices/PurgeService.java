@@ -0,0 +1,73 @@
+package bembibre.alarmfix.alarms.intentservices;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+
+import bembibre.alarmfix.core.SynchronizedWork;
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * Removes for good the deleted reminders, batch by batch, in the background, unsetting their
+ * alarms. Deleting only marks the reminders, so the user doesn't wait for the alarms and the rows
+ * and can undo it, and this does the rest once the deletion can't be undone any longer. It is
+ * started when the phone is turned on, when the reminders list is opened and when the time for
+ * undoing a deletion is over.
+ */
+public class PurgeService extends IntentService {
+
+    /**
+     * Time during which a deletion can be undone. The reminders deleted earlier than this are
+     * purged.
+     */
+    public static final long UNDO_WINDOW_MILLIS = 30 * 1000;
+
+    public PurgeService() {
+        super("PurgeService");
+    }
+
+    /**
+     * Starts the service. From Oreo on the system refuses it while the application is in the
+     * background, and then the deleted reminders are purged the next time that the list is
+     * opened.
+     *
+     * @param context the context.
+     */
+    public static void start(Context context) {
+        try {
+            context.startService(new Intent(context, PurgeService.class));
+        } catch (IllegalStateException e) {
+            Logger.log("Unable to start the purge of the deleted reminders.", e);
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        purgeDeletedReminders(this);
+    }
+
+    /**
+     * Purges the reminders deleted before the time for undoing it, batch by batch, until there
+     * are no more.
+     *
+     * @param context the context.
+     */
+    static void purgeDeletedReminders(Context context) {
+        long before = System.currentTimeMillis() - UNDO_WINDOW_MILLIS;
+        try {
+            long start = System.currentTimeMillis();
+            int total = 0;
+            int purged;
+            do {
+                purged = SynchronizedWork.purgeDeletedReminders(context, before);
+                total += purged;
+            } while (purged == RemindersDbAdapter.PURGE_BATCH_SIZE);
+            if (total > 0) {
+                Logger.log(total + " deleted reminders purged in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+        } catch (Throwable t) {
+            Logger.log("Unable to purge the deleted reminders.", t);
+        }
+    }
+}
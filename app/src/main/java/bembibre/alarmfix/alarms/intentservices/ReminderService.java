@@ -11,7 +11,8 @@ import bembibre.alarmfix.core.SynchronizedWork;
 
 /**
  * Class for showing notifications of reminders while a wake lock is retained for making sure that
- * the notification is shown.
+ * the notification is shown. With the chained alarm, it notifies everything that is due and sets
+ * the alarm again for the next reminder.
  */
 public class ReminderService extends WakeReminderIntentService {
     public ReminderService() {
@@ -28,8 +28,17 @@ public class OnBootReceiver extends BroadcastReceiver {
         try {
             WakeReminderIntentService.acquireStaticLock(context);
             Intent i = new Intent(context, BootService.class);
-            context.startService(i);
-            Logger.log("Service finished.");
+            try {
+                /*
+                 * The application can start a service while it handles the broadcast of the boot,
+                 * even from Oreo on, but the lock must not be kept if the system refuses it.
+                 */
+                context.startService(i);
+            } catch (RuntimeException e) {
+                WakeReminderIntentService.releaseStaticLock(context);
+                throw e;
+            }
+            Logger.log("Service started.");
         } catch (Throwable t) {
             Logger.log("CRITICAL FAILURE.", t);
             try {
@@ -2,15 +2,17 @@ package bembibre.alarmfix.core;
 
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.List;
 
+import bembibre.alarmfix.alarms.AlarmException;
 import bembibre.alarmfix.alarms.ReminderManager;
+import bembibre.alarmfix.database.ReminderStore;
 import bembibre.alarmfix.database.RemindersDbAdapter;
 import bembibre.alarmfix.logging.Logger;
-import bembibre.alarmfix.models.DateTime;
+import bembibre.alarmfix.models.ReminderSnapshot;
 import bembibre.alarmfix.utils.GeneralUtils;
 
 /**
@@ -20,37 +22,110 @@ public class CoreOperations {
 
     public static final String BROADCAST_BUFFER_SEND_CODE = "com.example.SEND_CODE";
 
-    static void notifyReminder(Context context, long rowId, long receivedAlarmId) throws Exception {
+    /**
+     * Ten minutes.
+     */
+    private static final long A_WHILE_MILLIS = 10 * 60 * 1000;
+
+    static void notifyReminder(Context context, ReminderStore dbHelper, long rowId, long receivedAlarmId) throws Exception {
         // Status bar notification Code Goes here.
         String reminderTitle;
         long alarmId;
-        RemindersDbAdapter dbHelper = RemindersDbAdapter.getInstance(context);
         dbHelper.open();
         try {
-            Cursor cursor = dbHelper.fetchReminder(rowId);
-            if (cursor != null) {
-                if (cursor.moveToFirst()) {
-                    Logger.log("A reminder with identifier " + rowId + " is going to be notified to the user.");
-                    reminderTitle = cursor.getString(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_TITLE));
-                    alarmId = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_ALARM_ID));
-
-                    /*
-                     * If the alarm identified of the database doesn't match with the received one,
-                     * then this would be an old alarm and shouldn't do anything.
-                     */
-                    if (alarmId == receivedAlarmId) {
-                        // Send notification to the user.
-                        new bembibre.alarmfix.userinterface.NotificationManager(context).notifySingleReminder(rowId, reminderTitle);
-
-                        // Mark the reminder as notified.
-                        dbHelper.updateReminder(rowId, true);
-                    } else {
-                        Logger.log("An alarm has been received with the alarm identifier " + receivedAlarmId + " but the alarm identifier that this reminder has got currently is " + alarmId + ", so no notification will be made.");
+            ReminderSnapshot reminder = dbHelper.getActiveReminder(rowId);
+            if (reminder != null) {
+                Logger.log("A reminder with identifier " + rowId + " is going to be notified to the user.");
+                reminderTitle = reminder.getTitle();
+                alarmId = reminder.getAlarmId();
+
+                /*
+                 * If the alarm identified of the database doesn't match with the received one,
+                 * then this would be an old alarm and shouldn't do anything.
+                 */
+                if (reminder.isNotified()) {
+                    // Already notified by the chained alarm, this alarm was set before it.
+                    Logger.log("An alarm has been received for the reminder with identifier " + rowId + ", which has already been notified, so no notification will be made.");
+                } else if (alarmId == receivedAlarmId) {
+                    // Send notification to the user.
+                    new bembibre.alarmfix.userinterface.NotificationManager(context).notifySingleReminder(rowId, reminderTitle);
+
+                    // Mark the reminder as notified.
+                    dbHelper.updateReminder(rowId, true);
+                } else {
+                    Logger.log("An alarm has been received with the alarm identifier " + receivedAlarmId + " but the alarm identifier that this reminder has got currently is " + alarmId + ", so no notification will be made.");
+                }
+            } else {
+                // Deleted while its alarm was still set. The alarm is unset when it is purged.
+                Logger.log("An alarm has been received for the reminder with identifier " + rowId + ", which has been deleted, so no notification will be made.");
+            }
+        } finally {
+            dbHelper.close();
+        }
+
+        /*
+         * Notice the reminders list activity (just in case it is open right now) to update the
+         * reminders list.
+         */
+        Intent bufferIntentSendCode = new Intent(BROADCAST_BUFFER_SEND_CODE);
+        context.sendBroadcast(bufferIntentSendCode);
+    }
+
+    /**
+     * Called when the chained alarm or the alarm of a window goes off: notifies in a single pass
+     * every reminder that is due, marking it as notified, and sets the chained alarm again for the
+     * next reminder, or unsets it if there are no more. No alarm goes off before its reminders,
+     * so only what is due by now is notified. The due reminders are read and marked in a single
+     * transaction, and they are only notified once it has been committed, so the notifications
+     * don't keep it open. They are marked as notified even if the notification fails, like the
+     * alarm of a single reminder is spent, or the chained alarm would go off again for them at
+     * once.
+     *
+     * @param context application context.
+     * @param reminderManager object for setting the chained alarm.
+     * @param dbHelper object for accessing the database.
+     */
+    static void notifyDueReminders(Context context, ReminderManager reminderManager, ReminderStore dbHelper) throws AlarmException {
+        final List<Long> dueReminderIds = new ArrayList<>();
+        final List<String> dueReminderTitles = new ArrayList<>();
+        dbHelper.open();
+        try {
+            dbHelper.beginTransaction();
+            try {
+                dbHelper.visitDueReminders(System.currentTimeMillis(), new ReminderStore.ReminderVisitor() {
+                    @Override
+                    public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+                        dueReminderIds.add(rowId);
+                        dueReminderTitles.add(title);
+                        return true;
                     }
+                });
+                for (long rowId : dueReminderIds) {
+                    dbHelper.updateReminder(rowId, true);
+                }
+                dbHelper.setTransactionSuccessful();
+            } finally {
+                dbHelper.endTransaction();
+            }
+            Logger.log("An alarm has gone off, " + dueReminderIds.size() + " reminders are due.");
+            bembibre.alarmfix.userinterface.NotificationManager notificationManager =
+                    new bembibre.alarmfix.userinterface.NotificationManager(context);
+            for (int index = 0; index < dueReminderIds.size(); index++) {
+                long rowId = dueReminderIds.get(index);
+                try {
+                    notificationManager.notifySingleReminder(rowId, dueReminderTitles.get(index));
+                } catch (Exception e) {
+                    Logger.log("Unable to notify the reminder with identifier " + rowId + ".", e);
+                }
+            }
+
+            if (reminderManager.isChained()) {
+                long next = dbHelper.fetchNextReminderDateTime();
+                if (next < 0) {
+                    reminderManager.unsetNextAlarm();
                 } else {
-                    throw new Exception("There's no way for accessing database for getting information about a reminder which has to be notified to the user.");
+                    reminderManager.setNextAlarm(next);
                 }
-                cursor.close();
             }
         } finally {
             dbHelper.close();
@@ -79,31 +154,40 @@ public class CoreOperations {
      * nothing even if it was fired.
      * @return identifier of the created or updated reminder or <code>null</code> if there was a problem.
      */
-    public static Long createReminderAndAlarm(Context context, RemindersDbAdapter dbAdapter, String title, String body, Calendar reminderCalendar, Long updatedReminderId, Long currentAlarmId, boolean ignorePast) {
+    public static Long createReminderAndAlarm(Context context, ReminderStore dbAdapter, String title, String body, Calendar reminderCalendar, Long updatedReminderId, Long currentAlarmId, boolean ignorePast) {
+        return createReminderAndAlarm(context, dbAdapter, title, body, reminderCalendar.getTimeInMillis(), updatedReminderId, currentAlarmId, ignorePast);
+    }
+
+    /**
+     * Does the operation of creating or updating a reminder.
+     *
+     * @param reminderDateTime date and time for the reminder as milliseconds since the Epoch.
+     * @see #createReminderAndAlarm(Context, ReminderStore, String, String, Calendar, Long, Long, boolean)
+     */
+    public static Long createReminderAndAlarm(Context context, ReminderStore dbAdapter, String title, String body, long reminderDateTime, Long updatedReminderId, Long currentAlarmId, boolean ignorePast) {
         Long id;
         long alarmId;
-        DateTime reminderDateTime = new DateTime(reminderCalendar);
-        long now = new Date().getTime();
+        long now = System.currentTimeMillis();
         try {
             dbAdapter.beginTransaction();
 
             if (updatedReminderId == null) {
-                id = dbAdapter.createReminder(title, body, reminderDateTime.toMillisecondsSinceTheEpoch());
+                id = dbAdapter.createReminder(title, body, reminderDateTime);
                 alarmId = RemindersDbAdapter.FIRST_ALARM_ID;
             } else {
                 id = updatedReminderId;
                 alarmId = currentAlarmId + 1;
-                dbAdapter.updateReminder(id, title, body, reminderDateTime.toMillisecondsSinceTheEpoch(), alarmId);
+                dbAdapter.updateReminder(id, title, body, reminderDateTime, alarmId);
             }
 
             /*
              * Can throw exception.
              * If a reminder update has happened, the alarm for the old time is cancelled automatically.
              */
-            if ((ignorePast) && (reminderDateTime.toMillisecondsSinceTheEpoch() <= now)) {
-                Logger.log("An alarm has been ignored because it is past, for the reminder at " + GeneralUtils.format(reminderCalendar) + ". Reminder id: " + id);
+            if ((ignorePast) && (reminderDateTime <= now)) {
+                Logger.log("An alarm has been ignored because it is past, for the reminder at " + GeneralUtils.format(reminderDateTime) + ". Reminder id: " + id);
             } else {
-                new ReminderManager(context).setReminder(id, alarmId, reminderCalendar);
+                new ReminderManager(context, dbAdapter.getAlarmRegistry()).scheduleReminder(id, alarmId, reminderDateTime);
             }
 
             // No exceptions, all okay.
@@ -126,31 +210,94 @@ public class CoreOperations {
      * away from now.
      */
     public static long getNowDateTimeWithinAWhile() {
-        Calendar nowCalendar = Calendar.getInstance();
-        nowCalendar.add(Calendar.MINUTE, 10);
-        return nowCalendar.getTime().getTime();
+        return System.currentTimeMillis() + A_WHILE_MILLIS;
+    }
+
+    /**
+     * Deletes all of the reminders with a single statement. Their alarms are left set until the
+     * reminders are purged, see {@link #purgeDeletedReminders(Context, ReminderStore, long, int)},
+     * and if any of them goes off meanwhile it finds its reminder deleted and does nothing.
+     *
+     * @param dbAdapter object for accessing the database, the caller must open an close it properly.
+     */
+    public static void deleteAllReminders(ReminderStore dbAdapter) {
+        dbAdapter.deleteAllReminders();
+        Logger.log("All reminders have been deleted.");
+    }
+
+    /**
+     * Deletes all of the reminders and removes them for good at once, with the ones that were
+     * already deleted, in a single transaction, so nothing is left behind for undoing. It is used
+     * when the reminders are replaced by imported ones. Their alarms are unset once the
+     * transaction has been committed, so they stay set if it fails.
+     *
+     * @param context application context.
+     * @param dbAdapter object for accessing the database, the caller must open an close it properly.
+     */
+    public static void purgeAllReminders(Context context, ReminderStore dbAdapter) {
+        final List<Long> alarmedReminderIds = new ArrayList<>();
+        ReminderStore.ReminderVisitor visitor = new ReminderStore.ReminderVisitor() {
+            @Override
+            public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+                if (!notified) {
+                    alarmedReminderIds.add(rowId);
+                }
+                return true;
+            }
+        };
+        int total = 0;
+        dbAdapter.beginTransaction();
+        try {
+            dbAdapter.deleteAllReminders();
+            int purged;
+            do {
+                purged = dbAdapter.purgeDeletedReminders(Long.MAX_VALUE, RemindersDbAdapter.PURGE_BATCH_SIZE, visitor);
+                total += purged;
+            } while (purged == RemindersDbAdapter.PURGE_BATCH_SIZE);
+            dbAdapter.setTransactionSuccessful();
+        } finally {
+            dbAdapter.endTransaction();
+        }
+        unsetReminders(context, dbAdapter, alarmedReminderIds);
+        Logger.log("All reminders have been removed for good: " + total + ".");
     }
 
-    public static void deleteReminderAndItsAlarm(Context context, RemindersDbAdapter mDbHelper, long reminderDatabaseId, String dateAsString) {
-        mDbHelper.deleteReminder(reminderDatabaseId);
-        new ReminderManager(context).unsetReminder(reminderDatabaseId, dateAsString);
+    /**
+     * Removes for good a batch of the reminders deleted before the given moment and unsets their
+     * alarms. Only the reminders that haven't been notified yet can still have an alarm, so only
+     * their alarms are unset, including the past ones because the system can deliver an alarm
+     * late. The alarms are unset once the reminders are gone, so if the batch fails they are
+     * unset again by the next one.
+     *
+     * @param context application context.
+     * @param dbAdapter object for accessing the database, the caller must open an close it properly.
+     * @param before milliseconds since the Epoch.
+     * @param batchSize maximum number of reminders to remove.
+     * @return the number of reminders removed, less than the batch size when there are no more.
+     */
+    public static int purgeDeletedReminders(Context context, ReminderStore dbAdapter, long before, int batchSize) {
+        final List<Long> alarmedReminderIds = new ArrayList<>();
+        int purged = dbAdapter.purgeDeletedReminders(before, batchSize, new ReminderStore.ReminderVisitor() {
+            @Override
+            public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+                if (!notified) {
+                    alarmedReminderIds.add(rowId);
+                }
+                return true;
+            }
+        });
+        unsetReminders(context, dbAdapter, alarmedReminderIds);
+        return purged;
     }
 
-    public static void deleteReminderAndItsAlarm(Context context, RemindersDbAdapter mDbHelper, long reminderDatabaseId) {
-        Cursor cursor = mDbHelper.fetchReminder(reminderDatabaseId);
-        Long date;
-        String dateAsString;
-        if ((cursor != null) && (cursor.moveToFirst())) {
-            date = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_DATE_TIME));
-        } else {
-            date = null;
+    private static void unsetReminders(Context context, ReminderStore dbAdapter, List<Long> alarmedReminderIds) {
+        if (alarmedReminderIds.isEmpty()) {
+            return;
         }
-        if (date == null) {
-            dateAsString = "unknown";
-        } else {
-            dateAsString = new DateTime(date).toString();
+        long[] reminderIds = new long[alarmedReminderIds.size()];
+        for (int index = 0; index < reminderIds.length; index++) {
+            reminderIds[index] = alarmedReminderIds.get(index);
         }
-        deleteReminderAndItsAlarm(context, mDbHelper, reminderDatabaseId, dateAsString);
-        cursor.close();
+        new ReminderManager(context, dbAdapter.getAlarmRegistry()).unsetReminders(reminderIds);
     }
 }
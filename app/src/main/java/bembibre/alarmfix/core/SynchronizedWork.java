@@ -3,7 +3,6 @@ package bembibre.alarmfix.core;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
 import android.widget.Toast;
 
 import org.json.JSONArray;
@@ -12,7 +11,6 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 
 import bembibre.alarmfix.R;
@@ -20,14 +18,16 @@ import bembibre.alarmfix.ReminderEditActivity;
 import bembibre.alarmfix.ReminderListActivity;
 import bembibre.alarmfix.alarms.AlarmException;
 import bembibre.alarmfix.alarms.ReminderManager;
+import bembibre.alarmfix.alarms.SchedulingMode;
+import bembibre.alarmfix.alarms.intentservices.BootService;
+import bembibre.alarmfix.database.AlarmRegistry;
+import bembibre.alarmfix.database.ReminderStore;
 import bembibre.alarmfix.database.RemindersDbAdapter;
 import bembibre.alarmfix.logging.Logger;
-import bembibre.alarmfix.logic.DeleteAllReminders;
 import bembibre.alarmfix.logic.exportimport.DataImport;
 import bembibre.alarmfix.models.DataImportResultType;
 import bembibre.alarmfix.models.ImportedReminder;
 import bembibre.alarmfix.models.DataImportResult;
-import bembibre.alarmfix.models.DateTime;
 import bembibre.alarmfix.userinterface.NotificationManager;
 import bembibre.alarmfix.userinterface.UserInterfaceUtils;
 
@@ -43,86 +43,296 @@ public class SynchronizedWork {
      * @param intent intent of the alarm.
      */
     public synchronized static void reminderAlarmReceived(Context context, Intent intent) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
+        dbAdapter.open();
         try {
-            long rowId = intent.getExtras().getLong(RemindersDbAdapter.KEY_ROWID);
-            long alarmId = intent.getExtras().getLong(ReminderManager.EXTRA_ALARM_ID);
-            CoreOperations.notifyReminder(context, rowId, alarmId);
-        } catch (Throwable t) {
-            Logger.log("CRITICAL ERROR: an alarm has been triggered and couldn't be handled. The application has failed to notify an alarm.", t);
+            ReminderManager reminderManager = new ReminderManager(context, dbAdapter.getAlarmRegistry());
+            if (ReminderManager.ACTION_NEXT_ALARM.equals(intent.getAction())
+                    || ReminderManager.ACTION_WINDOW_ALARM.equals(intent.getAction())) {
+                try {
+                    if (intent.hasExtra(ReminderManager.EXTRA_WINDOW_END)) {
+                        reminderManager.windowAlarmWentOff(intent.getLongExtra(ReminderManager.EXTRA_WINDOW_END, 0));
+                    }
+                    CoreOperations.notifyDueReminders(context, reminderManager, dbAdapter);
+                } catch (Throwable t) {
+                    Logger.log("CRITICAL ERROR: an alarm has been triggered and couldn't be handled. The application has failed to notify the due reminders.", t);
+                }
+                return;
+            }
+            try {
+                long rowId = intent.getExtras().getLong(RemindersDbAdapter.KEY_ROWID);
+                long alarmId = intent.getExtras().getLong(ReminderManager.EXTRA_ALARM_ID);
+                reminderManager.reminderAlarmWentOff(rowId);
+                CoreOperations.notifyReminder(context, dbAdapter, rowId, alarmId);
+            } catch (Throwable t) {
+                Logger.log("CRITICAL ERROR: an alarm has been triggered and couldn't be handled. The application has failed to notify an alarm.", t);
+            }
+        } finally {
+            dbAdapter.close();
         }
     }
 
     /**
      * Called when the phone has just been turned on, this method manages the situation of
      * notifying any alarm that couldn't be notified when the phone was off and of setting the
-     * system alarms for any upcoming reminder.
+     * system alarms for the upcoming reminders. It is the first stage of the boot, which is run
+     * while the wake lock is held, so it only sets the alarms of the reminders due within
+     * {@link BootService#PRIORITY_HORIZON_MILLIS}, plus the alarm of the first reminder after
+     * them, so the phone wakes up before any reminder that the later stages haven't reached. The
+     * later stages set the rest with {@link #scheduleLaterReminders}.
+     *
+     * The past reminders are all marked as notified with a single statement and the whole pass is
+     * a single transaction, so a long backlog of missed reminders costs a single write to disk.
      * @param reminderManager
      * @param dbHelper
+     * @return where the later stages must start from, or <code>null</code> if there is nothing
+     * left for them.
      */
-    public synchronized static void phoneHasJustBeenTurnedOn(Context context, ReminderManager reminderManager, RemindersDbAdapter dbHelper) {
+    public synchronized static BootPosition phoneHasJustBeenTurnedOn(Context context, ReminderManager reminderManager, ReminderStore dbHelper) {
+        long start = System.currentTimeMillis();
+        List<String> pendingReminders = new ArrayList<>();
+        int pastReminders;
+        BootVisitor visitor;
         dbHelper.open();
         try {
-            Cursor cursor = dbHelper.fetchAllNotNotifiedReminders();
-            if (cursor != null) {
+            dbHelper.beginTransaction();
+            try {
+                // None of the alarms in the registry is set any more.
+                reminderManager.forgetArmedAlarms();
                 long reference = CoreOperations.getNowDateTimeWithinAWhile();
-                List<String> pendingReminders = new ArrayList<>();
-                cursor.moveToFirst();
-                int rowIdColumnIndex = cursor.getColumnIndex(RemindersDbAdapter.KEY_ROWID);
-                int dateTimeColumnIndex = cursor.getColumnIndex(RemindersDbAdapter.KEY_DATE_TIME);
-                int remindersSet = 0;
-                int remindersNotSetAlarmException = 0;
-                while (!cursor.isAfterLast()) {
-                    long rowId = cursor.getLong(rowIdColumnIndex);
-                    DateTime dateTime = new DateTime(cursor.getLong(dateTimeColumnIndex));
-
-                    // Handle not notified reminder.
-                    if (dateTime.toMillisecondsSinceTheEpoch() < reference) {
-                        // Past reminder.
-
-                        pendingReminders.add(cursor.getString(cursor.getColumnIndex(RemindersDbAdapter.KEY_TITLE)));
-
-                        // All the pending reminders are going to be notified.
-                        dbHelper.updateReminder(rowId, true);
-                    } else {
-                        // Future reminder.
-
-                        Calendar cal = Calendar.getInstance();
-                        try {
-                            cal.setTime(new Date(dateTime.toMillisecondsSinceTheEpoch()));
-                            long alarmId = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_ALARM_ID));
-                            reminderManager.setReminder(rowId, alarmId, cal);
-                            remindersSet++;
-                        } catch (AlarmException e) {
-                            remindersNotSetAlarmException++;
+                // All the pending reminders are going to be notified.
+                pastReminders = dbHelper.markPastRemindersNotified(reference, NotificationManager.MAX_TITLES, pendingReminders);
+                visitor = new BootVisitor(reminderManager, reference);
+                if (reminderManager.isChained()) {
+                    // The system forgets the alarms when it is turned off, so it is always set.
+                    long nextDateTime = dbHelper.fetchNextReminderDateTime();
+                    try {
+                        if (nextDateTime < 0) {
+                            reminderManager.unsetNextAlarm();
+                        } else {
+                            reminderManager.setNextAlarm(nextDateTime);
+                            visitor.remindersSet++;
                         }
+                    } catch (AlarmException e) {
+                        visitor.remindersNotSetAlarmException++;
                     }
-
-                    cursor.moveToNext();
-                }
-                try {
-                    new NotificationManager(context).notifyMultipleReminders(pendingReminders);
-                } catch (Exception e) {
-                    Logger.log("Unable to notify.");
+                } else {
+                    // Ordered by date, only the future ones are left.
+                    dbHelper.visitNotNotifiedReminders(visitor);
                 }
-                Logger.log("Telephone has been turned on. Reminders set for the future: " + remindersSet + ". Reminders not set because of an alarm problem: " + remindersNotSetAlarmException + ".");
-                cursor.close();
+                dbHelper.setTransactionSuccessful();
+            } finally {
+                dbHelper.endTransaction();
             }
         } finally {
             dbHelper.close();
         }
+        try {
+            new NotificationManager(context).notifyMultipleReminders(pendingReminders, pastReminders);
+        } catch (Exception e) {
+            Logger.log("Unable to notify.");
+        }
+        Logger.log("Telephone has been turned on. Past reminders: " + pastReminders + ". Reminders set for the future: " + visitor.remindersSet + ". Reminders not set because of an alarm problem: " + visitor.remindersNotSetAlarmException + ". Boot stage 1 took " + (System.currentTimeMillis() - start) + " ms. " + ReminderManager.getAlarmCallsReport());
+        return visitor.laterReminders ? new BootPosition(visitor.lastDateTime, visitor.lastRowId) : null;
+    }
+
+    /**
+     * Sets the alarms of one batch of the reminders that come after the given position, in the
+     * later stages of the boot, and moves the position past them. Each batch is synchronized on
+     * its own, so the alarms that go off meanwhile only wait for one batch.
+     *
+     * @param reminderManager the reminder manager.
+     * @param dbHelper the store.
+     * @param position where the previous batch stopped.
+     * @return the number of reminders handled, less than {@link RemindersDbAdapter#BOOT_BATCH_SIZE}
+     * when there are no more.
+     */
+    public synchronized static int scheduleLaterReminders(final ReminderManager reminderManager, ReminderStore dbHelper, final BootPosition position) {
+        // Reminders handled and reminders whose alarm couldn't be set.
+        final int[] counts = new int[2];
+        dbHelper.open();
+        try {
+            dbHelper.visitNotNotifiedRemindersAfter(position.dateTime, position.rowId, RemindersDbAdapter.BOOT_BATCH_SIZE,
+                    new ReminderStore.ReminderVisitor() {
+                        @Override
+                        public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+                            try {
+                                reminderManager.scheduleReminder(rowId, alarmId, dateTime);
+                            } catch (AlarmException e) {
+                                counts[1]++;
+                            }
+                            position.dateTime = dateTime;
+                            position.rowId = rowId;
+                            counts[0]++;
+                            return true;
+                        }
+                    });
+        } finally {
+            dbHelper.close();
+        }
+        if (counts[1] > 0) {
+            Logger.log("Reminders not set because of an alarm problem: " + counts[1] + ".");
+        }
+        return counts[0];
+    }
+
+    /**
+     * Where the boot has got to in the reminders that haven't been notified: the date and the row
+     * identifier of the last reminder whose alarm has been set.
+     */
+    public static class BootPosition {
+        private long dateTime;
+        private long rowId;
+
+        public BootPosition(long dateTime, long rowId) {
+            this.dateTime = dateTime;
+            this.rowId = rowId;
+        }
+
+        public long getDateTime() {
+            return dateTime;
+        }
+
+        public long getRowId() {
+            return rowId;
+        }
+    }
+
+    /**
+     * Sets the alarms of the future reminders when the phone is turned on, until the first one
+     * after the priority horizon.
+     */
+    private static class BootVisitor implements ReminderStore.ReminderVisitor {
+        private final ReminderManager reminderManager;
+        private final long horizon;
+        private int remindersSet = 0;
+        private int remindersNotSetAlarmException = 0;
+
+        /**
+         * Whether the walk has stopped after the priority horizon, leaving reminders for the later
+         * stages, which start after the last reminder whose alarm has been set.
+         */
+        private boolean laterReminders = false;
+        private long lastDateTime;
+        private long lastRowId;
+
+        private BootVisitor(ReminderManager reminderManager, long reference) {
+            this.reminderManager = reminderManager;
+            this.horizon = reference + BootService.PRIORITY_HORIZON_MILLIS;
+        }
+
+        @Override
+        public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+            try {
+                reminderManager.scheduleReminder(rowId, alarmId, dateTime);
+                remindersSet++;
+            } catch (AlarmException e) {
+                remindersNotSetAlarmException++;
+            }
+            lastDateTime = dateTime;
+            lastRowId = rowId;
+            if (dateTime >= horizon) {
+                // The rest is left for the later stages.
+                laterReminders = true;
+                return false;
+            }
+            return true;
+        }
     }
 
     /**
-     * Called when a reminder is deleted.
+     * Called when a reminder is deleted. The reminder is only marked as deleted, which is a single
+     * quick update, and the user can undo it for a while. Its alarm is unset when it is purged.
      * @param listActivity
      * @param mDbHelper
      * @param reminderDatabaseId
      */
-    public synchronized static void reminderDeleted(ReminderListActivity listActivity, RemindersDbAdapter mDbHelper, long reminderDatabaseId) {
-        CoreOperations.deleteReminderAndItsAlarm(listActivity, mDbHelper, reminderDatabaseId);
+    public synchronized static void reminderDeleted(ReminderListActivity listActivity, ReminderStore mDbHelper, long reminderDatabaseId) {
+        long since = System.currentTimeMillis();
+        if (mDbHelper.deleteReminder(reminderDatabaseId)) {
+            listActivity.remindersDeleted(since);
+        }
         listActivity.createSpinnersAndFillData();
     }
 
+    /**
+     * Undoes the deletions made from the given moment on that haven't been purged yet.
+     *
+     * @param context application context.
+     * @param since milliseconds since the Epoch.
+     * @return the number of reminders that are back.
+     */
+    public synchronized static int undoDeletions(Context context, long since) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
+        dbAdapter.open();
+        try {
+            int restored = dbAdapter.undoDeletions(since);
+            Logger.log(restored + " deleted reminders have been restored.");
+            ReminderManager reminderManager = new ReminderManager(context, dbAdapter.getAlarmRegistry());
+            if ((restored > 0) && (reminderManager.isChained())) {
+                // A restored reminder can come before the one for which the chained alarm is set.
+                long next = dbAdapter.fetchNextReminderDateTime();
+                if (next >= 0) {
+                    try {
+                        reminderManager.advanceNextAlarm(next);
+                    } catch (AlarmException e) {
+                        Logger.log("The next alarm couldn't be brought forward for the restored reminders.");
+                    }
+                }
+            }
+            return restored;
+        } finally {
+            dbAdapter.close();
+        }
+    }
+
+    /**
+     * Changes the way in which the alarms of the reminders are set: unsets every alarm set the old
+     * way, keeps the new mode and schedules again the reminders that haven't been notified yet, all
+     * while the alarms that go off wait, so none of them finds the alarms half changed.
+     *
+     * @param context application context.
+     * @param mode the new mode.
+     * @return the number of reminders whose alarm couldn't be set.
+     */
+    public synchronized static int changeSchedulingMode(Context context, SchedulingMode mode) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
+        dbAdapter.open();
+        try {
+            AlarmRegistry registry = dbAdapter.getAlarmRegistry();
+            new ReminderManager(context, registry).unsetAllAlarms();
+            mode.save(context);
+            final ReminderManager reminderManager = new ReminderManager(context, registry, mode);
+            final int[] failures = new int[1];
+            if (reminderManager.isChained()) {
+                long next = dbAdapter.fetchNextReminderDateTime();
+                if (next >= 0) {
+                    try {
+                        reminderManager.setNextAlarm(next);
+                    } catch (AlarmException e) {
+                        failures[0]++;
+                    }
+                }
+            } else {
+                dbAdapter.visitNotNotifiedReminders(new ReminderStore.ReminderVisitor() {
+                    @Override
+                    public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+                        try {
+                            reminderManager.scheduleReminder(rowId, alarmId, dateTime);
+                        } catch (AlarmException e) {
+                            failures[0]++;
+                        }
+                        return true;
+                    }
+                });
+            }
+            Logger.log("The scheduling mode is now " + mode + ". Reminders not set because of an alarm problem: " + failures[0] + ". " + ReminderManager.getAlarmCallsReport());
+            return failures[0];
+        } finally {
+            dbAdapter.close();
+        }
+    }
+
     /**
      * Synchronized method called by the corresponding activity when the user uses that activity for
      * creating a reminder or for updating an existing one.
@@ -167,16 +377,12 @@ public class SynchronizedWork {
         }
     }
 
-    public synchronized static DataImportResult importData(Context context, DataImport whereToPublishProgress, String jsonDataToImport) {
-        RemindersDbAdapter dbAdapter = RemindersDbAdapter.getInstance(context);
+    public synchronized static DataImportResult importData(Context context, final DataImport whereToPublishProgress, String jsonDataToImport) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
         dbAdapter.open();
         DataImportResultType resultType;
         DataImportResult result;
         try {
-            long totalReminders = dbAdapter.countAllReminders();
-            String dateAsString;
-            long processedReminders = 0;
-
             // Import new reminders.
             JSONArray reminders = new JSONArray(jsonDataToImport);
             JSONObject reminder;
@@ -197,38 +403,19 @@ public class SynchronizedWork {
 
             // JSON exception could be thrown before of here if the file format is bad.
 
-            // Delete old reminders.
-            Cursor cursor = dbAdapter.fetchAllReminders(0);
-            while ((cursor != null) && (cursor.moveToFirst())) {
-                Logger.log("Data import: deleting " + cursor.getCount() + " reminders.");
-                do {
-                    long row_id = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_ROWID));
-                    long dateTime = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_DATE_TIME));
-                    dateAsString = new DateTime(dateTime).toString();
-
-                    CoreOperations.deleteReminderAndItsAlarm(context, dbAdapter, row_id, dateAsString);
-
-                    processedReminders++;
-                    whereToPublishProgress.publishProgressFromOutside(((float) processedReminders) / totalReminders / 2);
-                } while (cursor.moveToNext());
-                cursor.close();
-
-                /*
-                 * Page is always the first because reminders are getting deleted one by one
-                 * gingerly.
-                 */
-                cursor = dbAdapter.fetchAllReminders(0);
-            }
-            if (cursor != null) {
-                cursor.close();
-            }
+            /*
+             * Remove the old reminders for good, as there is no undo for an import. It is quick,
+             * but it is kept as the first half of the progress.
+             */
+            CoreOperations.purgeAllReminders(context, dbAdapter);
+            whereToPublishProgress.publishProgressFromOutside(0.5f);
 
             // Effectively create the imported reminders.
             int processed = 0;
             int importedRemindersSize = importedReminders.size();
             for (ImportedReminder importedReminder2 : importedReminders) {
                 // Past alarms are deliberately ignored here. If not and there were too many, what a mess!
-                CoreOperations.createReminderAndAlarm(context, dbAdapter, importedReminder2.getTitle(), importedReminder2.getBody(), importedReminder2.getCalendar(), null, null, true);
+                CoreOperations.createReminderAndAlarm(context, dbAdapter, importedReminder2.getTitle(), importedReminder2.getBody(), importedReminder2.getDateTime(), null, null, true);
                 processed++;
                 whereToPublishProgress.publishProgressFromOutside(((float) processed) / importedRemindersSize / 2 + 0.5f);
             }
@@ -255,40 +442,13 @@ public class SynchronizedWork {
         return result;
     }
 
-    public synchronized static boolean deleteAllData(Context context, DeleteAllReminders whereToPublishProgress) {
-        RemindersDbAdapter dbAdapter = RemindersDbAdapter.getInstance(context);
+    public synchronized static boolean deleteAllData(Context context) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
         dbAdapter.open();
-        DataImportResultType resultType;
         boolean result;
         try {
             // Delete all reminders.
-            long totalReminders = dbAdapter.countAllReminders();
-            String dateAsString;
-            long processedReminders = 0;
-            Cursor cursor = dbAdapter.fetchAllReminders(0);
-            while ((cursor != null) && (cursor.moveToFirst())) {
-                Logger.log("Data delete: deleting " + cursor.getCount() + " reminders.");
-                do {
-                    long row_id = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_ROWID));
-                    long dateTime = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_DATE_TIME));
-                    dateAsString = new DateTime(dateTime).toString();
-
-                    CoreOperations.deleteReminderAndItsAlarm(context, dbAdapter, row_id, dateAsString);
-
-                    processedReminders++;
-                    whereToPublishProgress.publishProgressFromOutside(((float) processedReminders) / totalReminders);
-                } while (cursor.moveToNext());
-                cursor.close();
-
-                /*
-                 * Page is always the first because reminders are getting deleted one by one
-                 * gingerly.
-                 */
-                cursor = dbAdapter.fetchAllReminders(0);
-            }
-            if (cursor != null) {
-                cursor.close();
-            }
+            CoreOperations.deleteAllReminders(dbAdapter);
 
             result = true;
         } catch (Throwable t) {
@@ -307,4 +467,44 @@ public class SynchronizedWork {
 
         return result;
     }
+
+    /**
+     * Moves to the archive one batch of the notified reminders dated before the given moment.
+     * Each batch is synchronized on its own, so the alarms that go off meanwhile only wait for
+     * one batch.
+     *
+     * @param context application context.
+     * @param before milliseconds since the Epoch.
+     * @return the number of reminders moved, less than {@link RemindersDbAdapter#ARCHIVE_BATCH_SIZE}
+     * when there are no more.
+     */
+    public synchronized static int archiveOldReminders(Context context, long before) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
+        dbAdapter.open();
+        try {
+            return dbAdapter.archiveNotifiedReminders(before, RemindersDbAdapter.ARCHIVE_BATCH_SIZE);
+        } finally {
+            dbAdapter.close();
+        }
+    }
+
+    /**
+     * Removes for good one batch of the reminders deleted before the given moment and unsets their
+     * alarms. Each batch is synchronized on its own, so the alarms that go off meanwhile only wait
+     * for one batch.
+     *
+     * @param context application context.
+     * @param before milliseconds since the Epoch.
+     * @return the number of reminders removed, less than {@link RemindersDbAdapter#PURGE_BATCH_SIZE}
+     * when there are no more.
+     */
+    public synchronized static int purgeDeletedReminders(Context context, long before) {
+        ReminderStore dbAdapter = RemindersDbAdapter.getInstance(context);
+        dbAdapter.open();
+        try {
+            return CoreOperations.purgeDeletedReminders(context, dbAdapter, before, RemindersDbAdapter.PURGE_BATCH_SIZE);
+        } finally {
+            dbAdapter.close();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package bembibre.alarmfix.database;
+
+/**
+ * Registry of the alarms that the application has set in the system and that haven't gone off
+ * nor been unset yet, so setting an alarm that is already set as wanted or unsetting one that
+ * isn't set costs no call to the alarm service. Each alarm is identified by its kind and by a
+ * target within its kind.
+ *
+ * A registry belongs to a {@link ReminderStore}, see {@link ReminderStore#getAlarmRegistry()}, and
+ * it can only be used while its store is open.
+ */
+public interface AlarmRegistry {
+
+    /**
+     * Kind of the alarm of a single reminder, whose target is the row identifier of the reminder.
+     */
+    int ALARM_KIND_REMINDER = 0;
+
+    /**
+     * Kind of the alarm shared by the reminders of a window.
+     */
+    int ALARM_KIND_WINDOW = 1;
+
+    /**
+     * Kind of the chained alarm.
+     */
+    int ALARM_KIND_NEXT = 2;
+
+    /**
+     * Returns the moment of an alarm of the registry, if it has got the given alarm identifier.
+     *
+     * @param kind one of the <code>ALARM_KIND_*</code> constants.
+     * @param target identifier of the alarm within its kind.
+     * @param alarmId alarm identifier of the reminder, or 0 for the alarms that don't have it.
+     * @return milliseconds since the Epoch, or -1 if there is no such alarm.
+     */
+    long getArmedAlarmTime(int kind, long target, long alarmId);
+
+    /**
+     * Records an alarm that has just been set in the system, replacing the one that it replaces.
+     */
+    void saveArmedAlarm(int kind, long target, long alarmId, long triggerTime);
+
+    /**
+     * Removes an alarm, because it has gone off or it has been unset.
+     *
+     * @return <code>true</code> if the alarm was in the registry.
+     */
+    boolean deleteArmedAlarm(int kind, long target);
+
+    /**
+     * Removes at once the alarms of the given kind and targets, because they have been unset.
+     *
+     * @param kind one of the <code>ALARM_KIND_*</code> constants.
+     * @param targets identifiers of the alarms within their kind.
+     * @return the targets that were in the registry, so their alarms must be unset.
+     */
+    long[] deleteArmedAlarms(int kind, long[] targets);
+
+    /**
+     * Returns the targets of every alarm of a kind, for unsetting all of them.
+     *
+     * @param kind one of the <code>ALARM_KIND_*</code> constants.
+     * @return identifiers of the alarms within their kind.
+     */
+    long[] fetchArmedAlarmTargets(int kind);
+
+    /**
+     * Removes every alarm, when the system has forgotten all of them because the phone has been
+     * turned off.
+     */
+    void deleteAllArmedAlarms();
+}
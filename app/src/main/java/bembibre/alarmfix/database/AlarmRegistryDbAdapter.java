@@ -0,0 +1,173 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Arrays;
+
+/**
+ * The registry of the armed alarms of {@link RemindersDbAdapter}, kept in a table of its database,
+ * as the system doesn't tell which alarms are set. It uses the connection of the adapter, so it
+ * works inside of the transactions of the adapter.
+ */
+class AlarmRegistryDbAdapter implements AlarmRegistry {
+
+    /*
+     * An alarm is identified by its kind and by its target, which is the identifier of the
+     * reminder, the moment of the window or 0 for the chained alarm.
+     */
+
+    private static final String ARMED_ALARMS_TABLE = "armed_alarms";
+    private static final String KEY_ALARM_KIND = "kind";
+    private static final String KEY_ALARM_TARGET = "target";
+    private static final String KEY_TRIGGER_TIME = "trigger_time";
+
+    static final String ARMED_ALARMS_CREATE =
+            "create table " + ARMED_ALARMS_TABLE + " ("
+                    + KEY_ALARM_KIND + " integer not null, "
+                    + KEY_ALARM_TARGET + " integer not null, "
+                    + RemindersDbAdapter.KEY_ALARM_ID + " integer not null, "
+                    + KEY_TRIGGER_TIME + " integer not null, "
+                    + "primary key (" + KEY_ALARM_KIND + ", " + KEY_ALARM_TARGET + "));";
+
+    /**
+     * The moment of an alarm of the registry if it has got the given alarm identifier, or -1. It
+     * always returns a row, so it can be run as a {@link SQLiteStatement}.
+     */
+    static final String FETCH_ARMED_ALARM_SQL =
+            "select ifnull((select " + KEY_TRIGGER_TIME + " from " + ARMED_ALARMS_TABLE
+                    + " where " + KEY_ALARM_KIND + " = ?1 and " + KEY_ALARM_TARGET + " = ?2"
+                    + " and " + RemindersDbAdapter.KEY_ALARM_ID + " = ?3), -1)";
+
+    static final String SAVE_ARMED_ALARM_SQL =
+            "insert or replace into " + ARMED_ALARMS_TABLE + " ("
+                    + KEY_ALARM_KIND + ", "
+                    + KEY_ALARM_TARGET + ", "
+                    + RemindersDbAdapter.KEY_ALARM_ID + ", "
+                    + KEY_TRIGGER_TIME + ") values (?, ?, ?, ?)";
+
+    static final String DELETE_ARMED_ALARM_SQL =
+            "delete from " + ARMED_ALARMS_TABLE + " where " + KEY_ALARM_KIND + " = ? and " + KEY_ALARM_TARGET + " = ?";
+
+    static final String FETCH_ARMED_ALARM_TARGETS_SQL =
+            "select " + KEY_ALARM_TARGET + " from " + ARMED_ALARMS_TABLE + " where " + KEY_ALARM_KIND + " = ?";
+
+    /**
+     * The targets of the alarms of a kind that are among the given ones, which are written in the
+     * statement because there can be more of them than parameters are allowed.
+     */
+    static String fetchArmedAlarmsSql(int kind, long[] targets) {
+        return "select " + KEY_ALARM_TARGET + " from " + ARMED_ALARMS_TABLE + armedAlarmsWhere(kind, targets);
+    }
+
+    static String deleteArmedAlarmsSql(int kind, long[] targets) {
+        return "delete from " + ARMED_ALARMS_TABLE + armedAlarmsWhere(kind, targets);
+    }
+
+    private static String armedAlarmsWhere(int kind, long[] targets) {
+        StringBuilder where = new StringBuilder(" where " + KEY_ALARM_KIND + " = " + kind + " and "
+                + KEY_ALARM_TARGET + " in (");
+        for (int index = 0; index < targets.length; index++) {
+            if (index > 0) {
+                where.append(',');
+            }
+            where.append(targets[index]);
+        }
+        return where.append(')').toString();
+    }
+
+    private final RemindersDbAdapter dbAdapter;
+
+    AlarmRegistryDbAdapter(RemindersDbAdapter dbAdapter) {
+        this.dbAdapter = dbAdapter;
+    }
+
+    @Override
+    public long getArmedAlarmTime(int kind, long target, long alarmId) {
+        SQLiteStatement statement = dbAdapter.getStatement(FETCH_ARMED_ALARM_SQL);
+        synchronized (statement) {
+            statement.bindLong(1, kind);
+            statement.bindLong(2, target);
+            statement.bindLong(3, alarmId);
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    @Override
+    public void saveArmedAlarm(int kind, long target, long alarmId, long triggerTime) {
+        SQLiteStatement statement = dbAdapter.getStatement(SAVE_ARMED_ALARM_SQL);
+        synchronized (statement) {
+            statement.bindLong(1, kind);
+            statement.bindLong(2, target);
+            statement.bindLong(3, alarmId);
+            statement.bindLong(4, triggerTime);
+            statement.executeInsert();
+        }
+    }
+
+    @Override
+    public boolean deleteArmedAlarm(int kind, long target) {
+        SQLiteStatement statement = dbAdapter.getStatement(DELETE_ARMED_ALARM_SQL);
+        synchronized (statement) {
+            statement.bindLong(1, kind);
+            statement.bindLong(2, target);
+            return statement.executeUpdateDelete() > 0;
+        }
+    }
+
+    /**
+     * The targets that are in the registry are read and deleted with a statement each, in a
+     * single transaction, instead of deleting them one by one.
+     */
+    @Override
+    public long[] deleteArmedAlarms(int kind, long[] targets) {
+        if (targets.length == 0) {
+            return targets;
+        }
+        SQLiteDatabase db = dbAdapter.getDatabase();
+        long[] deleted = new long[targets.length];
+        int count = 0;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery(fetchArmedAlarmsSql(kind, targets), null);
+            try {
+                while (cursor.moveToNext()) {
+                    deleted[count] = cursor.getLong(0);
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+            if (count > 0) {
+                db.execSQL(deleteArmedAlarmsSql(kind, targets));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return Arrays.copyOf(deleted, count);
+    }
+
+    @Override
+    public long[] fetchArmedAlarmTargets(int kind) {
+        Cursor cursor = dbAdapter.getDatabase().rawQuery(FETCH_ARMED_ALARM_TARGETS_SQL,
+                new String[] {String.valueOf(kind)});
+        try {
+            long[] targets = new long[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext()) {
+                targets[count] = cursor.getLong(0);
+                count++;
+            }
+            return targets;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deleteAllArmedAlarms() {
+        dbAdapter.getDatabase().execSQL("delete from " + ARMED_ALARMS_TABLE);
+    }
+}
@@ -0,0 +1,218 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import static bembibre.alarmfix.database.RemindersDbAdapter.DATABASE_TABLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_ALARM_ID;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_DATE_TIME;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_DELETED;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_MONTH;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_NOTIFIED;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_ROWID;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_TITLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_YEAR;
+
+/**
+ * The archive of the reminders that were notified long ago, kept in a table of the database of
+ * {@link RemindersDbAdapter}. They are never scheduled again, so they are moved here from the
+ * reminders table, which keeps only the reminders that the alarms and the boot still have to deal
+ * with. It has got the same columns and the rows keep their identifiers, so the bodies, the search
+ * index and the counts by year and month are shared by both tables.
+ *
+ * It uses the connection of the adapter, and the adapter reads the archive along with the
+ * reminders table in the queries of the list, the searches and the exports.
+ */
+class ArchiveDbAdapter {
+
+    static final String ARCHIVE_TABLE = "reminders_archive";
+
+    /**
+     * The archive has got no autoincrement key, the identifiers come from the reminders table.
+     */
+    static final String ARCHIVE_CREATE =
+            "create table " + ARCHIVE_TABLE + " ("
+                    + KEY_ROWID + " integer primary key, "
+                    + KEY_TITLE + " text not null, "
+                    + KEY_NOTIFIED + " integer, "
+                    + KEY_ALARM_ID + " integer not null, "
+                    + KEY_YEAR + " integer not null, "
+                    + KEY_MONTH + " integer not null, "
+                    + KEY_DATE_TIME + " integer not null, "
+                    + KEY_DELETED + " integer not null default 0);";
+
+    /**
+     * Same index as the one of the reminders table by year and month, for the archived part of the
+     * list.
+     */
+    static final String INDEX_ARCHIVE_YEAR_MONTH_CREATE =
+            "create index reminders_archive_year_month_date_time_deleted on " + ARCHIVE_TABLE + " ("
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_DELETED + ");";
+
+    /**
+     * Same index as the one of the reminders table by date, for walking the archive page by page.
+     */
+    static final String INDEX_ARCHIVE_DATE_TIME_CREATE =
+            "create index reminders_archive_date_time on " + ARCHIVE_TABLE + " ("
+                    + KEY_DATE_TIME + ");";
+
+    /**
+     * Same index as the one of the reminders table by deletion time.
+     */
+    static final String INDEX_ARCHIVE_DELETED_CREATE =
+            "create index reminders_archive_deleted on " + ARCHIVE_TABLE + " ("
+                    + KEY_DELETED + ") where " + KEY_DELETED + " > 0;";
+
+    /**
+     * Removing an archived reminder for good does what the triggers of the reminders table do,
+     * unless the reminder is being restored to the reminders table. The count is kept by its own
+     * triggers, like in the reminders table, because a tombstone has already been subtracted when
+     * it is removed for good.
+     */
+    private static final String[] ARCHIVE_TRIGGERS_CREATE = {
+            "create trigger reminders_archive_delete after delete on " + ARCHIVE_TABLE
+                    + " when " + RemindersDbAdapter.notIn(DATABASE_TABLE, "old") + " begin "
+                    + "delete from " + RemindersDbAdapter.BODIES_TABLE + " where " + KEY_ROWID + " = old." + KEY_ROWID + "; "
+                    + "delete from " + RemindersDbAdapter.SEARCH_TABLE + " where docid = old." + KEY_ROWID + "; end;",
+            "create trigger reminders_archive_month_count_delete after delete on " + ARCHIVE_TABLE
+                    + " when old." + KEY_DELETED + " = 0 and " + RemindersDbAdapter.notIn(DATABASE_TABLE, "old") + " begin "
+                    + RemindersDbAdapter.decrementMonthCount("old") + " end;",
+            RemindersDbAdapter.tombstoneTriggerCreate("reminders_archive_month_count_tombstone", ARCHIVE_TABLE),
+            RemindersDbAdapter.undeleteTriggerCreate("reminders_archive_month_count_undelete", ARCHIVE_TABLE)
+    };
+
+    /**
+     * The oldest notified reminders dated before a moment, sought in the date index. The limit is
+     * added by the caller.
+     */
+    static final String FETCH_ARCHIVE_CANDIDATES_SQL =
+            "select " + KEY_ROWID + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 1 and " + KEY_DATE_TIME + " < ? and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME;
+
+    /**
+     * All of the columns that are copied between the reminders table and the archive. The
+     * deletion time is left out because only the reminders that aren't deleted are moved.
+     */
+    private static final String REMINDER_COLUMNS =
+            KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME;
+
+    static final String RESTORE_REMINDER_SQL =
+            "insert into " + DATABASE_TABLE + " (" + REMINDER_COLUMNS + ")"
+                    + " select " + REMINDER_COLUMNS + " from " + ARCHIVE_TABLE
+                    + " where " + KEY_ROWID + " = ? and " + KEY_DELETED + " = 0";
+
+    static final String DELETE_ARCHIVED_REMINDER_SQL =
+            "delete from " + ARCHIVE_TABLE + " where " + KEY_ROWID + " = ?";
+
+    private final RemindersDbAdapter dbAdapter;
+
+    ArchiveDbAdapter(RemindersDbAdapter dbAdapter) {
+        this.dbAdapter = dbAdapter;
+    }
+
+    /**
+     * Creates the archive and its indexes as they are in the current version.
+     */
+    static void create(SQLiteDatabase db) {
+        db.execSQL(ARCHIVE_CREATE);
+        db.execSQL(INDEX_ARCHIVE_YEAR_MONTH_CREATE);
+        db.execSQL(INDEX_ARCHIVE_DATE_TIME_CREATE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Partial indexes are not supported before, there the table is read instead.
+            db.execSQL(INDEX_ARCHIVE_DELETED_CREATE);
+        }
+    }
+
+    /**
+     * Creates the triggers of the archive as they are in the current version.
+     */
+    static void createTriggers(SQLiteDatabase db) {
+        for (String trigger : ARCHIVE_TRIGGERS_CREATE) {
+            db.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Moves to the archive a batch of the notified reminders dated before the given moment, the
+     * oldest first, in a single transaction.
+     *
+     * @param before milliseconds since the Epoch.
+     * @param batchSize maximum number of reminders to move.
+     * @return the identifiers of the reminders moved, less than the batch size when there are no
+     * more.
+     */
+    long[] archiveNotifiedReminders(long before, int batchSize) {
+        SQLiteDatabase db = dbAdapter.getDatabase();
+        long[] ids;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery(FETCH_ARCHIVE_CANDIDATES_SQL + " limit " + batchSize,
+                    new String[] {String.valueOf(before)});
+            StringBuilder idList = new StringBuilder();
+            try {
+                ids = new long[cursor.getCount()];
+                ReminderRow row = RemindersDbAdapter.ROW_ID_MAPPER.newRow();
+                int index = 0;
+                while (cursor.moveToNext()) {
+                    ids[index] = RemindersDbAdapter.ROW_ID_MAPPER.read(cursor, row).rowId;
+                    if (index > 0) {
+                        idList.append(',');
+                    }
+                    idList.append(ids[index]);
+                    index++;
+                }
+            } finally {
+                cursor.close();
+            }
+            if (ids.length > 0) {
+                // Copied first and then deleted, so the triggers see the rows in the archive.
+                String where = " where " + KEY_ROWID + " in (" + idList + ")";
+                db.execSQL("insert into " + ARCHIVE_TABLE + " (" + REMINDER_COLUMNS + ")"
+                        + " select " + REMINDER_COLUMNS + " from " + DATABASE_TABLE + where);
+                db.execSQL("delete from " + DATABASE_TABLE + where);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return ids;
+    }
+
+    /**
+     * Moves an archived reminder back to the reminders table, so it can be scheduled again. It
+     * must be called inside of a transaction.
+     *
+     * @param rowId the row identifier of the reminder.
+     * @return <code>true</code> if the reminder was in the archive.
+     */
+    boolean restoreReminder(long rowId) {
+        boolean restored;
+        SQLiteStatement statement = dbAdapter.getStatement(RESTORE_REMINDER_SQL);
+        synchronized (statement) {
+            statement.bindLong(1, rowId);
+            restored = statement.executeInsert() != -1;
+        }
+        if (restored) {
+            statement = dbAdapter.getStatement(DELETE_ARCHIVED_REMINDER_SQL);
+            synchronized (statement) {
+                statement.bindLong(1, rowId);
+                statement.executeUpdateDelete();
+            }
+        }
+        return restored;
+    }
+}
@@ -0,0 +1,31 @@
+package bembibre.alarmfix.database;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A change of the data that is too heavy for being made while the database is upgraded, so it is
+ * made in the background batch by batch once the schema is up to date. The position reached is
+ * kept in the database along with each batch, so a migration that is interrupted goes on where
+ * it was left the next time.
+ *
+ * The schema must already work while the migration is pending: the migration only fills what the
+ * triggers keep up to date for the new rows.
+ */
+interface BackgroundMigration {
+
+    /**
+     * Returns the name under which the migration is kept in the database. It must never change.
+     */
+    String getName();
+
+    /**
+     * Migrates the batch that comes after the given position. It is called inside of a
+     * transaction.
+     *
+     * @param db the database.
+     * @param position where the previous batch finished, 0 for the first batch.
+     * @param batchSize maximum number of rows of the batch.
+     * @return where this batch finished, or -1 when there was nothing left to migrate.
+     */
+    long migrateBatch(SQLiteDatabase db, long position, int batchSize);
+}
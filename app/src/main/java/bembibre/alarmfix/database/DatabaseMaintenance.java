@@ -0,0 +1,235 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * Housekeeping of the database that nothing else does: refreshing the statistics of the query
+ * planner, giving the free pages back to the file system, emptying the write-ahead log and pruning
+ * the log files. It is meant to run while the phone is idle, so every step has got a time budget
+ * and the whole run can be stopped between steps.
+ *
+ * What every step took and reclaimed is written to the log.
+ */
+public class DatabaseMaintenance {
+
+    /**
+     * Time that each step can take, in milliseconds. The steps that can't be interrupted are not
+     * started when less than this is left.
+     */
+    public static final long STEP_BUDGET_MILLIS = 20 * 1000;
+
+    /**
+     * Pages given back to the file system by each round of the incremental vacuum.
+     */
+    private static final int VACUUM_PAGES_PER_ROUND = 256;
+
+    /**
+     * A database created before the incremental vacuum was turned on needs a full vacuum once,
+     * which can't be interrupted, so it is only done when the database is smaller than this.
+     */
+    private static final long FULL_VACUUM_MAX_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Rows sampled by each index when analyzing, on the SQLite versions that support it.
+     */
+    private static final int ANALYSIS_LIMIT = 1000;
+
+    /**
+     * SQLite 3.18, the first version where <code>PRAGMA optimize</code> analyzes anything. It is
+     * the one of Android 8.0, the older ones ignore it.
+     */
+    private static final int OPTIMIZE_MIN_VERSION = 3018000;
+
+    /**
+     * SQLite 3.32, the first version that knows <code>PRAGMA analysis_limit</code>.
+     */
+    private static final int ANALYSIS_LIMIT_MIN_VERSION = 3032000;
+
+    /**
+     * The tables analyzed one by one where <code>PRAGMA optimize</code> does nothing: the ones
+     * with indexes to choose from, the reminders table first as it is the one read the most.
+     */
+    private static final String[] ANALYZED_TABLES = {RemindersDbAdapter.DATABASE_TABLE, ArchiveDbAdapter.ARCHIVE_TABLE};
+
+    private static final int AUTO_VACUUM_NONE = 0;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final RemindersDbAdapter dbAdapter;
+    private volatile boolean stopped = false;
+
+    public DatabaseMaintenance(RemindersDbAdapter dbAdapter) {
+        this.dbAdapter = dbAdapter;
+    }
+
+    /**
+     * Runs all of the steps, as long as there is time left for them.
+     *
+     * @param budgetMillis time that the whole run can take, in milliseconds.
+     */
+    public void run(long budgetMillis) {
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        dbAdapter.open();
+        try {
+            SQLiteDatabase db = dbAdapter.getDatabase();
+            if (canStart(deadline)) {
+                optimize(db, Math.min(deadline, System.currentTimeMillis() + STEP_BUDGET_MILLIS));
+            }
+            if (canStart(deadline)) {
+                vacuum(db, Math.min(deadline, System.currentTimeMillis() + STEP_BUDGET_MILLIS));
+            }
+            if (canStart(deadline)) {
+                checkpoint(db);
+            }
+            if (canStart(deadline)) {
+                long start = System.currentTimeMillis();
+                long reclaimed = Logger.pruneOldFiles();
+                Logger.log("Maintenance, log pruning: " + reclaimed + " bytes reclaimed in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+        } finally {
+            dbAdapter.close();
+        }
+    }
+
+    /**
+     * Makes the run finish after the step in progress.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private boolean canStart(long deadline) {
+        return (!stopped) && (deadline - System.currentTimeMillis() >= STEP_BUDGET_MILLIS);
+    }
+
+    /**
+     * Refreshes the statistics of the query planner. From SQLite 3.18 on, <code>PRAGMA
+     * optimize</code> only analyzes the tables that need it, sampling each index where the version
+     * allows it. Older versions ignore it, so there the tables are analyzed one by one while the
+     * time lasts.
+     */
+    void optimize(SQLiteDatabase db, long deadline) {
+        long start = System.currentTimeMillis();
+        String version = queryString(db, "select sqlite_version()");
+        int versionNumber = parseVersion(version);
+        String analyzed;
+        if (versionNumber >= OPTIMIZE_MIN_VERSION) {
+            if (versionNumber >= ANALYSIS_LIMIT_MIN_VERSION) {
+                queryLong(db, "PRAGMA analysis_limit = " + ANALYSIS_LIMIT);
+            }
+            queryLong(db, "PRAGMA optimize");
+            analyzed = "the tables that needed it";
+        } else {
+            StringBuilder tables = new StringBuilder();
+            for (String table : ANALYZED_TABLES) {
+                if (stopped || (System.currentTimeMillis() >= deadline)) {
+                    break;
+                }
+                db.execSQL("analyze " + table);
+                tables.append(tables.length() == 0 ? "" : ", ").append(table);
+            }
+            analyzed = tables.length() == 0 ? "no tables" : tables.toString();
+        }
+        Logger.log("Maintenance, analyze of " + analyzed + " with SQLite " + version + ": "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Turns a version like 3.8.10.2 into a number like 3008010, that can be compared.
+     */
+    static int parseVersion(String version) {
+        String[] parts = version.split("\\.");
+        int number = 0;
+        for (int index = 0; index < 3; index++) {
+            number *= 1000;
+            if (index < parts.length) {
+                try {
+                    number += Integer.parseInt(parts[index]);
+                } catch (NumberFormatException e) {
+                    // Left as 0.
+                }
+            }
+        }
+        return number;
+    }
+
+    /**
+     * Gives the free pages of the database back to the file system, round by round until there
+     * are no more or the time is over.
+     */
+    private void vacuum(SQLiteDatabase db, long deadline) {
+        long start = System.currentTimeMillis();
+        long pageSize = queryLong(db, "PRAGMA page_size");
+        long freePages = queryLong(db, "PRAGMA freelist_count");
+        int autoVacuum = (int) queryLong(db, "PRAGMA auto_vacuum");
+        long reclaimed;
+        if (autoVacuum == AUTO_VACUUM_INCREMENTAL) {
+            long pagesLeft = freePages;
+            while ((pagesLeft > 0) && (!stopped) && (System.currentTimeMillis() < deadline)) {
+                queryLong(db, "PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_ROUND + ")");
+                pagesLeft = queryLong(db, "PRAGMA freelist_count");
+            }
+            reclaimed = (freePages - pagesLeft) * pageSize;
+        } else if ((autoVacuum == AUTO_VACUUM_NONE) && (freePages > 0)
+                && (queryLong(db, "PRAGMA page_count") * pageSize <= FULL_VACUUM_MAX_BYTES)) {
+            // The mode only changes with a full vacuum, from then on the vacuums are incremental.
+            long sizeBefore = queryLong(db, "PRAGMA page_count") * pageSize;
+            queryLong(db, "PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+            db.execSQL("vacuum");
+            reclaimed = sizeBefore - queryLong(db, "PRAGMA page_count") * pageSize;
+        } else {
+            reclaimed = 0;
+        }
+        Logger.log("Maintenance, vacuum: " + reclaimed + " bytes reclaimed of " + (freePages * pageSize)
+                + " free in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Copies the write-ahead log into the database and truncates it, as it keeps the size of its
+     * biggest transaction, which can be a whole import.
+     */
+    private void checkpoint(SQLiteDatabase db) {
+        long start = System.currentTimeMillis();
+        File log = new File(db.getPath() + "-wal");
+        long sizeBefore = log.length();
+        queryLong(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+        Logger.log("Maintenance, checkpoint: " + (sizeBefore - log.length()) + " bytes reclaimed in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Runs a query and returns the first column of its first row as text, or an empty string if
+     * it returns no rows.
+     */
+    private static String queryString(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+            return "";
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs a statement as a query, like every pragma must be run, and returns the first column of
+     * its first row, or 0 if it returns no rows.
+     */
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
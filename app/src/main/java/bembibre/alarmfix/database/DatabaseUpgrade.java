@@ -0,0 +1,355 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import bembibre.alarmfix.logging.Logger;
+
+import static bembibre.alarmfix.database.ArchiveDbAdapter.ARCHIVE_TABLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.BODIES_TABLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.DATABASE_TABLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_ALARM_ID;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_BODY;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_DATE_TIME;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_DELETED;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_MONTH;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_NOTIFIED;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_REMINDER_COUNT;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_ROWID;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_TITLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.KEY_YEAR;
+import static bembibre.alarmfix.database.RemindersDbAdapter.MONTH_COUNTS_TABLE;
+import static bembibre.alarmfix.database.RemindersDbAdapter.SEARCH_TABLE;
+
+/**
+ * Takes the database of {@link RemindersDbAdapter} from an older version to the current one, step
+ * by step, so each version only needs to know what changed since the previous one. A new database
+ * is created with the current schema at once, so the tables and indexes as they were in earlier
+ * versions are only defined here.
+ *
+ * The triggers are not made step by step: the ones of the old version are dropped before the
+ * first step, and the current ones are created after the last one, once every table and column
+ * that they use exists.
+ *
+ * The steps that have to read every reminder, like filling a new table or building an index, are
+ * queued as a {@link BackgroundMigration} instead, so the upgrade itself stays short. Only moving
+ * the bodies in version 6 still copies the whole table, as SQLite can't drop a column otherwise.
+ */
+final class DatabaseUpgrade {
+
+    /**
+     * Version 2: index of the list, before the deleted reminders were kept.
+     */
+    private static final String INDEX_YEAR_MONTH_V2_CREATE =
+            "create index reminders_year_month_date_time on " + DATABASE_TABLE + " ("
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_TITLE + ");";
+
+    /**
+     * Version 6: the columns of the reminders table without the body.
+     */
+    private static final String REMINDER_V6_COLUMNS =
+            KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME;
+
+    /**
+     * Version 6: reminders table without the body, under the name given.
+     */
+    private static String remindersTableV6Create(String tableName) {
+        return "create table " + tableName + " ("
+                + KEY_ROWID + " integer primary key autoincrement, "
+                + KEY_TITLE + " text not null, "
+                + KEY_NOTIFIED + " integer, "
+                + KEY_ALARM_ID + " integer not null, "
+                + KEY_YEAR + " integer not null, "
+                + KEY_MONTH + " integer not null, "
+                + KEY_DATE_TIME + " integer not null);";
+    }
+
+    /**
+     * Version 8: archive, before the deleted reminders were kept.
+     */
+    private static final String ARCHIVE_V8_CREATE =
+            "create table " + ARCHIVE_TABLE + " ("
+                    + KEY_ROWID + " integer primary key, "
+                    + KEY_TITLE + " text not null, "
+                    + KEY_NOTIFIED + " integer, "
+                    + KEY_ALARM_ID + " integer not null, "
+                    + KEY_YEAR + " integer not null, "
+                    + KEY_MONTH + " integer not null, "
+                    + KEY_DATE_TIME + " integer not null);";
+
+    private static final String INDEX_ARCHIVE_YEAR_MONTH_V8_CREATE =
+            "create index reminders_archive_year_month_date_time on " + ARCHIVE_TABLE + " ("
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_TITLE + ");";
+
+    /**
+     * Every trigger that any version has created.
+     */
+    private static final String[] TRIGGERS = {"reminders_month_count_insert", "reminders_month_count_delete",
+            "reminders_month_count_update", "reminders_month_count_tombstone", "reminders_month_count_undelete",
+            "reminders_body_delete", "reminders_search_body_insert", "reminders_search_title_update",
+            "reminders_search_delete", "reminders_archive_delete", "reminders_archive_month_count_delete",
+            "reminders_archive_month_count_tombstone", "reminders_archive_month_count_undelete"};
+
+    /**
+     * Version 7: fills the search index with the reminders that were created before it existed,
+     * following the order of the bodies table. The triggers already index the reminders saved
+     * since then, so those are skipped. Until it finishes, the searches don't find the older
+     * reminders.
+     */
+    private static final BackgroundMigration SEARCH_BACKFILL = new BackgroundMigration() {
+
+        private final String lastOfBatchSql =
+                "select max(" + KEY_ROWID + ") from (select " + KEY_ROWID + " from " + BODIES_TABLE
+                        + " where " + KEY_ROWID + " > ? order by " + KEY_ROWID + " limit ?)";
+
+        private final String fillSql =
+                "insert into " + SEARCH_TABLE + " (docid, " + KEY_TITLE + ", " + KEY_BODY + ")"
+                        + " select b." + KEY_ROWID + ", ifnull(r." + KEY_TITLE + ", a." + KEY_TITLE + "), b." + KEY_BODY
+                        + " from " + BODIES_TABLE + " b"
+                        + " left join " + DATABASE_TABLE + " r on r." + KEY_ROWID + " = b." + KEY_ROWID
+                        + " left join " + ARCHIVE_TABLE + " a on a." + KEY_ROWID + " = b." + KEY_ROWID
+                        + " where b." + KEY_ROWID + " > ? and b." + KEY_ROWID + " <= ?"
+                        + " and (r." + KEY_ROWID + " is not null or a." + KEY_ROWID + " is not null)"
+                        + " and not exists (select 1 from " + SEARCH_TABLE + " where docid = b." + KEY_ROWID + ")";
+
+        @Override
+        public String getName() {
+            return "search_backfill";
+        }
+
+        @Override
+        public long migrateBatch(SQLiteDatabase db, long position, int batchSize) {
+            long last;
+            Cursor cursor = db.rawQuery(lastOfBatchSql, new String[] {String.valueOf(position), String.valueOf(batchSize)});
+            try {
+                if ((!cursor.moveToFirst()) || (cursor.isNull(0))) {
+                    return -1;
+                }
+                last = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+            db.execSQL(fillSql, new Object[] {position, last});
+            return last;
+        }
+    };
+
+    /**
+     * Version 5: counts the reminders that were there before the triggers, a few months at a
+     * time. The position is the last month counted, as the year times 12 plus the month. Each
+     * month is counted again from both tables, so it doesn't matter whether the triggers have
+     * already added or subtracted some of its reminders. Until it finishes, the adapter counts the
+     * reminders themselves instead of reading the counts.
+     */
+    static final BackgroundMigration MONTH_COUNTS_FILL = new BackgroundMigration() {
+
+        private final String monthsOfBatchSql =
+                "select " + KEY_YEAR + ", " + KEY_MONTH + " from " + DATABASE_TABLE + " where " + afterMonth()
+                        + " union select " + KEY_YEAR + ", " + KEY_MONTH + " from " + ARCHIVE_TABLE + " where " + afterMonth()
+                        + " order by " + KEY_YEAR + ", " + KEY_MONTH;
+
+        private final String countMonthSql =
+                "insert or replace into " + MONTH_COUNTS_TABLE + " (" + KEY_YEAR + ", " + KEY_MONTH + ", " + KEY_REMINDER_COUNT + ")"
+                        + " select ?1, ?2, (select count(*) from " + DATABASE_TABLE + inMonth() + ")"
+                        + " + (select count(*) from " + ARCHIVE_TABLE + inMonth() + ")";
+
+        private final String deleteEmptyMonthSql =
+                "delete from " + MONTH_COUNTS_TABLE + " where " + KEY_YEAR + " = ?1 and " + KEY_MONTH + " = ?2"
+                        + " and " + KEY_REMINDER_COUNT + " <= 0";
+
+        private String afterMonth() {
+            return KEY_YEAR + " >= ?1 and (" + KEY_YEAR + " > ?1 or " + KEY_MONTH + " > ?2)";
+        }
+
+        private String inMonth() {
+            return " where " + KEY_YEAR + " = ?1 and " + KEY_MONTH + " = ?2 and " + KEY_DELETED + " = 0";
+        }
+
+        @Override
+        public String getName() {
+            return "month_counts_fill";
+        }
+
+        @Override
+        public long migrateBatch(SQLiteDatabase db, long position, int batchSize) {
+            // A batch of a few months, because each one is counted with the index of the list.
+            int months = Math.max(1, batchSize / 100);
+            long last = -1;
+            Cursor cursor = db.rawQuery(monthsOfBatchSql + " limit " + months,
+                    new String[] {String.valueOf(position / 12), String.valueOf(position % 12)});
+            try {
+                while (cursor.moveToNext()) {
+                    Object[] month = new Object[] {cursor.getInt(0), cursor.getInt(1)};
+                    db.execSQL(countMonthSql, month);
+                    db.execSQL(deleteEmptyMonthSql, month);
+                    last = cursor.getInt(0) * 12L + cursor.getInt(1);
+                }
+            } finally {
+                cursor.close();
+            }
+            return last;
+        }
+    };
+
+    /**
+     * Version 12: makes the indexes of the list again with the deletion time, one table per
+     * batch. The new index is built before the old one is dropped, so the list always has got one
+     * of them.
+     */
+    private static final BackgroundMigration LIST_INDEXES = new BackgroundMigration() {
+
+        @Override
+        public String getName() {
+            return "list_indexes";
+        }
+
+        @Override
+        public long migrateBatch(SQLiteDatabase db, long position, int batchSize) {
+            if (position == 0) {
+                db.execSQL(RemindersDbAdapter.INDEX_YEAR_MONTH_CREATE);
+                db.execSQL("drop index if exists reminders_year_month_date_time");
+                return 1;
+            } else if (position == 1) {
+                db.execSQL(ArchiveDbAdapter.INDEX_ARCHIVE_YEAR_MONTH_CREATE);
+                db.execSQL("drop index if exists reminders_archive_year_month_date_time");
+                return 2;
+            } else {
+                return -1;
+            }
+        }
+    };
+
+    /**
+     * Every background migration that this version knows about. A pending migration that isn't
+     * here is dropped by {@link MigrationQueue}.
+     */
+    static final BackgroundMigration[] BACKGROUND_MIGRATIONS = {MONTH_COUNTS_FILL, SEARCH_BACKFILL, LIST_INDEXES};
+
+    private DatabaseUpgrade() {
+    }
+
+    /**
+     * Upgrades the database. This runs inside of a transaction, if anything fails the database
+     * stays at its old version.
+     * Use only statements that don't delete the current user data!
+     *
+     * @param db the database.
+     * @param oldVersion the version of the database.
+     * @param newVersion the current version.
+     */
+    static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Created first, so any step can queue a migration whatever version the database comes from.
+        db.execSQL(MigrationQueue.MIGRATIONS_CREATE);
+        for (String trigger : TRIGGERS) {
+            db.execSQL("drop trigger if exists " + trigger);
+        }
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Logger.log("Upgrading database to version " + version + ".");
+            long start = System.currentTimeMillis();
+            upgradeTo(db, version);
+            Logger.log("Database upgraded to version " + version + " in " + (System.currentTimeMillis() - start) + " ms.");
+        }
+        RemindersDbAdapter.createTriggers(db);
+    }
+
+    /**
+     * Makes the changes that take the database from the previous version to the given one.
+     *
+     * @param db the database.
+     * @param version the version to upgrade to.
+     */
+    private static void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                db.execSQL(INDEX_YEAR_MONTH_V2_CREATE);
+                break;
+            case 3:
+                RemindersDbAdapter.createNotNotifiedIndex(db);
+                break;
+            case 4:
+                db.execSQL(RemindersDbAdapter.INDEX_DATE_TIME_CREATE);
+                break;
+            case 5:
+                db.execSQL(RemindersDbAdapter.MONTH_COUNTS_CREATE);
+                MigrationQueue.queue(db, MONTH_COUNTS_FILL);
+                break;
+            case 6:
+                moveBodiesToTheirOwnTable(db);
+                break;
+            case 7:
+                db.execSQL(RemindersDbAdapter.searchTableCreate());
+                MigrationQueue.queue(db, SEARCH_BACKFILL);
+                break;
+            case 8:
+                db.execSQL(ARCHIVE_V8_CREATE);
+                db.execSQL(INDEX_ARCHIVE_YEAR_MONTH_V8_CREATE);
+                db.execSQL(ArchiveDbAdapter.INDEX_ARCHIVE_DATE_TIME_CREATE);
+                break;
+            case 9:
+                // The table of the background migrations is created before the first step.
+                break;
+            case 10:
+                addTombstones(db);
+                break;
+            case 11:
+                db.execSQL(AlarmRegistryDbAdapter.ARMED_ALARMS_CREATE);
+                break;
+            case 12:
+                MigrationQueue.queue(db, LIST_INDEXES);
+                break;
+        }
+    }
+
+    /**
+     * Copies the bodies to their own table and then rebuilds the reminders table without them,
+     * because SQLite can't drop columns.
+     */
+    private static void moveBodiesToTheirOwnTable(SQLiteDatabase db) {
+        String newTable = DATABASE_TABLE + "_new";
+        db.execSQL(RemindersDbAdapter.BODIES_CREATE);
+        db.execSQL("insert into " + BODIES_TABLE + " (" + KEY_ROWID + ", " + KEY_BODY + ")"
+                + " select " + KEY_ROWID + ", " + KEY_BODY + " from " + DATABASE_TABLE);
+        db.execSQL(remindersTableV6Create(newTable));
+        db.execSQL("insert into " + newTable + " (" + REMINDER_V6_COLUMNS + ") select " + REMINDER_V6_COLUMNS + " from " + DATABASE_TABLE);
+
+        // Keep the autoincrement sequence, so identifiers of deleted reminders are not reused.
+        db.execSQL("update sqlite_sequence set seq = (select seq from sqlite_sequence where name = '"
+                + DATABASE_TABLE + "') where name = '" + newTable + "'");
+
+        // Dropping the table drops its indexes too, they are created again.
+        db.execSQL("drop table " + DATABASE_TABLE);
+        db.execSQL("alter table " + newTable + " rename to " + DATABASE_TABLE);
+        db.execSQL(INDEX_YEAR_MONTH_V2_CREATE);
+        RemindersDbAdapter.createNotNotifiedIndex(db);
+        db.execSQL(RemindersDbAdapter.INDEX_DATE_TIME_CREATE);
+    }
+
+    /**
+     * Adds the deletion time to the reminders table and to the archive, with its indexes. The
+     * indexes of the list are made again with the new column in the background, since version 12.
+     */
+    private static void addTombstones(SQLiteDatabase db) {
+        db.execSQL("alter table " + DATABASE_TABLE + " add column " + KEY_DELETED + " integer not null default 0");
+        db.execSQL("alter table " + ARCHIVE_TABLE + " add column " + KEY_DELETED + " integer not null default 0");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // Partial indexes are not supported before, there the tables are read instead.
+            db.execSQL(RemindersDbAdapter.INDEX_DELETED_CREATE);
+            db.execSQL(ArchiveDbAdapter.INDEX_ARCHIVE_DELETED_CREATE);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package bembibre.alarmfix.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registry of the armed alarms of {@link InMemoryReminderStore}, in a map for every kind of
+ * alarm, keyed by target, whose values are the alarm identifier and the moment of the alarm. The
+ * store copies it when a transaction begins and puts the copy back if the transaction fails.
+ */
+class InMemoryAlarmRegistry implements AlarmRegistry {
+
+    /**
+     * Number of kinds of alarm, which are numbered from 0.
+     */
+    private static final int KINDS = 3;
+
+    private List<Map<Long, long[]>> alarms;
+
+    InMemoryAlarmRegistry() {
+        alarms = new ArrayList<>();
+        for (int kind = 0; kind < KINDS; kind++) {
+            alarms.add(new HashMap<Long, long[]>());
+        }
+    }
+
+    /**
+     * Returns a copy of the alarms, for putting it back with {@link #restore(List)}.
+     */
+    synchronized List<Map<Long, long[]>> copy() {
+        List<Map<Long, long[]>> copy = new ArrayList<>();
+        for (Map<Long, long[]> kindAlarms : alarms) {
+            // The values are replaced, never changed, so they can be shared.
+            copy.add(new HashMap<>(kindAlarms));
+        }
+        return copy;
+    }
+
+    synchronized void restore(List<Map<Long, long[]>> copy) {
+        alarms = copy;
+    }
+
+    @Override
+    public synchronized long getArmedAlarmTime(int kind, long target, long alarmId) {
+        long[] alarm = alarms.get(kind).get(target);
+        if ((alarm == null) || (alarm[0] != alarmId)) {
+            return -1;
+        }
+        return alarm[1];
+    }
+
+    @Override
+    public synchronized void saveArmedAlarm(int kind, long target, long alarmId, long triggerTime) {
+        alarms.get(kind).put(target, new long[] {alarmId, triggerTime});
+    }
+
+    @Override
+    public synchronized boolean deleteArmedAlarm(int kind, long target) {
+        return alarms.get(kind).remove(target) != null;
+    }
+
+    @Override
+    public synchronized long[] deleteArmedAlarms(int kind, long[] targets) {
+        Map<Long, long[]> kindAlarms = alarms.get(kind);
+        long[] deleted = new long[targets.length];
+        int count = 0;
+        for (long target : targets) {
+            if (kindAlarms.remove(target) != null) {
+                deleted[count] = target;
+                count++;
+            }
+        }
+        return Arrays.copyOf(deleted, count);
+    }
+
+    @Override
+    public synchronized long[] fetchArmedAlarmTargets(int kind) {
+        Map<Long, long[]> kindAlarms = alarms.get(kind);
+        long[] targets = new long[kindAlarms.size()];
+        int count = 0;
+        for (Long target : kindAlarms.keySet()) {
+            targets[count] = target;
+            count++;
+        }
+        return targets;
+    }
+
+    @Override
+    public synchronized void deleteAllArmedAlarms() {
+        for (Map<Long, long[]> kindAlarms : alarms) {
+            kindAlarms.clear();
+        }
+    }
+}
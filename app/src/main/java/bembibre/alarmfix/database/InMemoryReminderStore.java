@@ -0,0 +1,599 @@
+package bembibre.alarmfix.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import bembibre.alarmfix.models.ReminderSnapshot;
+import bembibre.alarmfix.utils.CivilDateCalculator;
+
+/**
+ * Store that keeps the reminders in memory, in parallel arrays of primitives sorted by row
+ * identifier, plus an index sorted by date and row identifier for the walks in date order. It
+ * doesn't need Android at all, so the logic that works with a {@link ReminderStore} can be run
+ * and measured on a plain Java virtual machine.
+ *
+ * Transactions are supported: the rows and the registry of the armed alarms are copied when the
+ * outermost transaction begins and the copies are put back if any of the nested transactions
+ * isn't marked as successful, like SQLite does.
+ */
+public class InMemoryReminderStore implements ReminderStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Maximum number of nested transactions.
+     */
+    private static final int MAX_TRANSACTION_DEPTH = 32;
+
+    /**
+     * The rows, in arrays that grow when they are full.
+     */
+    private static class Rows {
+        private int size;
+        private long nextRowId = 1;
+
+        // Number of rows that are deleted but not purged yet.
+        private int deletedCount;
+
+        // Sorted by row identifier.
+        private long[] rowIds;
+        private String[] titles;
+        private String[] bodies;
+        private boolean[] notified;
+        private boolean[] archived;
+        private long[] alarmIds;
+        private long[] dateTimes;
+        private long[] deleted;
+
+        // Sorted by date and then by row identifier.
+        private long[] orderDateTimes;
+        private long[] orderRowIds;
+
+        Rows(int capacity) {
+            rowIds = new long[capacity];
+            titles = new String[capacity];
+            bodies = new String[capacity];
+            notified = new boolean[capacity];
+            archived = new boolean[capacity];
+            alarmIds = new long[capacity];
+            dateTimes = new long[capacity];
+            deleted = new long[capacity];
+            orderDateTimes = new long[capacity];
+            orderRowIds = new long[capacity];
+        }
+
+        Rows copy() {
+            Rows copy = new Rows(0);
+            copy.size = size;
+            copy.nextRowId = nextRowId;
+            copy.deletedCount = deletedCount;
+            copy.rowIds = rowIds.clone();
+            copy.titles = titles.clone();
+            copy.bodies = bodies.clone();
+            copy.notified = notified.clone();
+            copy.archived = archived.clone();
+            copy.alarmIds = alarmIds.clone();
+            copy.dateTimes = dateTimes.clone();
+            copy.deleted = deleted.clone();
+            copy.orderDateTimes = orderDateTimes.clone();
+            copy.orderRowIds = orderRowIds.clone();
+            return copy;
+        }
+
+        /**
+         * Returns the position of the row, or a negative number if it doesn't exist.
+         */
+        int indexOf(long rowId) {
+            return Arrays.binarySearch(rowIds, 0, size, rowId);
+        }
+
+        /**
+         * Returns the position of the given date and row identifier in the date index, or
+         * <code>-(insertion point) - 1</code> if they are not there.
+         */
+        int orderIndexOf(long dateTime, long rowId) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleDateTime = orderDateTimes[middle];
+                long middleRowId = orderRowIds[middle];
+                if ((middleDateTime < dateTime) || ((middleDateTime == dateTime) && (middleRowId < rowId))) {
+                    low = middle + 1;
+                } else if ((middleDateTime == dateTime) && (middleRowId == rowId)) {
+                    return middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void ensureCapacity() {
+            if (size == rowIds.length) {
+                int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+                rowIds = Arrays.copyOf(rowIds, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                bodies = Arrays.copyOf(bodies, capacity);
+                notified = Arrays.copyOf(notified, capacity);
+                archived = Arrays.copyOf(archived, capacity);
+                alarmIds = Arrays.copyOf(alarmIds, capacity);
+                dateTimes = Arrays.copyOf(dateTimes, capacity);
+                deleted = Arrays.copyOf(deleted, capacity);
+                orderDateTimes = Arrays.copyOf(orderDateTimes, capacity);
+                orderRowIds = Arrays.copyOf(orderRowIds, capacity);
+            }
+        }
+
+        void insert(long rowId, String title, String body, long alarmId, long dateTime) {
+            ensureCapacity();
+            int index = -indexOf(rowId) - 1;
+            int moved = size - index;
+            System.arraycopy(rowIds, index, rowIds, index + 1, moved);
+            System.arraycopy(titles, index, titles, index + 1, moved);
+            System.arraycopy(bodies, index, bodies, index + 1, moved);
+            System.arraycopy(notified, index, notified, index + 1, moved);
+            System.arraycopy(archived, index, archived, index + 1, moved);
+            System.arraycopy(alarmIds, index, alarmIds, index + 1, moved);
+            System.arraycopy(dateTimes, index, dateTimes, index + 1, moved);
+            System.arraycopy(deleted, index, deleted, index + 1, moved);
+            rowIds[index] = rowId;
+            titles[index] = title;
+            bodies[index] = body;
+            notified[index] = false;
+            archived[index] = false;
+            alarmIds[index] = alarmId;
+            dateTimes[index] = dateTime;
+            deleted[index] = 0;
+            insertOrder(dateTime, rowId);
+            size++;
+        }
+
+        void remove(int index) {
+            if (deleted[index] > 0) {
+                deletedCount--;
+            }
+            removeOrder(dateTimes[index], rowIds[index]);
+            int moved = size - index - 1;
+            System.arraycopy(rowIds, index + 1, rowIds, index, moved);
+            System.arraycopy(titles, index + 1, titles, index, moved);
+            System.arraycopy(bodies, index + 1, bodies, index, moved);
+            System.arraycopy(notified, index + 1, notified, index, moved);
+            System.arraycopy(archived, index + 1, archived, index, moved);
+            System.arraycopy(alarmIds, index + 1, alarmIds, index, moved);
+            System.arraycopy(dateTimes, index + 1, dateTimes, index, moved);
+            System.arraycopy(deleted, index + 1, deleted, index, moved);
+            size--;
+            titles[size] = null;
+            bodies[size] = null;
+        }
+
+        /**
+         * Returns the position of the row, or a negative number if it doesn't exist or it is
+         * deleted.
+         */
+        int indexOfLive(long rowId) {
+            int index = indexOf(rowId);
+            if ((index >= 0) && (deleted[index] > 0)) {
+                return -1;
+            }
+            return index;
+        }
+
+        void setDeleted(int index, long time) {
+            if ((deleted[index] > 0) != (time > 0)) {
+                if (time > 0) {
+                    deletedCount++;
+                } else {
+                    deletedCount--;
+                }
+            }
+            deleted[index] = time;
+        }
+
+        void changeDateTime(int index, long dateTime) {
+            if (dateTimes[index] != dateTime) {
+                removeOrder(dateTimes[index], rowIds[index]);
+                size--;
+                insertOrder(dateTime, rowIds[index]);
+                size++;
+                dateTimes[index] = dateTime;
+            }
+        }
+
+        /**
+         * Inserts an entry in the date index, which has got room for it, before the size is
+         * increased.
+         */
+        private void insertOrder(long dateTime, long rowId) {
+            int index = -orderIndexOf(dateTime, rowId) - 1;
+            int moved = size - index;
+            System.arraycopy(orderDateTimes, index, orderDateTimes, index + 1, moved);
+            System.arraycopy(orderRowIds, index, orderRowIds, index + 1, moved);
+            orderDateTimes[index] = dateTime;
+            orderRowIds[index] = rowId;
+        }
+
+        /**
+         * Removes an entry from the date index, before the size is decreased.
+         */
+        private void removeOrder(long dateTime, long rowId) {
+            int index = orderIndexOf(dateTime, rowId);
+            int moved = size - index - 1;
+            System.arraycopy(orderDateTimes, index + 1, orderDateTimes, index, moved);
+            System.arraycopy(orderRowIds, index + 1, orderRowIds, index, moved);
+        }
+    }
+
+    private Rows rows = new Rows(INITIAL_CAPACITY);
+
+    /**
+     * Copy of the rows taken when the outermost transaction began.
+     */
+    private Rows savedRows;
+    private final InMemoryAlarmRegistry alarmRegistry = new InMemoryAlarmRegistry();
+    private List<Map<Long, long[]>> savedAlarms;
+    private int transactionDepth;
+    private final boolean[] transactionSuccessful = new boolean[MAX_TRANSACTION_DEPTH];
+    private boolean transactionFailed;
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public synchronized void beginTransaction() {
+        if (transactionDepth == MAX_TRANSACTION_DEPTH) {
+            throw new IllegalStateException("Too many nested transactions.");
+        }
+        if (transactionDepth == 0) {
+            savedRows = rows.copy();
+            savedAlarms = alarmRegistry.copy();
+            transactionFailed = false;
+        }
+        transactionSuccessful[transactionDepth] = false;
+        transactionDepth++;
+    }
+
+    @Override
+    public synchronized void setTransactionSuccessful() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction.");
+        }
+        transactionSuccessful[transactionDepth - 1] = true;
+    }
+
+    @Override
+    public synchronized void endTransaction() {
+        if (transactionDepth == 0) {
+            throw new IllegalStateException("No transaction.");
+        }
+        transactionDepth--;
+        if (!transactionSuccessful[transactionDepth]) {
+            transactionFailed = true;
+        }
+        if (transactionDepth == 0) {
+            if (transactionFailed) {
+                rows = savedRows;
+                alarmRegistry.restore(savedAlarms);
+            }
+            savedRows = null;
+            savedAlarms = null;
+        }
+    }
+
+    @Override
+    public synchronized long createReminder(String title, String body, long reminderDateTime) {
+        long rowId = rows.nextRowId;
+        rows.nextRowId++;
+        rows.insert(rowId, title, body, RemindersDbAdapter.FIRST_ALARM_ID, reminderDateTime);
+        return rowId;
+    }
+
+    /**
+     * An archived reminder is taken out of the archive.
+     */
+    @Override
+    public synchronized boolean updateReminder(long rowId, String title, String body, long reminderDateTime, long alarmId) {
+        int index = rows.indexOfLive(rowId);
+        if (index < 0) {
+            return false;
+        }
+        rows.titles[index] = title;
+        rows.bodies[index] = body;
+        rows.notified[index] = false;
+        rows.archived[index] = false;
+        rows.alarmIds[index] = alarmId;
+        rows.changeDateTime(index, reminderDateTime);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean updateReminder(long rowId, boolean notified) {
+        int index = rows.indexOfLive(rowId);
+        if ((index < 0) || (rows.archived[index])) {
+            return false;
+        }
+        rows.notified[index] = notified;
+        return true;
+    }
+
+    /**
+     * The reminder is only marked as deleted with the current time, until it is purged.
+     */
+    @Override
+    public synchronized boolean deleteReminder(long rowId) {
+        int index = rows.indexOfLive(rowId);
+        if (index < 0) {
+            return false;
+        }
+        rows.setDeleted(index, System.currentTimeMillis());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean deleteAllReminders() {
+        long now = System.currentTimeMillis();
+        boolean deleted = false;
+        for (int index = 0; index < rows.size; index++) {
+            if (rows.deleted[index] == 0) {
+                rows.setDeleted(index, now);
+                deleted = true;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized int undoDeletions(long since) {
+        int restored = 0;
+        for (int index = 0; index < rows.size; index++) {
+            if ((rows.deleted[index] > 0) && (rows.deleted[index] >= since)) {
+                rows.setDeleted(index, 0);
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * The reminders are taken by their deletion time, and then by row identifier, whether they
+     * are archived or not. The visitor can't change the store.
+     */
+    @Override
+    public synchronized int purgeDeletedReminders(long before, int batchSize, ReminderVisitor visitor) {
+        final Rows current = rows;
+        List<Integer> candidates = new ArrayList<>();
+        for (int index = 0; index < current.size; index++) {
+            if ((current.deleted[index] > 0) && (current.deleted[index] < before)) {
+                candidates.add(index);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                long difference = current.deleted[first] - current.deleted[second];
+                if (difference == 0) {
+                    // Positions follow the row identifiers.
+                    return first - second;
+                }
+                return (difference < 0) ? -1 : 1;
+            }
+        });
+        int purged = Math.min(batchSize, candidates.size());
+        long[] purgedRowIds = new long[purged];
+        for (int candidate = 0; candidate < purged; candidate++) {
+            int index = candidates.get(candidate);
+            purgedRowIds[candidate] = current.rowIds[index];
+            visitor.visit(current.rowIds[index], current.titles[index], null, current.notified[index],
+                    current.alarmIds[index], current.dateTimes[index]);
+        }
+        for (long rowId : purgedRowIds) {
+            current.remove(current.indexOf(rowId));
+        }
+        return purged;
+    }
+
+    @Override
+    public synchronized ReminderSnapshot getReminder(long rowId) {
+        int index = rows.indexOfLive(rowId);
+        if (index < 0) {
+            return null;
+        }
+        return new ReminderSnapshot(rowId, rows.titles[index], rows.notified[index], rows.alarmIds[index],
+                rows.dateTimes[index], rows.archived[index]);
+    }
+
+    @Override
+    public synchronized ReminderSnapshot getActiveReminder(long rowId) {
+        ReminderSnapshot reminder = getReminder(rowId);
+        if ((reminder != null) && (reminder.isArchived())) {
+            return null;
+        }
+        return reminder;
+    }
+
+    @Override
+    public synchronized String fetchReminderBody(long rowId) {
+        int index = rows.indexOf(rowId);
+        if (index < 0) {
+            return null;
+        }
+        return rows.bodies[index];
+    }
+
+    @Override
+    public synchronized long[] fetchNotNotifiedReminderIds() {
+        int count = 0;
+        for (int index = 0; index < rows.size; index++) {
+            if ((!rows.notified[index]) && (rows.deleted[index] == 0)) {
+                count++;
+            }
+        }
+        long[] ids = new long[count];
+        count = 0;
+        for (int index = 0; index < rows.size; index++) {
+            if ((!rows.notified[index]) && (rows.deleted[index] == 0)) {
+                ids[count] = rows.rowIds[index];
+                count++;
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized int countAllReminders() {
+        return rows.size - rows.deletedCount;
+    }
+
+    @Override
+    public synchronized int archiveNotifiedReminders(long before, int batchSize) {
+        int archived = 0;
+        for (int order = 0; (order < rows.size) && (archived < batchSize) && (rows.orderDateTimes[order] < before); order++) {
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if ((rows.notified[index]) && (!rows.archived[index]) && (rows.deleted[index] == 0)) {
+                rows.archived[index] = true;
+                archived++;
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * The visitor can't change the store, except for marking the visited reminder as notified.
+     */
+    @Override
+    public synchronized void visitNotNotifiedReminders(ReminderVisitor visitor) {
+        for (int order = 0; order < rows.size; order++) {
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if ((!rows.notified[index]) && (!rows.archived[index]) && (rows.deleted[index] == 0)) {
+                if (!visitor.visit(rows.rowIds[index], rows.titles[index], null, false,
+                        rows.alarmIds[index], rows.dateTimes[index])) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int markPastRemindersNotified(long before, int maxTitles, List<String> titles) {
+        int marked = 0;
+        for (int order = 0; (order < rows.size) && (rows.orderDateTimes[order] < before); order++) {
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if ((!rows.notified[index]) && (!rows.archived[index]) && (rows.deleted[index] == 0)) {
+                if (marked < maxTitles) {
+                    titles.add(rows.titles[index]);
+                }
+                rows.notified[index] = true;
+                marked++;
+            }
+        }
+        return marked;
+    }
+
+    @Override
+    public synchronized void visitNotNotifiedRemindersAfter(long dateTime, long rowId, int limit, ReminderVisitor visitor) {
+        int visited = 0;
+        for (int order = 0; (order < rows.size) && (visited < limit); order++) {
+            if ((rows.orderDateTimes[order] < dateTime)
+                    || ((rows.orderDateTimes[order] == dateTime) && (rows.orderRowIds[order] <= rowId))) {
+                continue;
+            }
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if ((!rows.notified[index]) && (!rows.archived[index]) && (rows.deleted[index] == 0)) {
+                visited++;
+                if (!visitor.visit(rows.rowIds[index], rows.titles[index], null, false,
+                        rows.alarmIds[index], rows.dateTimes[index])) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void visitDueReminders(long until, ReminderVisitor visitor) {
+        for (int order = 0; order < rows.size; order++) {
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if (rows.dateTimes[index] > until) {
+                break;
+            }
+            if ((!rows.notified[index]) && (!rows.archived[index]) && (rows.deleted[index] == 0)) {
+                if (!visitor.visit(rows.rowIds[index], rows.titles[index], null, false,
+                        rows.alarmIds[index], rows.dateTimes[index])) {
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized long fetchNextReminderDateTime() {
+        for (int order = 0; order < rows.size; order++) {
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if ((!rows.notified[index]) && (!rows.archived[index]) && (rows.deleted[index] == 0)) {
+                return rows.dateTimes[index];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Walks all of the reminders ordered by date and row identifier. The visitor can't change the
+     * store.
+     */
+    @Override
+    public synchronized void visitAllReminders(ReminderVisitor visitor) {
+        for (int order = 0; order < rows.size; order++) {
+            int index = rows.indexOf(rows.orderRowIds[order]);
+            if (rows.deleted[index] > 0) {
+                continue;
+            }
+            if (!visitor.visit(rows.rowIds[index], rows.titles[index], rows.bodies[index], rows.notified[index],
+                    rows.alarmIds[index], rows.dateTimes[index])) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The counts are made walking the reminders in date order, where the reminders of the same
+     * year and month come together.
+     */
+    @Override
+    public synchronized void visitMonthCounts(MonthCountVisitor visitor) {
+        int year = 0;
+        int month = 0;
+        int count = 0;
+        for (int order = 0; order < rows.size; order++) {
+            if (rows.deleted[rows.indexOf(rows.orderRowIds[order])] > 0) {
+                continue;
+            }
+            long dateTime = rows.orderDateTimes[order];
+            int reminderYear = CivilDateCalculator.getYear(dateTime);
+            int reminderMonth = CivilDateCalculator.getMonth(dateTime);
+            if ((count > 0) && ((reminderYear != year) || (reminderMonth != month))) {
+                visitor.visit(year, month, count);
+                count = 0;
+            }
+            year = reminderYear;
+            month = reminderMonth;
+            count++;
+        }
+        if (count > 0) {
+            visitor.visit(year, month, count);
+        }
+    }
+
+    @Override
+    public AlarmRegistry getAlarmRegistry() {
+        return alarmRegistry;
+    }
+}
@@ -0,0 +1,134 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import bembibre.alarmfix.logging.Logger;
+
+/**
+ * The background migrations that haven't finished yet, kept in a table of the database of
+ * {@link RemindersDbAdapter} with the position that each one has reached and the time spent on it
+ * so far. They are queued by {@link DatabaseUpgrade} and run batch by batch once the database is
+ * open.
+ */
+class MigrationQueue {
+
+    private static final String MIGRATIONS_TABLE = "pending_migrations";
+    private static final String KEY_MIGRATION_NAME = "name";
+    private static final String KEY_MIGRATION_POSITION = "position";
+    private static final String KEY_MIGRATION_BATCHES = "batches";
+    private static final String KEY_MIGRATION_ELAPSED_MILLIS = "elapsed_millis";
+
+    /**
+     * It doesn't fail if the table exists, because an upgrade creates it before any of its steps,
+     * whatever version the database comes from.
+     */
+    static final String MIGRATIONS_CREATE =
+            "create table if not exists " + MIGRATIONS_TABLE + " ("
+                    + KEY_MIGRATION_NAME + " text primary key, "
+                    + KEY_MIGRATION_POSITION + " integer not null, "
+                    + KEY_MIGRATION_BATCHES + " integer not null, "
+                    + KEY_MIGRATION_ELAPSED_MILLIS + " integer not null);";
+
+    static final String FETCH_PENDING_MIGRATION_SQL =
+            "select " + KEY_MIGRATION_NAME + ", "
+                    + KEY_MIGRATION_POSITION + ", "
+                    + KEY_MIGRATION_BATCHES + ", "
+                    + KEY_MIGRATION_ELAPSED_MILLIS + " from " + MIGRATIONS_TABLE
+                    + " order by rowid limit 1";
+
+    static final String COUNT_PENDING_MIGRATION_SQL =
+            "select count(*) from " + MIGRATIONS_TABLE + " where " + KEY_MIGRATION_NAME + " = ?";
+
+    private final RemindersDbAdapter dbAdapter;
+
+    MigrationQueue(RemindersDbAdapter dbAdapter) {
+        this.dbAdapter = dbAdapter;
+    }
+
+    /**
+     * Leaves a background migration pending, to be run from its beginning once the upgrade is
+     * over.
+     */
+    static void queue(SQLiteDatabase db, BackgroundMigration migration) {
+        db.execSQL("insert or replace into " + MIGRATIONS_TABLE + " ("
+                + KEY_MIGRATION_NAME + ", "
+                + KEY_MIGRATION_POSITION + ", "
+                + KEY_MIGRATION_BATCHES + ", "
+                + KEY_MIGRATION_ELAPSED_MILLIS + ") values (?, 0, 0, 0)", new Object[] {migration.getName()});
+    }
+
+    /**
+     * Returns whether a background migration hasn't finished yet.
+     */
+    boolean isPending(BackgroundMigration migration) {
+        SQLiteStatement statement = dbAdapter.getStatement(COUNT_PENDING_MIGRATION_SQL);
+        synchronized (statement) {
+            statement.bindString(1, migration.getName());
+            return statement.simpleQueryForLong() > 0;
+        }
+    }
+
+    /**
+     * Runs the next batch of the oldest pending background migration, in its own transaction
+     * along with the position reached, so the rest of the application only waits for one batch
+     * at a time.
+     *
+     * @param batchSize maximum number of rows of the batch.
+     * @return <code>false</code> when there are no pending migrations left.
+     */
+    boolean runBatch(int batchSize) {
+        SQLiteDatabase db = dbAdapter.getDatabase();
+        db.beginTransaction();
+        try {
+            String name;
+            long position;
+            int batches;
+            long elapsedMillis;
+            Cursor cursor = db.rawQuery(FETCH_PENDING_MIGRATION_SQL, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                name = cursor.getString(0);
+                position = cursor.getLong(1);
+                batches = cursor.getInt(2);
+                elapsedMillis = cursor.getLong(3);
+            } finally {
+                cursor.close();
+            }
+
+            BackgroundMigration migration = null;
+            for (BackgroundMigration knownMigration : DatabaseUpgrade.BACKGROUND_MIGRATIONS) {
+                if (knownMigration.getName().equals(name)) {
+                    migration = knownMigration;
+                    break;
+                }
+            }
+            if (migration == null) {
+                Logger.log("Unknown background migration " + name + " dropped.");
+                position = -1;
+            } else {
+                long start = System.currentTimeMillis();
+                position = migration.migrateBatch(db, position, batchSize);
+                batches++;
+                elapsedMillis += System.currentTimeMillis() - start;
+            }
+            if (position < 0) {
+                db.execSQL("delete from " + MIGRATIONS_TABLE + " where " + KEY_MIGRATION_NAME + " = ?", new Object[] {name});
+                Logger.log("Background migration " + name + " finished: " + batches + " batches in " + elapsedMillis + " ms.");
+            } else {
+                db.execSQL("update " + MIGRATIONS_TABLE + " set "
+                        + KEY_MIGRATION_POSITION + " = ?, "
+                        + KEY_MIGRATION_BATCHES + " = ?, "
+                        + KEY_MIGRATION_ELAPSED_MILLIS + " = ? where " + KEY_MIGRATION_NAME + " = ?",
+                        new Object[] {position, batches, elapsedMillis, name});
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
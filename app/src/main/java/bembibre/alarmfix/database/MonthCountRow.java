@@ -0,0 +1,11 @@
+package bembibre.alarmfix.database;
+
+/**
+ * The number of reminders of a year and month as read by a {@link RowMapper}, which fills the same
+ * object again for every row.
+ */
+class MonthCountRow {
+    int year;
+    int month;
+    int count;
+}
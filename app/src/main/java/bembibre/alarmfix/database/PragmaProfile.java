@@ -0,0 +1,127 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Set of SQLite settings applied to the database every time it is opened: the journal mode and the
+ * pragmas that trade durability and memory for speed.
+ *
+ * With write-ahead logging the readers (the reminders list, the data export) see a snapshot of the
+ * database and are not blocked while the alarms are being handled, nor the other way round.
+ */
+public class PragmaProfile {
+
+    public static final int SYNCHRONOUS_OFF = 0;
+    public static final int SYNCHRONOUS_NORMAL = 1;
+    public static final int SYNCHRONOUS_FULL = 2;
+
+    public static final int TEMP_STORE_DEFAULT = 0;
+    public static final int TEMP_STORE_FILE = 1;
+    public static final int TEMP_STORE_MEMORY = 2;
+
+    /**
+     * The settings the application had before profiles existed: rollback journal and the SQLite
+     * defaults. Readers and writers block each other.
+     */
+    public static final PragmaProfile LEGACY =
+            new PragmaProfile("legacy", false, SYNCHRONOUS_FULL, -2000, 0, TEMP_STORE_DEFAULT);
+
+    /**
+     * Write-ahead logging with every commit synced to the disk.
+     */
+    public static final PragmaProfile DURABLE =
+            new PragmaProfile("durable", true, SYNCHRONOUS_FULL, -2000, 0, TEMP_STORE_DEFAULT);
+
+    /**
+     * Write-ahead logging syncing only at checkpoints. A crash of the application never loses
+     * data, a power loss can only lose the last commits. Bigger cache, memory mapped reads and
+     * temporary tables in memory. This is the profile used by default.
+     */
+    public static final PragmaProfile BALANCED =
+            new PragmaProfile("balanced", true, SYNCHRONOUS_NORMAL, -4000, 8 * 1024 * 1024, TEMP_STORE_MEMORY);
+
+    /**
+     * Write-ahead logging with no syncs at all. A power loss can corrupt the database, so it is
+     * only meant for comparing the rest of the profiles against it.
+     */
+    public static final PragmaProfile FAST =
+            new PragmaProfile("fast", true, SYNCHRONOUS_OFF, -8000, 32 * 1024 * 1024, TEMP_STORE_MEMORY);
+
+    private final String name;
+    private final boolean writeAheadLogging;
+    private final int synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final int tempStore;
+
+    /**
+     * Creates a profile.
+     *
+     * @param name name of the profile, for logging.
+     * @param writeAheadLogging <code>true</code> for write-ahead logging, <code>false</code> for
+     * the rollback journal.
+     * @param synchronous one of the <code>SYNCHRONOUS_*</code> values.
+     * @param cacheSize page cache size, as SQLite understands it: positive values are pages and
+     * negative values are kibibytes.
+     * @param mmapSize bytes of the database file read through memory mapping, 0 for none.
+     * @param tempStore one of the <code>TEMP_STORE_*</code> values.
+     */
+    public PragmaProfile(String name, boolean writeAheadLogging, int synchronous, int cacheSize, long mmapSize, int tempStore) {
+        this.name = name;
+        this.writeAheadLogging = writeAheadLogging;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    /**
+     * Applies this profile to a database that has just been opened. It must not be called inside of
+     * a transaction.
+     *
+     * The pragmas only apply to the connection that runs them, which is the one that makes all of
+     * the writes. The extra connections that Android opens for reading in write-ahead logging mode
+     * keep the SQLite defaults.
+     *
+     * @param db the database.
+     */
+    public void applyTo(SQLiteDatabase db) {
+        if (writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            db.disableWriteAheadLogging();
+        }
+        executePragma(db, "synchronous = " + synchronous);
+        executePragma(db, "cache_size = " + cacheSize);
+        executePragma(db, "mmap_size = " + mmapSize);
+        executePragma(db, "temp_store = " + tempStore);
+    }
+
+    /**
+     * Some pragmas return a row and some don't, so they are run as queries, which works for both.
+     * Pragmas unknown to the SQLite version of the device are silently ignored by SQLite.
+     */
+    private static void executePragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,50 @@
+package bembibre.alarmfix.database;
+
+/**
+ * A reminder as read by a {@link RowMapper}, which fills the same object again for every row, so
+ * its values are only valid until the next row is read. The columns that a projection doesn't
+ * have are left with the values of the previous row.
+ */
+public class ReminderRow {
+    long rowId;
+    String title;
+    String body;
+    boolean notified;
+    long alarmId;
+    long dateTime;
+    boolean archived;
+
+    public long getRowId() {
+        return rowId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public boolean isNotified() {
+        return notified;
+    }
+
+    public long getAlarmId() {
+        return alarmId;
+    }
+
+    /**
+     * Date and time of the reminder as milliseconds since the Epoch.
+     */
+    public long getDateTime() {
+        return dateTime;
+    }
+
+    /**
+     * Whether the reminder is in the archive.
+     */
+    public boolean isArchived() {
+        return archived;
+    }
+}
@@ -0,0 +1,216 @@
+package bembibre.alarmfix.database;
+
+import java.util.List;
+
+import bembibre.alarmfix.models.ReminderSnapshot;
+
+/**
+ * Storage of the reminders, with the operations that the scheduling, the import, the export and
+ * the counts of the list need. Rows are handed out through visitors and snapshots instead of
+ * cursors, so the logic that uses a store doesn't depend on SQLite and can run against any
+ * implementation.
+ *
+ * The reminders are identified by their row identifier. Dates are milliseconds since the Epoch.
+ */
+public interface ReminderStore {
+
+    /**
+     * Receives the reminders of a walk, one by one.
+     */
+    interface ReminderVisitor {
+
+        /**
+         * Receives a reminder.
+         *
+         * @param rowId the row identifier.
+         * @param title the title.
+         * @param body the body, or <code>null</code> when the walk doesn't load the bodies.
+         * @param notified whether the reminder has already been notified.
+         * @param alarmId the current alarm identifier.
+         * @param dateTime the date and time.
+         * @return <code>true</code> to go on with the walk, <code>false</code> to stop it.
+         */
+        boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime);
+    }
+
+    /**
+     * Receives the reminder counts of every year and month that has got reminders.
+     */
+    interface MonthCountVisitor {
+
+        /**
+         * Receives the count of a year and month.
+         *
+         * @param year the year.
+         * @param month the month, starting from 0.
+         * @param count the number of reminders.
+         */
+        void visit(int year, int month, int count);
+    }
+
+    /**
+     * Leases the store. Every call must be paired with a call to {@link #close()}.
+     */
+    void open();
+
+    /**
+     * Returns a lease of the store.
+     */
+    void close();
+
+    /**
+     * Begins a transaction: remember to finish it at the finally part of a try/catch/finally block.
+     */
+    void beginTransaction();
+
+    /**
+     * Commits the current transaction.
+     */
+    void setTransactionSuccessful();
+
+    /**
+     * Ends the current transaction.
+     */
+    void endTransaction();
+
+    /**
+     * Creates a reminder that hasn't been notified, with the first alarm identifier.
+     *
+     * @return the row identifier, or -1 if it couldn't be created.
+     */
+    long createReminder(String title, String body, long reminderDateTime);
+
+    /**
+     * Updates a reminder and marks it as not notified.
+     *
+     * @return <code>true</code> if the reminder exists.
+     */
+    boolean updateReminder(long rowId, String title, String body, long reminderDateTime, long alarmId);
+
+    /**
+     * Marks a reminder as notified or not.
+     *
+     * @return <code>true</code> if the reminder exists and can still have an alarm.
+     */
+    boolean updateReminder(long rowId, boolean notified);
+
+    /**
+     * Deletes a reminder. It is left out of everything else from now on, but it is only removed
+     * for good, and its alarm unset, by {@link #purgeDeletedReminders(long, int, ReminderVisitor)}.
+     *
+     * @return <code>true</code> if the reminder existed and it wasn't deleted yet.
+     */
+    boolean deleteReminder(long rowId);
+
+    /**
+     * Deletes all of the reminders, in the same way as {@link #deleteReminder(long)}.
+     *
+     * @return <code>true</code> if there was at least one.
+     */
+    boolean deleteAllReminders();
+
+    /**
+     * Undoes the deletions made from the given moment on that haven't been purged yet.
+     *
+     * @return the number of reminders that are back.
+     */
+    int undoDeletions(long since);
+
+    /**
+     * Removes for good a batch of the reminders deleted before the given moment, the first deleted
+     * first, and then hands each one to the visitor, outside of the transaction that removed them.
+     * The visitor can't stop the batch.
+     *
+     * @return the number of reminders removed, less than the batch size when there are no more.
+     */
+    int purgeDeletedReminders(long before, int batchSize, ReminderVisitor visitor);
+
+    /**
+     * Returns a reminder, archived or not.
+     *
+     * @return the reminder, or <code>null</code> if it doesn't exist.
+     */
+    ReminderSnapshot getReminder(long rowId);
+
+    /**
+     * Returns a reminder only if it isn't archived, so it can still have an alarm.
+     *
+     * @return the reminder, or <code>null</code> if it doesn't exist or it is archived.
+     */
+    ReminderSnapshot getActiveReminder(long rowId);
+
+    /**
+     * Returns the body of a reminder.
+     *
+     * @return the body, or <code>null</code> if the reminder doesn't exist.
+     */
+    String fetchReminderBody(long rowId);
+
+    /**
+     * Returns the identifiers of the reminders that haven't been notified yet.
+     */
+    long[] fetchNotNotifiedReminderIds();
+
+    /**
+     * Returns the total number of reminders.
+     */
+    int countAllReminders();
+
+    /**
+     * Archives a batch of the notified reminders dated before the given moment, the oldest first.
+     *
+     * @return the number of reminders archived, less than the batch size when there are no more.
+     */
+    int archiveNotifiedReminders(long before, int batchSize);
+
+    /**
+     * Walks the reminders that haven't been notified yet, ordered by date, without their bodies.
+     */
+    void visitNotNotifiedReminders(ReminderVisitor visitor);
+
+    /**
+     * Marks as notified all of the reminders that haven't been notified yet dated before the given
+     * moment, at once.
+     *
+     * @param before milliseconds since the Epoch.
+     * @param maxTitles maximum number of titles wanted.
+     * @param titles gets the titles of the first of the reminders marked, in order of date.
+     * @return the number of reminders marked.
+     */
+    int markPastRemindersNotified(long before, int maxTitles, List<String> titles);
+
+    /**
+     * Walks at most the given number of the reminders that haven't been notified yet that come
+     * after the given date and row identifier, ordered by date and then by row identifier, without
+     * their bodies, so a long walk can be resumed where it stopped.
+     */
+    void visitNotNotifiedRemindersAfter(long dateTime, long rowId, int limit, ReminderVisitor visitor);
+
+    /**
+     * Walks the reminders that haven't been notified yet dated up to the given moment, ordered by
+     * date, without their bodies.
+     */
+    void visitDueReminders(long until, ReminderVisitor visitor);
+
+    /**
+     * Returns the date of the first reminder that hasn't been notified yet, as milliseconds since
+     * the Epoch, or -1 if there is none.
+     */
+    long fetchNextReminderDateTime();
+
+    /**
+     * Walks all of the reminders, archived or not, with their bodies.
+     */
+    void visitAllReminders(ReminderVisitor visitor);
+
+    /**
+     * Walks the reminder counts by year and month, ordered by year and month.
+     */
+    void visitMonthCounts(MonthCountVisitor visitor);
+
+    /**
+     * Returns the registry of the alarms set for the reminders of this store, which takes part in
+     * its transactions.
+     */
+    AlarmRegistry getAlarmRegistry();
+}
@@ -1,290 +1,1913 @@
 package bembibre.alarmfix.database;
 
-import android.content.ContentValues;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.LruCache;
 
-import java.util.Calendar;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import bembibre.alarmfix.logging.Logger;
 import bembibre.alarmfix.models.DateTime;
+import bembibre.alarmfix.models.ReminderSnapshot;
+import bembibre.alarmfix.utils.CivilDateCalculator;
 
 /**
  * Created by Max Power on 12/08/2017.
  */
 
-public class RemindersDbAdapter {
-    private static final int DATABASE_VERSION = 1;
+public class RemindersDbAdapter implements ReminderStore {
+    /**
+     * Version history:
+     * 1 - Initial reminders table.
+     * 2 - Index for listing the reminders of a year and month ordered by date.
+     * 3 - Index of the not notified reminders ordered by date.
+     * 4 - Index by date for walking all of the reminders page by page.
+     * 5 - Table of reminder counts by year and month kept by triggers.
+     * 6 - Reminder bodies moved to their own table.
+     * 7 - Full-text search index over titles and bodies.
+     * 8 - Archive table for the old notified reminders.
+     * 9 - Table of the pending background migrations.
+     * 10 - Deleted reminders kept as tombstones until they are purged.
+     * 11 - Registry of the alarms set in the system.
+     * 12 - Indexes of the list made again with the deletion time in the background.
+     */
+    private static final int DATABASE_VERSION = 12;
     private static final String DATABASE_NAME = "data";
+    private static final String TEST_DATABASE_NAME = "test";
+
+    /*
+     * Reminders table.
+     */
+
+    static final String DATABASE_TABLE = "reminders";
+
+    /**
+     * Reminder title.
+     */
+    public static final String KEY_TITLE = "title";
+
+    /**
+     * Reminder text. It is kept in its own table, see {@link #BODIES_TABLE}.
+     */
+    public static final String KEY_BODY = "body";
+
+    /**
+     * Flag that indicates if the reminder has already been notified to the user by the application.
+     * Already notified reminders are not processed while the phone is turned on, but the not
+     * notified ones get notified to the user or set as alarms if they are in the future.
+     */
+    public static final String KEY_NOTIFIED = "notified";
+
+    /**
+     * Integer number that is 0 at the beginning but is increased with a unit each time an alarm is
+     * set in the system for the reminder, in order to keep track of the alarms that are set for
+     * each single reminder. A reminder can be set more than a single alarm for example if the user
+     * updates the reminder later than he creates it.
+     */
+    public static final String KEY_ALARM_ID = "alarm_id";
+
+    public static final String KEY_YEAR = "year";
+
+    /**
+     * The month starts from 0 respecting the Java format.
+     */
+    public static final String KEY_MONTH = "month";
+
+    /**
+     * Date and time of the reminder stored as milliseconds since the Epoch.
+     */
+    public static final String KEY_DATE_TIME = "reminder_date_time";
+
+    /**
+     * Autoincrement primary key of each row.
+     */
+    public static final String KEY_ROWID = "_id";
+
+    /**
+     * When the reminder was deleted, as milliseconds since the Epoch, or 0 if it hasn't been.
+     * Deleting a reminder only sets this, so it is a single quick update that can be undone. The
+     * deleted reminders are left out of every query, and they are removed for good later, in
+     * batches, by {@link #purgeDeletedReminders(long, int, ReminderVisitor)}. This column is in
+     * the archive too.
+     */
+    public static final String KEY_DELETED = "deleted";
+
+    /*
+     * Reminder bodies, by the row identifier of their reminder. They can be long and they are
+     * only needed when the user edits or exports the reminders, so they are kept away from the
+     * reminders table, which is the one read by the list and by the alarms.
+     */
+
+    static final String BODIES_TABLE = "reminder_bodies";
+
+    /*
+     * Archive of the reminders that were notified long ago, see {@link ArchiveDbAdapter}.
+     */
+
+    private static final String ARCHIVE_TABLE = ArchiveDbAdapter.ARCHIVE_TABLE;
+
+    /**
+     * Column of the point fetches that tells whether the reminder is in the archive.
+     */
+    public static final String KEY_ARCHIVED = "archived";
+
+    /**
+     * Maximum number of reminders moved to the archive in each transaction.
+     */
+    public static final int ARCHIVE_BATCH_SIZE = 200;
+
+    /**
+     * Maximum number of deleted reminders removed for good in each transaction.
+     */
+    public static final int PURGE_BATCH_SIZE = 200;
+
+    /**
+     * Maximum number of alarms set in each batch of the background stage of the boot.
+     */
+    public static final int BOOT_BATCH_SIZE = 200;
+
+    /*
+     * Full-text search index over the titles and bodies of the reminders. Each document has got
+     * the row identifier of its reminder as document identifier. It is kept in sync by triggers
+     * on the reminders and bodies tables.
+     */
+
+    static final String SEARCH_TABLE = "reminders_search";
+
+    /**
+     * Default maximum number of results of a search.
+     */
+    public static final int SEARCH_LIMIT = 200;
+
+    /*
+     * Reminder counts by year and month. It has a row for every year and month that has got
+     * reminders, kept up to date by triggers on the reminders table, so the counts shown by the
+     * spinners and the total count are read without going through all of the reminders.
+     */
+
+    static final String MONTH_COUNTS_TABLE = "reminder_month_counts";
+
+    /**
+     * Number of reminders of the year and month of the row.
+     */
+    public static final String KEY_REMINDER_COUNT = "reminder_count";
+
+    /**
+     * Default number of rows of each batch of a background migration.
+     */
+    public static final int MIGRATION_BATCH_SIZE = 500;
+
+    // Other fields.
+
+    public static final long FIRST_ALARM_ID = 1;
+
+    /**
+     * Default number of reminders of each page when walking all of the reminders page by page.
+     */
+    public static final int PAGE_SIZE = 100;
+
+    /**
+     * Default maximum number of reminders of a date range.
+     */
+    public static final int RANGE_LIMIT = 500;
+
+    /**
+     * Default number of upcoming reminders.
+     */
+    public static final int UPCOMING_COUNT = 50;
+
+    static final String MONTH_COUNTS_CREATE =
+            "create table " + MONTH_COUNTS_TABLE + " ("
+                    + KEY_YEAR + " integer not null, "
+                    + KEY_MONTH + " integer not null, "
+                    + KEY_REMINDER_COUNT + " integer not null, "
+                    + "primary key (" + KEY_YEAR + ", " + KEY_MONTH + "));";
+
+    /*
+     * The deleted reminders are not counted: they are subtracted when they are deleted and added
+     * again if the deletion is undone, so removing them for good doesn't change the counts.
+     */
+    private static final String[] MONTH_COUNTS_TRIGGERS_CREATE = {
+            "create trigger reminders_month_count_insert after insert on " + DATABASE_TABLE
+                    + " when new." + KEY_DELETED + " = 0 and " + notIn(ARCHIVE_TABLE, "new") + " begin "
+                    + incrementMonthCount("new") + " end;",
+            "create trigger reminders_month_count_delete after delete on " + DATABASE_TABLE
+                    + " when old." + KEY_DELETED + " = 0 and " + notIn(ARCHIVE_TABLE, "old") + " begin "
+                    + decrementMonthCount("old") + " end;",
+            "create trigger reminders_month_count_update after update of " + KEY_YEAR + ", " + KEY_MONTH
+                    + " on " + DATABASE_TABLE
+                    + " when old." + KEY_DELETED + " = 0 and (old." + KEY_YEAR + " <> new." + KEY_YEAR + " or old." + KEY_MONTH + " <> new." + KEY_MONTH + ")"
+                    + " begin " + decrementMonthCount("old") + " " + incrementMonthCount("new") + " end;",
+            tombstoneTriggerCreate("reminders_month_count_tombstone", DATABASE_TABLE),
+            undeleteTriggerCreate("reminders_month_count_undelete", DATABASE_TABLE)
+    };
+
+    /**
+     * Trigger that stops counting a reminder when it is deleted.
+     */
+    static String tombstoneTriggerCreate(String name, String table) {
+        return "create trigger " + name + " after update of " + KEY_DELETED + " on " + table
+                + " when old." + KEY_DELETED + " = 0 and new." + KEY_DELETED + " <> 0 begin "
+                + decrementMonthCount("old") + " end;";
+    }
+
+    /**
+     * Trigger that counts a reminder again when its deletion is undone.
+     */
+    static String undeleteTriggerCreate(String name, String table) {
+        return "create trigger " + name + " after update of " + KEY_DELETED + " on " + table
+                + " when old." + KEY_DELETED + " <> 0 and new." + KEY_DELETED + " = 0 begin "
+                + incrementMonthCount("new") + " end;";
+    }
+
+    /**
+     * Trigger condition that holds when the given row is not in the given table. A reminder being
+     * moved between the reminders table and the archive is in both tables for a moment, and then
+     * it is neither a new reminder nor a deleted one.
+     *
+     * @param table the other table.
+     * @param row <code>new</code> or <code>old</code>.
+     */
+    static String notIn(String table, String row) {
+        return "not exists (select 1 from " + table + " where " + KEY_ROWID + " = " + row + "." + KEY_ROWID + ")";
+    }
+
+    /**
+     * Trigger statements that add one to the count of the year and month of the given row.
+     *
+     * @param row <code>new</code> or <code>old</code>.
+     */
+    private static String incrementMonthCount(String row) {
+        return "insert or ignore into " + MONTH_COUNTS_TABLE + " (" + KEY_YEAR + ", " + KEY_MONTH + ", " + KEY_REMINDER_COUNT + ")"
+                + " values (" + row + "." + KEY_YEAR + ", " + row + "." + KEY_MONTH + ", 0); "
+                + "update " + MONTH_COUNTS_TABLE + " set " + KEY_REMINDER_COUNT + " = " + KEY_REMINDER_COUNT + " + 1"
+                + " where " + KEY_YEAR + " = " + row + "." + KEY_YEAR + " and " + KEY_MONTH + " = " + row + "." + KEY_MONTH + ";";
+    }
+
+    /**
+     * Trigger statements that subtract one from the count of the year and month of the given row,
+     * removing the year and month when no reminders are left.
+     *
+     * @param row <code>new</code> or <code>old</code>.
+     */
+    static String decrementMonthCount(String row) {
+        return "update " + MONTH_COUNTS_TABLE + " set " + KEY_REMINDER_COUNT + " = " + KEY_REMINDER_COUNT + " - 1"
+                + " where " + KEY_YEAR + " = " + row + "." + KEY_YEAR + " and " + KEY_MONTH + " = " + row + "." + KEY_MONTH + "; "
+                + "delete from " + MONTH_COUNTS_TABLE
+                + " where " + KEY_YEAR + " = " + row + "." + KEY_YEAR + " and " + KEY_MONTH + " = " + row + "." + KEY_MONTH
+                + " and " + KEY_REMINDER_COUNT + " <= 0;";
+    }
+
+    /*
+     * Statements of the most frequent operations. They always have the same SQL text and take
+     * their values as bound parameters, so they are compiled only once per connection.
+     *
+     * The statements that look rows up are visible to the package, so their query plans can be
+     * checked by the tests, and so are the ones measured by the benchmarks.
+     */
+
+    static final String INSERT_REMINDER_SQL =
+            "insert into " + DATABASE_TABLE + " ("
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME + ") values (?, 0, ?, ?, ?, ?)";
+
+    static final String UPDATE_REMINDER_SQL =
+            "update " + DATABASE_TABLE + " set "
+                    + KEY_TITLE + " = ?, "
+                    + KEY_NOTIFIED + " = 0, "
+                    + KEY_ALARM_ID + " = ?, "
+                    + KEY_YEAR + " = ?, "
+                    + KEY_MONTH + " = ?, "
+                    + KEY_DATE_TIME + " = ? where " + KEY_ROWID + " = ? and " + KEY_DELETED + " = 0";
+
+    static final String SAVE_BODY_SQL =
+            "insert or replace into " + BODIES_TABLE + " (" + KEY_ROWID + ", " + KEY_BODY + ") values (?, ?)";
+
+    static final String UPDATE_NOTIFIED_SQL =
+            "update " + DATABASE_TABLE + " set " + KEY_NOTIFIED + " = ? where " + KEY_ROWID + " = ? and " + KEY_DELETED + " = 0";
+
+    static final String TOMBSTONE_REMINDER_SQL = tombstoneSql(DATABASE_TABLE);
+
+    static final String TOMBSTONE_ARCHIVED_REMINDER_SQL = tombstoneSql(ARCHIVE_TABLE);
+
+    /**
+     * Deletes a reminder of a table that isn't deleted yet, taking the moment of the deletion and
+     * the row identifier.
+     */
+    private static String tombstoneSql(String table) {
+        return "update " + table + " set " + KEY_DELETED + " = ?1 where " + KEY_ROWID + " = ?2 and " + KEY_DELETED + " = 0";
+    }
+
+    static final String TOMBSTONE_ALL_REMINDERS_SQL = tombstoneAllSql(DATABASE_TABLE);
+
+    static final String TOMBSTONE_ALL_ARCHIVED_REMINDERS_SQL = tombstoneAllSql(ARCHIVE_TABLE);
+
+    private static String tombstoneAllSql(String table) {
+        return "update " + table + " set " + KEY_DELETED + " = ? where " + KEY_DELETED + " = 0";
+    }
+
+    static final String UNDO_DELETIONS_SQL = undoDeletionsSql(DATABASE_TABLE);
+
+    static final String UNDO_ARCHIVED_DELETIONS_SQL = undoDeletionsSql(ARCHIVE_TABLE);
+
+    /**
+     * Undoes the deletions of a table made from a moment on, sought in the index of the deletion
+     * time, which only holds the deleted reminders.
+     */
+    private static String undoDeletionsSql(String table) {
+        return "update " + table + " set " + KEY_DELETED + " = 0"
+                + " where " + KEY_DELETED + " > 0 and " + KEY_DELETED + " >= ?";
+    }
+
+    static final String FETCH_DELETED_REMINDERS_SQL = deletedSelect(DATABASE_TABLE);
+
+    static final String FETCH_DELETED_ARCHIVED_REMINDERS_SQL = deletedSelect(ARCHIVE_TABLE);
+
+    /**
+     * The reminders of a table deleted before a moment, the first deleted first, sought in the
+     * index of the deletion time. The limit is added by the caller.
+     */
+    private static String deletedSelect(String table) {
+        return "select " + KEY_ROWID + ", "
+                + KEY_TITLE + ", "
+                + KEY_NOTIFIED + ", "
+                + KEY_ALARM_ID + ", "
+                + KEY_DATE_TIME + " from " + table
+                + " where " + KEY_DELETED + " > 0 and " + KEY_DELETED + " < ?"
+                + " order by " + KEY_DELETED;
+    }
+
+    /**
+     * Reads the rows of the deleted reminders of both tables.
+     */
+    static final RowMapper<ReminderRow> DELETED_MAPPER =
+            new RowMapper<ReminderRow>(KEY_ROWID, KEY_TITLE, KEY_NOTIFIED, KEY_ALARM_ID, KEY_DATE_TIME) {
+                @Override
+                public ReminderRow newRow() {
+                    return new ReminderRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, ReminderRow row) {
+                    row.rowId = cursor.getLong(indices[0]);
+                    row.title = cursor.getString(indices[1]);
+                    row.notified = cursor.getInt(indices[2]) == 1;
+                    row.alarmId = cursor.getLong(indices[3]);
+                    row.dateTime = cursor.getLong(indices[4]);
+                }
+            };
+
+    /**
+     * Point fetch. Queries that return rows can't be run as a {@link SQLiteStatement}, but as the
+     * text never changes, the statement cache that Android keeps for each connection compiles it
+     * only once too.
+     */
+    static final String FETCH_ACTIVE_REMINDER_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_DATE_TIME + ", 0 as " + KEY_ARCHIVED
+                    + " from " + DATABASE_TABLE + " where " + KEY_ROWID + " = ?1 and " + KEY_DELETED + " = 0";
+
+    /**
+     * Point fetch in both tables. A reminder is only in one of them.
+     */
+    static final String FETCH_REMINDER_SQL =
+            FETCH_ACTIVE_REMINDER_SQL
+                    + " union all select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_DATE_TIME + ", 1 as " + KEY_ARCHIVED
+                    + " from " + ARCHIVE_TABLE + " where " + KEY_ROWID + " = ?1 and " + KEY_DELETED + " = 0";
+
+    /**
+     * Reads the rows of both point fetches.
+     */
+    static final RowMapper<ReminderRow> REMINDER_MAPPER =
+            new RowMapper<ReminderRow>(KEY_ROWID, KEY_TITLE, KEY_NOTIFIED, KEY_ALARM_ID, KEY_DATE_TIME, KEY_ARCHIVED) {
+                @Override
+                public ReminderRow newRow() {
+                    return new ReminderRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, ReminderRow row) {
+                    row.rowId = cursor.getLong(indices[0]);
+                    row.title = cursor.getString(indices[1]);
+                    row.notified = cursor.getInt(indices[2]) == 1;
+                    row.alarmId = cursor.getLong(indices[3]);
+                    row.dateTime = cursor.getLong(indices[4]);
+                    row.archived = cursor.getInt(indices[5]) == 1;
+                }
+            };
+
+    /**
+     * The reminders of a month in both tables. Each part reads its own covering index in date
+     * order, so both are merged without a sort step.
+     */
+    static final String FETCH_REMINDERS_BY_MONTH_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_YEAR + " = ?1 and " + KEY_MONTH + " = ?2 and " + KEY_DELETED + " = 0"
+                    + " union all select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_DATE_TIME + " from " + ARCHIVE_TABLE
+                    + " where " + KEY_YEAR + " = ?1 and " + KEY_MONTH + " = ?2 and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME;
+
+    /**
+     * Reads the rows of the queries of the list: by month, between dates, upcoming and search.
+     * They all return the identifier, the title, the notified flag and the date, in this order.
+     */
+    public static final RowMapper<ReminderRow> LIST_MAPPER =
+            new RowMapper<ReminderRow>(KEY_ROWID, KEY_TITLE, KEY_NOTIFIED, KEY_DATE_TIME) {
+                @Override
+                public ReminderRow newRow() {
+                    return new ReminderRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, ReminderRow row) {
+                    row.rowId = cursor.getLong(indices[0]);
+                    row.title = cursor.getString(indices[1]);
+                    row.notified = cursor.getInt(indices[2]) == 1;
+                    row.dateTime = cursor.getLong(indices[3]);
+                }
+            };
+
+    /**
+     * The reminders of a date range in both tables. Each part is sought in its own date index,
+     * so the cost depends on the reminders of the range and not on the whole table.
+     */
+    static final String FETCH_REMINDERS_BETWEEN_SQL =
+            rangeSelect(DATABASE_TABLE) + " union all " + rangeSelect(ARCHIVE_TABLE)
+                    + " order by " + KEY_DATE_TIME;
+
+    private static String rangeSelect(String table) {
+        return "select " + KEY_ROWID + ", "
+                + KEY_TITLE + ", "
+                + KEY_NOTIFIED + ", "
+                + KEY_DATE_TIME + " from " + table
+                + " where " + KEY_DATE_TIME + " >= ?1 and " + KEY_DATE_TIME + " < ?2 and " + KEY_DELETED + " = 0";
+    }
+
+    /**
+     * The next reminders that haven't been notified, read from the index of the not notified
+     * reminders. The archive only has got notified reminders, so it is not read.
+     */
+    static final String FETCH_UPCOMING_REMINDERS_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DATE_TIME + " >= ? and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME;
+
+    static final String FETCH_BODY_SQL =
+            "select " + KEY_BODY + " from " + BODIES_TABLE + " where " + KEY_ROWID + " = ?";
+
+    /**
+     * The reminders that haven't been notified, ordered by date, read from the index of the not
+     * notified reminders.
+     */
+    static final String FETCH_NOT_NOTIFIED_REMINDERS_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME;
+
+    static final RowMapper<ReminderRow> NOT_NOTIFIED_MAPPER =
+            new RowMapper<ReminderRow>(KEY_ROWID, KEY_TITLE, KEY_ALARM_ID, KEY_DATE_TIME) {
+                @Override
+                public ReminderRow newRow() {
+                    return new ReminderRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, ReminderRow row) {
+                    row.rowId = cursor.getLong(indices[0]);
+                    row.title = cursor.getString(indices[1]);
+                    row.notified = false;
+                    row.alarmId = cursor.getLong(indices[2]);
+                    row.dateTime = cursor.getLong(indices[3]);
+                }
+            };
+
+    /**
+     * The reminders that haven't been notified dated up to a moment, ordered by date, sought in
+     * the index of the not notified reminders.
+     */
+    static final String FETCH_DUE_REMINDERS_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DATE_TIME + " <= ? and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME;
+
+    /**
+     * The reminders that haven't been notified dated before a moment, ordered by date, sought in
+     * the index of the not notified reminders. The limit is added by the caller.
+     */
+    static final String FETCH_PAST_REMINDERS_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DATE_TIME + " < ? and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME;
+
+    /**
+     * Marks as notified at once the reminders that haven't been notified dated before a moment,
+     * sought in the index of the not notified reminders.
+     */
+    static final String MARK_PAST_REMINDERS_NOTIFIED_SQL =
+            "update " + DATABASE_TABLE + " set " + KEY_NOTIFIED + " = 1"
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DATE_TIME + " < ? and " + KEY_DELETED + " = 0";
+
+    /**
+     * The reminders that haven't been notified that come after a date and row identifier, ordered
+     * by date and row identifier, sought in the index of the not notified reminders, whose entries
+     * are in that order. The limit is added by the caller.
+     */
+    static final String FETCH_NOT_NOTIFIED_REMINDERS_AFTER_SQL =
+            "select " + KEY_ROWID + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_ALARM_ID + ", "
+                    + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DELETED + " = 0"
+                    + " and " + KEY_DATE_TIME + " >= ?1 and (" + KEY_DATE_TIME + " > ?1 or " + KEY_ROWID + " > ?2)"
+                    + " order by " + KEY_DATE_TIME + ", " + KEY_ROWID;
+
+    /**
+     * The date of the first reminder that hasn't been notified, or -1 if there is none, read from
+     * the first entries of the index of the not notified reminders. It always returns a row, so it
+     * can be run as a {@link SQLiteStatement}.
+     */
+    static final String FETCH_NEXT_REMINDER_DATE_TIME_SQL =
+            "select ifnull((select " + KEY_DATE_TIME + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DELETED + " = 0"
+                    + " order by " + KEY_DATE_TIME + " limit 1), -1)";
+
+    /**
+     * The identifiers of the reminders that haven't been notified, sought in the index of the not
+     * notified reminders.
+     */
+    static final String FETCH_NOT_NOTIFIED_REMINDER_IDS_SQL =
+            "select " + KEY_ROWID + " from " + DATABASE_TABLE
+                    + " where " + KEY_NOTIFIED + " = 0 and " + KEY_DELETED + " = 0";
+
+    /**
+     * Reads the rows of the queries of identifiers: the not notified reminders and the archive
+     * candidates.
+     */
+    static final RowMapper<ReminderRow> ROW_ID_MAPPER =
+            new RowMapper<ReminderRow>(KEY_ROWID) {
+                @Override
+                public ReminderRow newRow() {
+                    return new ReminderRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, ReminderRow row) {
+                    row.rowId = cursor.getLong(indices[0]);
+                }
+            };
+
+    static final String COUNT_ALL_REMINDERS_SQL =
+            "select ifnull(sum(" + KEY_REMINDER_COUNT + "), 0) from " + MONTH_COUNTS_TABLE;
+
+    /**
+     * The counts by year and month, read in the order of the primary key.
+     */
+    static final String FETCH_MONTH_COUNTS_SQL =
+            "select " + KEY_REMINDER_COUNT + ", " + KEY_YEAR + ", " + KEY_MONTH + " from " + MONTH_COUNTS_TABLE
+                    + " order by " + KEY_YEAR + ", " + KEY_MONTH;
+
+    /**
+     * Same as {@link #COUNT_ALL_REMINDERS_SQL}, counting the reminders themselves while the counts
+     * of a database upgraded from before they existed are still being filled in the background.
+     */
+    static final String COUNT_ALL_REMINDERS_UNFILLED_SQL =
+            "select (select count(*) from " + DATABASE_TABLE + " where " + KEY_DELETED + " = 0)"
+                    + " + (select count(*) from " + ARCHIVE_TABLE + " where " + KEY_DELETED + " = 0)";
+
+    /**
+     * Same as {@link #FETCH_MONTH_COUNTS_SQL}, grouping the reminders themselves while the counts
+     * are still being filled.
+     */
+    static final String FETCH_MONTH_COUNTS_UNFILLED_SQL =
+            "select count(*) as " + KEY_REMINDER_COUNT + ", " + KEY_YEAR + ", " + KEY_MONTH + " from ("
+                    + "select " + KEY_YEAR + ", " + KEY_MONTH + " from " + DATABASE_TABLE + " where " + KEY_DELETED + " = 0"
+                    + " union all select " + KEY_YEAR + ", " + KEY_MONTH + " from " + ARCHIVE_TABLE
+                    + " where " + KEY_DELETED + " = 0)"
+                    + " group by " + KEY_YEAR + ", " + KEY_MONTH
+                    + " order by " + KEY_YEAR + ", " + KEY_MONTH;
+
+    static final RowMapper<MonthCountRow> MONTH_COUNT_MAPPER =
+            new RowMapper<MonthCountRow>(KEY_YEAR, KEY_MONTH, KEY_REMINDER_COUNT) {
+                @Override
+                public MonthCountRow newRow() {
+                    return new MonthCountRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, MonthCountRow row) {
+                    row.year = cursor.getInt(indices[0]);
+                    row.month = cursor.getInt(indices[1]);
+                    row.count = cursor.getInt(indices[2]);
+                }
+            };
+
+    /**
+     * Columns of a page of all of the reminders of a table, which are all of the columns of the
+     * reminders along with the body.
+     *
+     * @param table the reminders table or the archive.
+     */
+    private static String remindersPageSelect(String table) {
+        return "select " + table + "." + KEY_ROWID + " as " + KEY_ROWID + ", "
+                + KEY_TITLE + ", "
+                + KEY_NOTIFIED + ", "
+                + KEY_ALARM_ID + ", "
+                + KEY_YEAR + ", "
+                + KEY_MONTH + ", "
+                + KEY_DATE_TIME + ", "
+                + KEY_BODY + " from " + table + " left join " + BODIES_TABLE
+                + " on " + BODIES_TABLE + "." + KEY_ROWID + " = " + table + "." + KEY_ROWID;
+    }
+
+    /**
+     * First page of all of the reminders of a table, without the limit.
+     *
+     * @param archived <code>true</code> for the archive.
+     */
+    static String firstPageSql(boolean archived) {
+        String table = getTable(archived);
+        return remindersPageSelect(table)
+                + " where " + KEY_DELETED + " = 0"
+                + " order by " + KEY_DATE_TIME + ", " + table + "." + KEY_ROWID;
+    }
+
+    /**
+     * Page of all of the reminders of a table that comes after a date and a row identifier,
+     * without the limit.
+     *
+     * @param archived <code>true</code> for the archive.
+     */
+    static String nextPageSql(boolean archived) {
+        String table = getTable(archived);
+        return remindersPageSelect(table)
+                + " where " + KEY_DATE_TIME + " >= ?1 and (" + KEY_DATE_TIME + " > ?1 or " + table + "." + KEY_ROWID + " > ?2)"
+                + " and " + KEY_DELETED + " = 0"
+                + " order by " + KEY_DATE_TIME + ", " + table + "." + KEY_ROWID;
+    }
+
+    /**
+     * Reads the rows of the pages of both tables.
+     */
+    static final RowMapper<ReminderRow> PAGE_MAPPER =
+            new RowMapper<ReminderRow>(KEY_ROWID, KEY_TITLE, KEY_NOTIFIED, KEY_ALARM_ID, KEY_DATE_TIME, KEY_BODY) {
+                @Override
+                public ReminderRow newRow() {
+                    return new ReminderRow();
+                }
+
+                @Override
+                protected void read(Cursor cursor, int[] indices, ReminderRow row) {
+                    row.rowId = cursor.getLong(indices[0]);
+                    row.title = cursor.getString(indices[1]);
+                    row.notified = cursor.getInt(indices[2]) == 1;
+                    row.alarmId = cursor.getLong(indices[3]);
+                    row.dateTime = cursor.getLong(indices[4]);
+                    row.body = cursor.getString(indices[5]);
+                }
+            };
+
+    private DatabaseHelper mDbHelper;
+    private volatile SQLiteDatabase mDb;
+    private final AlarmRegistry alarmRegistry;
+    private final ArchiveDbAdapter archive;
+    private final MigrationQueue migrations;
+
+    /**
+     * Whether the counts by year and month can be read, or they are still being filled by
+     * {@link DatabaseUpgrade#MONTH_COUNTS_FILL}. It is known once the database is open.
+     */
+    private volatile boolean monthCountsFilled = true;
+
+    private static final String DATABASE_CREATE =
+            "create table " + DATABASE_TABLE + " ("
+                    + KEY_ROWID + " integer primary key autoincrement, "
+                    + KEY_TITLE + " text not null, "
+                    + KEY_NOTIFIED + " integer, "
+                    + KEY_ALARM_ID + " integer not null, "
+                    + KEY_YEAR + " integer not null, "
+                    + KEY_MONTH + " integer not null, "
+                    + KEY_DATE_TIME + " integer not null, "
+                    + KEY_DELETED + " integer not null default 0);";
+
+    static final String BODIES_CREATE =
+            "create table " + BODIES_TABLE + " ("
+                    + KEY_ROWID + " integer primary key, "
+                    + KEY_BODY + " text not null);";
+
+    /**
+     * The body of a reminder goes away along with the reminder, but not when it is just moved to
+     * the archive.
+     */
+    private static final String BODIES_TRIGGER_CREATE =
+            "create trigger reminders_body_delete after delete on " + DATABASE_TABLE
+                    + " when " + notIn(ARCHIVE_TABLE, "old") + " begin "
+                    + "delete from " + BODIES_TABLE + " where " + KEY_ROWID + " = old." + KEY_ROWID + "; end;";
+
+    /**
+     * The unicode61 tokenizer, which ignores accents, is only available in the SQLite shipped
+     * with Android from Lollipop on. Before that the simple tokenizer is used.
+     */
+    static String searchTableCreate() {
+        String tokenizer;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            tokenizer = ", tokenize=unicode61";
+        } else {
+            tokenizer = "";
+        }
+        return "create virtual table " + SEARCH_TABLE + " using fts4("
+                + KEY_TITLE + ", " + KEY_BODY + tokenizer + ");";
+    }
+
+    /*
+     * Bodies are saved right after their reminder is created, so a reminder goes into the search
+     * index when its body is saved. Saving a body replaces the previous one, which doesn't fire
+     * delete triggers, so the document is always deleted before it is inserted again.
+     */
+    private static final String[] SEARCH_TRIGGERS_CREATE = {
+            "create trigger reminders_search_body_insert after insert on " + BODIES_TABLE + " begin "
+                    + "delete from " + SEARCH_TABLE + " where docid = new." + KEY_ROWID + "; "
+                    + "insert into " + SEARCH_TABLE + " (docid, " + KEY_TITLE + ", " + KEY_BODY + ")"
+                    + " select " + KEY_ROWID + ", " + KEY_TITLE + ", new." + KEY_BODY + " from " + DATABASE_TABLE
+                    + " where " + KEY_ROWID + " = new." + KEY_ROWID + "; end;",
+            "create trigger reminders_search_title_update after update of " + KEY_TITLE + " on " + DATABASE_TABLE + " begin "
+                    + "update " + SEARCH_TABLE + " set " + KEY_TITLE + " = new." + KEY_TITLE
+                    + " where docid = new." + KEY_ROWID + "; end;",
+            "create trigger reminders_search_delete after delete on " + DATABASE_TABLE
+                    + " when " + notIn(ARCHIVE_TABLE, "old") + " begin "
+                    + "delete from " + SEARCH_TABLE + " where docid = old." + KEY_ROWID + "; end;"
+    };
+
+    /**
+     * Search in both tables. The documents found are joined with each table by their row
+     * identifier.
+     */
+    static final String SEARCH_SQL =
+            searchSelect(DATABASE_TABLE) + " union all " + searchSelect(ARCHIVE_TABLE)
+                    + " order by " + KEY_DATE_TIME;
+
+    private static String searchSelect(String table) {
+        return "select " + table + "." + KEY_ROWID + " as " + KEY_ROWID + ", "
+                + table + "." + KEY_TITLE + " as " + KEY_TITLE + ", "
+                + KEY_NOTIFIED + ", "
+                + KEY_DATE_TIME + " from " + SEARCH_TABLE + " join " + table
+                + " on " + table + "." + KEY_ROWID + " = " + SEARCH_TABLE + ".docid"
+                + " where " + SEARCH_TABLE + " match ?1 and " + KEY_DELETED + " = 0";
+    }
+
+    /**
+     * Index used by the reminders list, which filters by year and month and orders by date. It
+     * also holds the rest of the columns shown by the list and the deletion time, so the query is
+     * solved by reading only the index, without a sort step and without touching the table.
+     */
+    static final String INDEX_YEAR_MONTH_CREATE =
+            "create index reminders_year_month_date_time_deleted on " + DATABASE_TABLE + " ("
+                    + KEY_YEAR + ", "
+                    + KEY_MONTH + ", "
+                    + KEY_DATE_TIME + ", "
+                    + KEY_NOTIFIED + ", "
+                    + KEY_TITLE + ", "
+                    + KEY_DELETED + ");";
+
+    /**
+     * Index of the reminders that haven't been notified yet, ordered by date. It only holds those
+     * reminders, so reading it when the phone is turned on costs as much as the pending reminders
+     * and not as much as the whole table.
+     */
+    private static final String INDEX_NOT_NOTIFIED_CREATE =
+            "create index reminders_not_notified_date_time on " + DATABASE_TABLE + " ("
+                    + KEY_DATE_TIME + ") where " + KEY_NOTIFIED + " = 0;";
+
+    /**
+     * Partial indexes are not supported by the SQLite shipped with Android before Lollipop, so
+     * there the not notified reminders are indexed by the flag and the date instead.
+     */
+    private static final String INDEX_NOT_NOTIFIED_CREATE_LEGACY =
+            "create index reminders_not_notified_date_time on " + DATABASE_TABLE + " ("
+                    + KEY_NOTIFIED + ", "
+                    + KEY_DATE_TIME + ");";
+
+    /**
+     * Index by date. Its entries are ordered by date and then by row identifier, which is the
+     * order used for walking all of the reminders page by page.
+     */
+    static final String INDEX_DATE_TIME_CREATE =
+            "create index reminders_date_time on " + DATABASE_TABLE + " ("
+                    + KEY_DATE_TIME + ");";
+
+    /**
+     * Index by deletion time of the deleted reminders, for undoing the last deletions and for
+     * finding the reminders to purge. It only holds the deleted reminders: an index of the whole
+     * column would be almost all zeros, and without statistics SQLite would prefer it to the
+     * indexes that give the order of the rest of the queries.
+     */
+    static final String INDEX_DELETED_CREATE =
+            "create index reminders_deleted on " + DATABASE_TABLE + " ("
+                    + KEY_DELETED + ") where " + KEY_DELETED + " > 0;";
+
+    private final Context mCtx;
+
+    private static RemindersDbAdapter instance;
+
+    /*
+     * Connection metrics.
+     */
+
+    private final AtomicLong openCount = new AtomicLong();
+    private final AtomicLong closeCount = new AtomicLong();
+    private final AtomicLong leaseCount = new AtomicLong();
+    private final AtomicInteger activeLeases = new AtomicInteger();
+
+    /**
+     * Statements compiled for the current connection, by their SQL text. They are compiled the
+     * first time they are used and released when the connection is closed.
+     */
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+    /**
+     * Maximum number of reminders kept by {@link #reminders}.
+     */
+    private static final int REMINDER_CACHE_SIZE = 128;
+
+    /**
+     * Reminders recently read one by one, by their row identifier. Every method that writes a
+     * reminder removes it from here, and {@link #generation} changes with every removal, so a
+     * reminder read while it was being written is not kept.
+     */
+    private final LruCache<Long, ReminderSnapshot> reminders = new LruCache<>(REMINDER_CACHE_SIZE);
+    private final AtomicLong generation = new AtomicLong();
+
+    // https://stackoverflow.com/questions/2493331/what-are-the-best-practices-for-sqlite-on-android
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+
+        /**
+         * Settings applied every time the database is opened.
+         */
+        private volatile PragmaProfile pragmaProfile = PragmaProfile.BALANCED;
+
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            if (!db.isReadOnly()) {
+                pragmaProfile.applyTo(db);
+            }
+        }
+
+        /**
+         * Creates the schema of the current version at once. The earlier versions are only known
+         * by {@link DatabaseUpgrade}.
+         */
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(DATABASE_CREATE);
+            db.execSQL(INDEX_YEAR_MONTH_CREATE);
+            createNotNotifiedIndex(db);
+            db.execSQL(INDEX_DATE_TIME_CREATE);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                // Partial indexes are not supported before, there the table is read instead.
+                db.execSQL(INDEX_DELETED_CREATE);
+            }
+            db.execSQL(MONTH_COUNTS_CREATE);
+            db.execSQL(BODIES_CREATE);
+            db.execSQL(searchTableCreate());
+            ArchiveDbAdapter.create(db);
+            db.execSQL(MigrationQueue.MIGRATIONS_CREATE);
+            db.execSQL(AlarmRegistryDbAdapter.ARMED_ALARMS_CREATE);
+            createTriggers(db);
+        }
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion,
+                              int newVersion) {
+            DatabaseUpgrade.upgrade(db, oldVersion, newVersion);
+        }
+    }
+
+    static void createNotNotifiedIndex(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            db.execSQL(INDEX_NOT_NOTIFIED_CREATE);
+        } else {
+            db.execSQL(INDEX_NOT_NOTIFIED_CREATE_LEGACY);
+        }
+    }
+
+    /**
+     * Creates all of the triggers as they are in the current version, once all of the tables
+     * exist.
+     */
+    static void createTriggers(SQLiteDatabase db) {
+        for (String trigger : MONTH_COUNTS_TRIGGERS_CREATE) {
+            db.execSQL(trigger);
+        }
+        db.execSQL(BODIES_TRIGGER_CREATE);
+        for (String trigger : SEARCH_TRIGGERS_CREATE) {
+            db.execSQL(trigger);
+        }
+        ArchiveDbAdapter.createTriggers(db);
+    }
+
+    private RemindersDbAdapter(Context ctx) {
+        this.mCtx = ctx;
+        this.alarmRegistry = new AlarmRegistryDbAdapter(this);
+        this.archive = new ArchiveDbAdapter(this);
+        this.migrations = new MigrationQueue(this);
+    }
+
+    public synchronized static RemindersDbAdapter getInstance(Context ctx) {
+        if (instance == null) {
+            instance = create(ctx, DATABASE_NAME);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates an adapter apart from the one of the application, only for the tests of this
+     * package, which need a new one for every new database. It has got a database file of its
+     * own, because the application opens its database in the background when it starts.
+     */
+    static RemindersDbAdapter create(Context ctx) {
+        return create(ctx, TEST_DATABASE_NAME);
+    }
+
+    /**
+     * Creates an adapter for the database file of the given name, for the tests that build the
+     * database of an older version by hand and for the benchmarks, without touching the one of the
+     * application.
+     */
+    static RemindersDbAdapter create(Context ctx, String name) {
+        // The application context lives as long as the connection does.
+        Context applicationContext = ctx.getApplicationContext();
+        RemindersDbAdapter adapter = new RemindersDbAdapter(applicationContext);
+        adapter.mDbHelper = new DatabaseHelper(applicationContext, name);
+        return adapter;
+    }
+
+    /**
+     * Changes the SQLite settings of the database. They are applied the next time the database is
+     * opened, so call it before {@link #start()}.
+     *
+     * @param pragmaProfile the settings.
+     */
+    public void setPragmaProfile(PragmaProfile pragmaProfile) {
+        mDbHelper.pragmaProfile = pragmaProfile;
+    }
+
+    /**
+     * Opens the connection to the database, which stays open for the whole life of the
+     * application, upgrading the database if it comes from an older version. It is called in the
+     * background when the application starts, and later calls do nothing, or wait for the first
+     * one if it hasn't finished yet.
+     */
+    public synchronized void start() throws android.database.SQLException {
+        if (mDb == null) {
+            mDb = mDbHelper.getWritableDatabase();
+            monthCountsFilled = !migrations.isPending(DatabaseUpgrade.MONTH_COUNTS_FILL);
+            openCount.incrementAndGet();
+            Logger.log("Database opened");
+        }
+    }
+
+    /**
+     * Returns whether the connection is open, so the database can be used at once without waiting
+     * for {@link #start()}.
+     */
+    public boolean isStarted() {
+        return mDb != null;
+    }
+
+    /**
+     * Closes the connection to the database. Only needed when the application is going to finish
+     * for sure, because the system usually kills the process without any warning.
+     */
+    public synchronized void shutdown() {
+        if (mDb != null) {
+            releaseStatements();
+            mDbHelper.close();
+            mDb = null;
+            closeCount.incrementAndGet();
+            Logger.log("Database closed");
+        }
+    }
+
+    /**
+     * Leases the connection to the database. Every call must be paired with a call to
+     * {@link #close()} when the caller doesn't need the database any longer. The connection is
+     * normally already open, so this costs no more than a counter; it is only opened here if the
+     * application hasn't done it yet.
+     */
+    @Override
+    public void open() throws android.database.SQLException {
+        leaseCount.incrementAndGet();
+        activeLeases.incrementAndGet();
+        if (mDb == null) {
+            start();
+        }
+    }
+
+    /**
+     * Returns a connection leased by {@link #open()}. The connection itself stays open.
+     */
+    @Override
+    public void close() {
+        activeLeases.decrementAndGet();
+    }
+
+    /**
+     * Returns how many times the connection has been opened.
+     */
+    public long getOpenCount() {
+        return openCount.get();
+    }
 
-    /*
-     * Reminders table.
+    /**
+     * Returns how many times the connection has been closed.
      */
+    public long getCloseCount() {
+        return closeCount.get();
+    }
 
-    private static final String DATABASE_TABLE = "reminders";
+    /**
+     * Returns how many times the connection has been leased.
+     */
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
 
     /**
-     * Reminder title.
+     * Returns how many leases of the connection haven't been returned yet.
      */
-    public static final String KEY_TITLE = "title";
+    public int getActiveLeases() {
+        return activeLeases.get();
+    }
 
     /**
-     * Reminder text.
+     * Returns the compiled statement for the given SQL, compiling it if this connection hasn't
+     * done it yet. The statement must be used while holding its own lock, because the same object
+     * is shared by all of the threads.
+     *
+     * @param sql the SQL text of the statement.
+     * @return the compiled statement.
      */
-    public static final String KEY_BODY = "body";
+    synchronized SQLiteStatement getStatement(String sql) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = mDb.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
 
     /**
-     * Flag that indicates if the reminder has already been notified to the user by the application.
-     * Already notified reminders are not processed while the phone is turned on, but the not
-     * notified ones get notified to the user or set as alarms if they are in the future.
+     * Releases all of the statements compiled for the current connection.
      */
-    public static final String KEY_NOTIFIED = "notified";
+    private synchronized void releaseStatements() {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+    }
 
     /**
-     * Integer number that is 0 at the beginning but is increased with a unit each time an alarm is
-     * set in the system for the reminder, in order to keep track of the alarms that are set for
-     * each single reminder. A reminder can be set more than a single alarm for example if the user
-     * updates the reminder later than he creates it.
+     * Returns the database of the current connection, for the tables kept apart from the adapter
+     * and for the tests of this package.
      */
-    public static final String KEY_ALARM_ID = "alarm_id";
+    SQLiteDatabase getDatabase() {
+        return mDb;
+    }
 
-    public static final String KEY_YEAR = "year";
+    /**
+     * Returns the registry of the armed alarms, which is kept in this database.
+     */
+    @Override
+    public AlarmRegistry getAlarmRegistry() {
+        return alarmRegistry;
+    }
 
     /**
-     * The month starts from 0 respecting the Java format.
+     * Begins a database transaction: remember to finish it at the finally part of a try/catch/finally block.
      */
-    public static final String KEY_MONTH = "month";
+    @Override
+    public void beginTransaction() {
+        this.mDb.beginTransaction();
+    }
 
     /**
-     * Date and time of the reminder stored as milliseconds since the Epoch.
+     * Commits the current transaction.
      */
-    public static final String KEY_DATE_TIME = "reminder_date_time";
+    @Override
+    public void setTransactionSuccessful() {
+        this.mDb.setTransactionSuccessful();
+    }
 
     /**
-     * Autoincrement primary key of each row.
+     * Runs the next batch of the oldest pending background migration, in its own transaction
+     * along with the position reached, so the rest of the application only waits for one batch
+     * at a time.
+     *
+     * @param batchSize maximum number of rows of the batch.
+     * @return <code>false</code> when there are no pending migrations left.
      */
-    public static final String KEY_ROWID = "_id";
+    public boolean runMigrationBatch(int batchSize) {
+        boolean pending = migrations.runBatch(batchSize);
+        if (!monthCountsFilled) {
+            monthCountsFilled = !migrations.isPending(DatabaseUpgrade.MONTH_COUNTS_FILL);
+        }
+        return pending;
+    }
 
-    // Other fields.
+    /**
+     * Ends the current transaction. Other threads could have read, and kept in the cache, the
+     * reminders written by the transaction before it was committed, so the cache is emptied.
+     */
+    @Override
+    public void endTransaction() {
+        try {
+            this.mDb.endTransaction();
+        } finally {
+            forgetAllReminders();
+        }
+    }
 
-    public static final long FIRST_ALARM_ID = 1;
+    /**
+     * Returns a reminder, whether it is in the reminders table or in the archive, from the cache
+     * or from the database if it isn't in the cache.
+     *
+     * @param rowId the row identifier of the reminder.
+     * @return the reminder, or <code>null</code> if it doesn't exist.
+     */
+    @Override
+    public ReminderSnapshot getReminder(long rowId) {
+        ReminderSnapshot reminder = reminders.get(rowId);
+        if (reminder == null) {
+            reminder = readReminder(FETCH_REMINDER_SQL, rowId);
+        }
+        return reminder;
+    }
 
     /**
-     * For pagination.
+     * Returns a reminder only if it is in the reminders table, from the cache or from the
+     * database if it isn't in the cache. Used when an alarm goes off.
+     *
+     * @param rowId the row identifier of the reminder.
+     * @return the reminder, or <code>null</code> if it doesn't exist or it is archived.
      */
-    public static final int PAGE_SIZE = 10;
+    @Override
+    public ReminderSnapshot getActiveReminder(long rowId) {
+        ReminderSnapshot reminder = reminders.get(rowId);
+        if (reminder == null) {
+            reminder = readReminder(FETCH_ACTIVE_REMINDER_SQL, rowId);
+        }
+        if ((reminder != null) && (reminder.isArchived())) {
+            return null;
+        }
+        return reminder;
+    }
 
-    private DatabaseHelper mDbHelper;
-    private SQLiteDatabase mDb;
-    private static final String DATABASE_CREATE =
-            "create table " + DATABASE_TABLE + " ("
-                    + KEY_ROWID + " integer primary key autoincrement, "
-                    + KEY_TITLE + " text not null, "
-                    + KEY_BODY + " text not null, "
-                    + KEY_NOTIFIED + " integer, "
-                    + KEY_ALARM_ID + " integer not null, "
-                    + KEY_YEAR + " integer not null, "
-                    + KEY_MONTH + " integer not null, "
-                    + KEY_DATE_TIME + " integer not null);";
-    private final Context mCtx;
+    /**
+     * Reads a reminder from the database and keeps it in the cache, unless it has been written
+     * meanwhile or it has been read inside of a transaction, which could still be rolled back.
+     */
+    private ReminderSnapshot readReminder(String sql, long rowId) {
+        long readGeneration = generation.get();
+        ReminderSnapshot reminder;
+        Cursor cursor = mDb.rawQuery(sql, new String[] {String.valueOf(rowId)});
+        try {
+            if (cursor.moveToFirst()) {
+                ReminderRow row = REMINDER_MAPPER.read(cursor, REMINDER_MAPPER.newRow());
+                reminder = new ReminderSnapshot(row.rowId, row.title, row.notified, row.alarmId, row.dateTime,
+                        row.archived);
+            } else {
+                reminder = null;
+            }
+        } finally {
+            cursor.close();
+        }
+        if ((reminder != null) && (!mDb.inTransaction())) {
+            synchronized (reminders) {
+                if (generation.get() == readGeneration) {
+                    reminders.put(rowId, reminder);
+                }
+            }
+        }
+        return reminder;
+    }
 
-    private static RemindersDbAdapter instance;
-    private int openConnectionsCount = 0;
+    /**
+     * Removes a reminder from the cache after it has been written.
+     */
+    private void forgetReminder(long rowId) {
+        synchronized (reminders) {
+            generation.incrementAndGet();
+            reminders.remove(rowId);
+        }
+    }
 
-    // https://stackoverflow.com/questions/2493331/what-are-the-best-practices-for-sqlite-on-android
+    private void forgetAllReminders() {
+        synchronized (reminders) {
+            generation.incrementAndGet();
+            reminders.evictAll();
+        }
+    }
 
-    private static class DatabaseHelper extends SQLiteOpenHelper {
-        DatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    /**
+     * Releases the memory of the cache when the system asks for it. Called from
+     * {@link android.app.Application#onTrimMemory(int)}.
+     *
+     * @param level the level given by the system.
+     */
+    public void trimMemory(int level) {
+        if ((level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+                || ((level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) && (level < ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN))) {
+            forgetAllReminders();
         }
-        @Override
-        public void onCreate(SQLiteDatabase db) {
-            db.execSQL(DATABASE_CREATE);
+    }
+
+    /**
+     * Returns how many times a reminder has been found in the cache.
+     */
+    public int getCacheHitCount() {
+        return reminders.hitCount();
+    }
+
+    /**
+     * Returns how many times a reminder has been looked for in the cache and it wasn't there.
+     */
+    public int getCacheMissCount() {
+        return reminders.missCount();
+    }
+
+    @Override
+    public long createReminder(String title, String body, long
+            reminderDateTime) {
+        // Redundant information, for efficient filter by year and month.
+        int year = CivilDateCalculator.getYear(reminderDateTime);
+        int month = CivilDateCalculator.getMonth(reminderDateTime);
+
+        long rowId;
+        mDb.beginTransaction();
+        try {
+            SQLiteStatement statement = getStatement(INSERT_REMINDER_SQL);
+            synchronized (statement) {
+                statement.bindString(1, title);
+                statement.bindLong(2, RemindersDbAdapter.FIRST_ALARM_ID);
+                statement.bindLong(3, year);
+                statement.bindLong(4, month);
+                statement.bindLong(5, reminderDateTime);
+                rowId = statement.executeInsert();
+                statement.clearBindings();
+            }
+            if (rowId != -1) {
+                saveBody(rowId, body);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
         }
-        @Override
-        public void onUpgrade(SQLiteDatabase db, int oldVersion,
-                              int newVersion) {
-            // Not used, but you could upgrade the database with ALTER
-            // Scripts. Use only ALTER statements that don't delete the current user data!
+        if (rowId != -1) {
+            forgetReminder(rowId);
         }
+        return rowId;
     }
 
-    private RemindersDbAdapter(Context ctx) {
-        this.mCtx = ctx;
+    /**
+     * Saves the body of a reminder, replacing the previous one.
+     */
+    private void saveBody(long rowId, String body) {
+        SQLiteStatement statement = getStatement(SAVE_BODY_SQL);
+        synchronized (statement) {
+            statement.bindLong(1, rowId);
+            statement.bindString(2, body);
+            statement.executeInsert();
+            statement.clearBindings();
+        }
     }
 
-    public synchronized static RemindersDbAdapter getInstance(Context ctx) {
-        if (instance == null) {
-            instance = new RemindersDbAdapter(ctx);
-            instance.mDbHelper = new DatabaseHelper(ctx);
+    /**
+     * Fetches the body of a reminder. Bodies are not returned along with the rest of the reminder
+     * fields, they are only loaded when they are going to be shown.
+     *
+     * @param rowId the row identifier of the reminder.
+     * @return the body, or <code>null</code> if the reminder doesn't exist.
+     */
+    @Override
+    public String fetchReminderBody(long rowId) {
+        Cursor cursor = mDb.rawQuery(FETCH_BODY_SQL, new String[] {String.valueOf(rowId)});
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            } else {
+                return null;
+            }
+        } finally {
+            cursor.close();
         }
-        return instance;
     }
 
-    public synchronized void open() throws android.database.SQLException {
-        if (openConnectionsCount < 1) {
-            mDb = mDbHelper.getWritableDatabase();
-            Logger.log("Database opened");
-        } else {
-            Logger.log("Database needed. Connection open from " + (openConnectionsCount + 1) + " places.");
+    /**
+     * Deletes a reminder, whether it is in the reminders table or in the archive. It is only
+     * marked as deleted with the current time, see {@link #KEY_DELETED}: its alarm is left to the
+     * purge.
+     *
+     * @param rowId the row identifier of the reminder.
+     * @return <code>true</code> if the reminder existed and it wasn't deleted yet.
+     */
+    @Override
+    public boolean deleteReminder(long rowId) {
+        long now = System.currentTimeMillis();
+        try {
+            return tombstoneReminder(TOMBSTONE_REMINDER_SQL, rowId, now)
+                    || tombstoneReminder(TOMBSTONE_ARCHIVED_REMINDER_SQL, rowId, now);
+        } finally {
+            forgetReminder(rowId);
         }
-        openConnectionsCount++;
     }
 
-    public synchronized void close() {
-        openConnectionsCount--;
-        if (openConnectionsCount < 1) {
-            mDbHelper.close();
-            Logger.log("Database closed");
-        } else {
-            Logger.log("Database not needed any longer. Connection remains open from " + openConnectionsCount + " places.");
+    private boolean tombstoneReminder(String sql, long rowId, long now) {
+        SQLiteStatement statement = getStatement(sql);
+        synchronized (statement) {
+            statement.bindLong(1, now);
+            statement.bindLong(2, rowId);
+            return statement.executeUpdateDelete() > 0;
         }
     }
 
     /**
-     * Begins a database transaction: remember to finish it at the finally part of a try/catch/finally block.
+     * Runs one of the statements that change the deletion time of many reminders at once.
+     *
+     * @return the number of reminders changed.
      */
-    public void beginTransaction() {
-        this.mDb.beginTransaction();
+    private int updateDeletionTimes(String sql, long time) {
+        SQLiteStatement statement = getStatement(sql);
+        synchronized (statement) {
+            statement.bindLong(1, time);
+            return statement.executeUpdateDelete();
+        }
     }
 
     /**
-     * Commits the current transaction.
+     * Moves to the archive a batch of the notified reminders dated before the given moment, the
+     * oldest first. The moved reminders are still listed, searched and exported, but the queries
+     * of the alarms and of the boot don't go through them any longer.
+     *
+     * @param before milliseconds since the Epoch.
+     * @param batchSize maximum number of reminders to move.
+     * @return the number of reminders moved, less than the batch size when there are no more.
      */
-    public void setTransactionSuccessful() {
-        this.mDb.setTransactionSuccessful();
+    @Override
+    public int archiveNotifiedReminders(long before, int batchSize) {
+        long[] ids = archive.archiveNotifiedReminders(before, batchSize);
+        for (long id : ids) {
+            forgetReminder(id);
+        }
+        return ids.length;
     }
 
     /**
-     * Ends the current transaction.
+     * Returns the identifiers of all of the reminders that haven't been notified yet, which are
+     * the only ones that can still have an alarm set in the system.
+     *
+     * @return the identifiers.
      */
-    public void endTransaction() {
-        this.mDb.endTransaction();
+    @Override
+    public long[] fetchNotNotifiedReminderIds() {
+        Cursor cursor = mDb.rawQuery(FETCH_NOT_NOTIFIED_REMINDER_IDS_SQL, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            ReminderRow row = ROW_ID_MAPPER.newRow();
+            int index = 0;
+            while (cursor.moveToNext()) {
+                ids[index] = ROW_ID_MAPPER.read(cursor, row).rowId;
+                index++;
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
     }
 
-    public long createReminder(String title, String body, long
-            reminderDateTime) {
-        ContentValues initialValues = new ContentValues();
-        initialValues.put(KEY_TITLE, title);
-        initialValues.put(KEY_BODY, body);
-        initialValues.put(KEY_NOTIFIED, false);
-        initialValues.put(KEY_ALARM_ID, RemindersDbAdapter.FIRST_ALARM_ID);
-        initialValues.put(KEY_DATE_TIME, reminderDateTime);
+    /**
+     * Deletes ALL the reminders. Use it carefully ;) They are only marked as deleted with the
+     * current time, with one statement for each table, so it takes as long for many reminders as
+     * for a few, and it can be undone with {@link #undoDeletions(long)} until they are purged.
+     *
+     * @return true if there was at least 1 reminder deleted.
+     */
+    @Override
+    public boolean deleteAllReminders() {
+        long now = System.currentTimeMillis();
+        int deleted;
+        mDb.beginTransaction();
+        try {
+            deleted = updateDeletionTimes(TOMBSTONE_ALL_REMINDERS_SQL, now);
+            deleted += updateDeletionTimes(TOMBSTONE_ALL_ARCHIVED_REMINDERS_SQL, now);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            forgetAllReminders();
+        }
+        return deleted > 0;
+    }
 
-        // Redundant information, for efficient filter by year and month.
-        int[] yearAndMonth = this.getYearAndMonth(reminderDateTime);
-        initialValues.put(KEY_YEAR, yearAndMonth[0]);
-        initialValues.put(KEY_MONTH, yearAndMonth[1]);
+    /**
+     * Undoes the deletions made from the given moment on that haven't been purged yet.
+     *
+     * @param since milliseconds since the Epoch.
+     * @return the number of reminders that are back.
+     */
+    @Override
+    public int undoDeletions(long since) {
+        int restored;
+        mDb.beginTransaction();
+        try {
+            restored = updateDeletionTimes(UNDO_DELETIONS_SQL, since);
+            restored += updateDeletionTimes(UNDO_ARCHIVED_DELETIONS_SQL, since);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            forgetAllReminders();
+        }
+        return restored;
+    }
+
+    /**
+     * Removes for good a batch of the reminders deleted before the given moment, the first
+     * deleted first, along with their bodies and their search documents. Each reminder is handed
+     * to the visitor once the batch has been committed, so its alarm can be unset without keeping
+     * the write transaction open meanwhile; the visitor can't stop the batch.
+     *
+     * @param before milliseconds since the Epoch.
+     * @param batchSize maximum number of reminders to remove.
+     * @param visitor receives the reminders removed, without their bodies.
+     * @return the number of reminders removed, less than the batch size when there are no more.
+     */
+    @Override
+    public int purgeDeletedReminders(long before, int batchSize, ReminderVisitor visitor) {
+        List<ReminderRow> purged = new ArrayList<>();
+        mDb.beginTransaction();
+        try {
+            purgeDeletedReminders(false, before, batchSize, purged);
+            if (purged.size() < batchSize) {
+                purgeDeletedReminders(true, before, batchSize - purged.size(), purged);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        for (ReminderRow row : purged) {
+            visitor.visit(row.rowId, row.title, null, row.notified, row.alarmId, row.dateTime);
+        }
+        return purged.size();
+    }
 
-        return mDb.insert(DATABASE_TABLE, null, initialValues);
+    /**
+     * Removes a batch of the deleted reminders of one of the tables and adds them to the given
+     * list.
+     */
+    private void purgeDeletedReminders(boolean archived, long before, int batchSize, List<ReminderRow> purged) {
+        String sql;
+        if (archived) {
+            sql = FETCH_DELETED_ARCHIVED_REMINDERS_SQL;
+        } else {
+            sql = FETCH_DELETED_REMINDERS_SQL;
+        }
+        int first = purged.size();
+        StringBuilder idList = new StringBuilder();
+        Cursor cursor = mDb.rawQuery(sql + " limit " + batchSize, new String[] {String.valueOf(before)});
+        try {
+            while (cursor.moveToNext()) {
+                // Each row is kept until the visitor gets it, so it can't be reused.
+                ReminderRow row = DELETED_MAPPER.newRow();
+                DELETED_MAPPER.read(cursor, row);
+                if (purged.size() > first) {
+                    idList.append(',');
+                }
+                idList.append(row.rowId);
+                purged.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (purged.size() > first) {
+            mDb.execSQL("delete from " + getTable(archived) + " where " + KEY_ROWID + " in (" + idList + ")");
+        }
     }
-    public boolean deleteReminder(long rowId) {
-        return
-                mDb.delete(DATABASE_TABLE, KEY_ROWID + "=" + rowId, null) > 0;
+
+    /**
+     * Fetches the reminders of the given year and month ordered by date, for listing them,
+     * including the archived ones. Only the columns shown by the list are returned, so the query
+     * is covered by the indexes.
+     *
+     * @param filterYear the year.
+     * @param filterMonth the month, starting from 0.
+     * @return cursor with the identifier, title, date and notified flag of the reminders.
+     */
+    public Cursor fetchAllReminders(int filterYear, int filterMonth) {
+        return mDb.rawQuery(FETCH_REMINDERS_BY_MONTH_SQL,
+                new String[] {String.valueOf(filterYear), String.valueOf(filterMonth)});
     }
 
     /**
-     * Deletes ALL the database rows. Use it carefully ;)
+     * Fetches the reminders dated from the start of the given range, included, to its end, not
+     * included, ordered by date, including the archived ones.
      *
-     * @return true if there was at least 1 row erased.
+     * @param start start of the range as milliseconds since the Epoch.
+     * @param end end of the range as milliseconds since the Epoch.
+     * @param limit maximum number of reminders.
+     * @return cursor with the identifier, title, date and notified flag of the reminders.
      */
-    public boolean deleteAllReminders() {
-        return
-                mDb.delete(DATABASE_TABLE, null, null) > 0;
+    public Cursor fetchRemindersBetween(long start, long end, int limit) {
+        return mDb.rawQuery(FETCH_REMINDERS_BETWEEN_SQL + " limit " + limit,
+                new String[] {String.valueOf(start), String.valueOf(end)});
     }
 
-    public Cursor fetchAllReminders(int filterYear, int filterMonth) {
-        String filter = KEY_YEAR + " = " + filterYear + " AND " + KEY_MONTH + " = " + filterMonth;
-        return mDb.query(DATABASE_TABLE, new String[] {KEY_ROWID, KEY_TITLE,
-                KEY_BODY, KEY_NOTIFIED, KEY_ALARM_ID, KEY_DATE_TIME, KEY_YEAR, KEY_MONTH}, filter, null, null, null, KEY_DATE_TIME);
+    /**
+     * Fetches the first reminders that haven't been notified yet dated from the given moment on,
+     * ordered by date.
+     *
+     * @param from milliseconds since the Epoch.
+     * @param count maximum number of reminders.
+     * @return cursor with the identifier, title, date and notified flag of the reminders.
+     */
+    public Cursor fetchUpcomingReminders(long from, int count) {
+        return mDb.rawQuery(FETCH_UPCOMING_REMINDERS_SQL + " limit " + count,
+                new String[] {String.valueOf(from)});
+    }
+
+    /**
+     * Searches the reminders, including the archived ones, whose title or body have got words
+     * starting with every one of the words of the given text, using the full-text search index.
+     *
+     * @param text the text written by the user.
+     * @param limit maximum number of results.
+     * @return cursor with the identifier, title, date and notified flag of the found reminders,
+     * ordered by date, or <code>null</code> if the text has got no words to search.
+     */
+    public Cursor searchReminders(String text, int limit) {
+        String query = toFullTextQuery(text);
+        if (query == null) {
+            return null;
+        }
+        return mDb.rawQuery(SEARCH_SQL + " limit " + limit, new String[] {query});
+    }
+
+    /**
+     * Turns a text written by the user into a full-text search query where every word is searched
+     * as a prefix. Anything that isn't a letter or a digit separates words, so the user can't
+     * write query operators by mistake.
+     *
+     * @param text the text.
+     * @return the query, or <code>null</code> if the text has got no words.
+     */
+    static String toFullTextQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        int length = text.length();
+        int start = -1;
+        for (int index = 0; index <= length; index++) {
+            boolean wordCharacter = (index < length) && Character.isLetterOrDigit(text.charAt(index));
+            if (wordCharacter && (start < 0)) {
+                start = index;
+            } else if ((!wordCharacter) && (start >= 0)) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append('"').append(text, start, index).append("*\"");
+                start = -1;
+            }
+        }
+        if (query.length() == 0) {
+            return null;
+        }
+        return query.toString();
+    }
+
+    /**
+     * Fetches the first page of all of the reminders of the reminders table or of the archive,
+     * with all of their fields including the body, ordered by date and row identifier. The
+     * following pages are fetched with {@link #fetchRemindersPage(boolean, long, long, int)}.
+     *
+     * @param archived <code>true</code> for the archive.
+     * @param pageSize maximum number of reminders of the page.
+     * @return the cursor.
+     */
+    public Cursor fetchRemindersPage(boolean archived, int pageSize) {
+        return mDb.rawQuery(firstPageSql(archived) + " limit " + pageSize, null);
     }
 
     /**
-     * Fetches reminders doing pagination.
+     * Fetches the page of reminders that comes right after the given reminder, ordered by date and
+     * row identifier. The page is sought directly in the date index, so walking all of the
+     * reminders this way costs the same for every page no matter how far the walk has gone.
      *
-     * @param page the page, starting from 0.
+     * @param archived <code>true</code> for the archive.
+     * @param afterDateTime date of the last reminder of the previous page.
+     * @param afterRowId row identifier of the last reminder of the previous page.
+     * @param pageSize maximum number of reminders of the page.
      * @return the cursor.
      */
-    public Cursor fetchAllReminders(int page) {
-        return mDb.rawQuery(
-            "select * from " + DATABASE_TABLE + " order by " + KEY_DATE_TIME +
-            " limit " + RemindersDbAdapter.PAGE_SIZE +
-            " offset " + (page * RemindersDbAdapter.PAGE_SIZE), null
-        );
+    public Cursor fetchRemindersPage(boolean archived, long afterDateTime, long afterRowId, int pageSize) {
+        return mDb.rawQuery(nextPageSql(archived) + " limit " + pageSize,
+                new String[] {String.valueOf(afterDateTime), String.valueOf(afterRowId)});
+    }
+
+    private static String getTable(boolean archived) {
+        if (archived) {
+            return ARCHIVE_TABLE;
+        } else {
+            return DATABASE_TABLE;
+        }
     }
 
+    /**
+     * Returns the total number of reminders, adding up the counts by year and month, or counting
+     * the reminders while those are still being filled.
+     *
+     * @return the number of reminders.
+     */
+    @Override
     public int countAllReminders() {
-        Cursor mCount= mDb.rawQuery("select count(*) from " + DATABASE_TABLE, null);
+        Cursor mCount= mDb.rawQuery(monthCountsFilled ? COUNT_ALL_REMINDERS_SQL : COUNT_ALL_REMINDERS_UNFILLED_SQL, null);
         mCount.moveToFirst();
         int count = mCount.getInt(0);
         mCount.close();
         return count;
     }
 
+    /**
+     * Returns the number of reminders of every year and month that has got reminders, ordered by
+     * year and month (ascending). The count is the first column.
+     *
+     * @return the cursor.
+     */
     public Cursor fetchAllRemindersByYear() {
-        // Select year, group by year (avoid repetition), order by year (ascending).
-        return mDb.rawQuery("select count(*), " + KEY_YEAR + ", " + KEY_MONTH + " from " + DATABASE_TABLE + " GROUP BY " + KEY_YEAR + ", " + KEY_MONTH + " ORDER BY " + KEY_YEAR + ", " + KEY_MONTH, null);
+        return mDb.rawQuery(monthCountsFilled ? FETCH_MONTH_COUNTS_SQL : FETCH_MONTH_COUNTS_UNFILLED_SQL, null);
     }
 
     /**
-     * Returns all reminders that haven't been notified to the user, yet.
+     * Returns all reminders that haven't been notified to the user, yet, ordered by date, so the
+     * past ones come first and then the future ones. Only the not notified reminders are read,
+     * and the archive is never read, as it only has got notified reminders.
      * @return all reminders that haven't been notified to the user, yet.
      */
     public Cursor fetchAllNotNotifiedReminders() {
-        return mDb.query(DATABASE_TABLE, new String[] {KEY_ROWID, KEY_TITLE,
-                KEY_BODY, KEY_NOTIFIED, KEY_ALARM_ID, KEY_DATE_TIME}, KEY_NOTIFIED + "= 0", null, null, null, null);
+        return mDb.rawQuery(FETCH_NOT_NOTIFIED_REMINDERS_SQL, null);
+    }
+
+    @Override
+    public void visitNotNotifiedReminders(ReminderVisitor visitor) {
+        Cursor cursor = fetchAllNotNotifiedReminders();
+        try {
+            ReminderRow row = NOT_NOTIFIED_MAPPER.newRow();
+            while (cursor.moveToNext()) {
+                NOT_NOTIFIED_MAPPER.read(cursor, row);
+                if (!visitor.visit(row.rowId, row.title, null, false, row.alarmId, row.dateTime)) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the titles of the first past reminders and then marks all of them with a single
+     * statement, in a transaction, instead of updating them one by one. SQLite can't return the
+     * rows that an update changes on the versions that come with the older phones.
+     */
+    @Override
+    public int markPastRemindersNotified(long before, int maxTitles, List<String> titles) {
+        int marked;
+        mDb.beginTransaction();
+        try {
+            Cursor cursor = mDb.rawQuery(FETCH_PAST_REMINDERS_SQL + " limit " + maxTitles,
+                    new String[] {String.valueOf(before)});
+            try {
+                ReminderRow row = NOT_NOTIFIED_MAPPER.newRow();
+                while (cursor.moveToNext()) {
+                    titles.add(NOT_NOTIFIED_MAPPER.read(cursor, row).title);
+                }
+            } finally {
+                cursor.close();
+            }
+            SQLiteStatement statement = getStatement(MARK_PAST_REMINDERS_NOTIFIED_SQL);
+            synchronized (statement) {
+                statement.bindLong(1, before);
+                marked = statement.executeUpdateDelete();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            forgetAllReminders();
+        }
+        return marked;
+    }
+
+    @Override
+    public void visitNotNotifiedRemindersAfter(long dateTime, long rowId, int limit, ReminderVisitor visitor) {
+        Cursor cursor = mDb.rawQuery(FETCH_NOT_NOTIFIED_REMINDERS_AFTER_SQL + " limit " + limit,
+                new String[] {String.valueOf(dateTime), String.valueOf(rowId)});
+        try {
+            ReminderRow row = NOT_NOTIFIED_MAPPER.newRow();
+            while (cursor.moveToNext()) {
+                NOT_NOTIFIED_MAPPER.read(cursor, row);
+                if (!visitor.visit(row.rowId, row.title, null, false, row.alarmId, row.dateTime)) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void visitDueReminders(long until, ReminderVisitor visitor) {
+        Cursor cursor = mDb.rawQuery(FETCH_DUE_REMINDERS_SQL, new String[] {String.valueOf(until)});
+        try {
+            ReminderRow row = NOT_NOTIFIED_MAPPER.newRow();
+            while (cursor.moveToNext()) {
+                NOT_NOTIFIED_MAPPER.read(cursor, row);
+                if (!visitor.visit(row.rowId, row.title, null, false, row.alarmId, row.dateTime)) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public long fetchNextReminderDateTime() {
+        SQLiteStatement statement = getStatement(FETCH_NEXT_REMINDER_DATE_TIME_SQL);
+        synchronized (statement) {
+            return statement.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * Walks the reminders table and then the archive, page by page.
+     */
+    @Override
+    public void visitAllReminders(ReminderVisitor visitor) {
+        if (visitAllReminders(false, visitor)) {
+            visitAllReminders(true, visitor);
+        }
+    }
+
+    /**
+     * Walks all of the reminders of a table page by page.
+     *
+     * @return <code>false</code> if the visitor stopped the walk.
+     */
+    private boolean visitAllReminders(boolean archived, ReminderVisitor visitor) {
+        Cursor cursor = fetchRemindersPage(archived, PAGE_SIZE);
+        ReminderRow row = PAGE_MAPPER.newRow();
+        while (cursor.moveToFirst()) {
+            try {
+                do {
+                    PAGE_MAPPER.read(cursor, row);
+                    if (!visitor.visit(row.rowId, row.title, row.body, row.notified, row.alarmId, row.dateTime)) {
+                        return false;
+                    }
+                } while (cursor.moveToNext());
+            } finally {
+                cursor.close();
+            }
+            cursor = fetchRemindersPage(archived, row.dateTime, row.rowId, PAGE_SIZE);
+        }
+        cursor.close();
+        return true;
     }
 
+    @Override
+    public void visitMonthCounts(MonthCountVisitor visitor) {
+        Cursor cursor = fetchAllRemindersByYear();
+        try {
+            MonthCountRow row = MONTH_COUNT_MAPPER.newRow();
+            while (cursor.moveToNext()) {
+                MONTH_COUNT_MAPPER.read(cursor, row);
+                visitor.visit(row.year, row.month, row.count);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Fetches a reminder, whether it is in the reminders table or in the archive.
+     *
+     * @param rowId the row identifier of the reminder.
+     * @return cursor placed on the reminder, if it exists.
+     */
     public Cursor fetchReminder(long rowId) throws SQLException {
-        Cursor mCursor =
-                mDb.query(true, DATABASE_TABLE, new String[] {KEY_ROWID,
-                        KEY_TITLE, KEY_BODY, KEY_NOTIFIED, KEY_ALARM_ID, KEY_DATE_TIME}, KEY_ROWID + "=" +
-                rowId, null,
-                null, null, null, null);
+        Cursor mCursor = mDb.rawQuery(FETCH_REMINDER_SQL, new String[] {String.valueOf(rowId)});
         if (mCursor != null) {
             mCursor.moveToFirst();
         }
         return mCursor;
     }
 
+    /**
+     * Updates a reminder and marks it as not notified. An archived reminder is moved back to the
+     * reminders table first.
+     */
+    @Override
     public boolean updateReminder(long rowId, String title, String body, long
             reminderDateTime, long alarmId) {
-        ContentValues args = new ContentValues();
-        args.put(KEY_TITLE, title);
-        args.put(KEY_BODY, body);
-        args.put(KEY_NOTIFIED, 0);
-        args.put(KEY_ALARM_ID, alarmId);
-        args.put(KEY_DATE_TIME, reminderDateTime);
-
         // Redundant information, for efficient filter by year and month.
-        int[] yearAndMonth = this.getYearAndMonth(reminderDateTime);
-        args.put(KEY_YEAR, yearAndMonth[0]);
-        args.put(KEY_MONTH, yearAndMonth[1]);
+        int year = CivilDateCalculator.getYear(reminderDateTime);
+        int month = CivilDateCalculator.getMonth(reminderDateTime);
+
+        boolean updated;
+        mDb.beginTransaction();
+        try {
+            updated = updateReminder(rowId, title, year, month, reminderDateTime, alarmId);
+            if ((!updated) && (archive.restoreReminder(rowId))) {
+                updated = updateReminder(rowId, title, year, month, reminderDateTime, alarmId);
+            }
+            if (updated) {
+                saveBody(rowId, body);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            forgetReminder(rowId);
+        }
+        return updated;
+    }
 
-        return
-                mDb.update(DATABASE_TABLE, args, KEY_ROWID + "=" + rowId, null) > 0;
+    private boolean updateReminder(long rowId, String title, int year, int month, long reminderDateTime, long alarmId) {
+        SQLiteStatement statement = getStatement(UPDATE_REMINDER_SQL);
+        synchronized (statement) {
+            statement.bindString(1, title);
+            statement.bindLong(2, alarmId);
+            statement.bindLong(3, year);
+            statement.bindLong(4, month);
+            statement.bindLong(5, reminderDateTime);
+            statement.bindLong(6, rowId);
+            boolean updated = statement.executeUpdateDelete() > 0;
+            statement.clearBindings();
+            return updated;
+        }
     }
 
+    @Override
     public boolean updateReminder(long rowId, boolean notified) {
-        ContentValues args = new ContentValues();
         int notifiedAsInt;
         if (notified) {
             notifiedAsInt = 1;
         } else {
             notifiedAsInt = 0;
         }
-        args.put(KEY_NOTIFIED, notifiedAsInt);
-        return
-                mDb.update(DATABASE_TABLE, args, KEY_ROWID + "=" + rowId, null) > 0;
-    }
-
-    private int[] getYearAndMonth(long millis) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(new Date(millis));
-        return new int[]{calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH)};
+        SQLiteStatement statement = getStatement(UPDATE_NOTIFIED_SQL);
+        try {
+            synchronized (statement) {
+                statement.bindLong(1, notifiedAsInt);
+                statement.bindLong(2, rowId);
+                return statement.executeUpdateDelete() > 0;
+            }
+        } finally {
+            forgetReminder(rowId);
+        }
     }
 }
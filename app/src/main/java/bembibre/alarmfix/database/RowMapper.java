@@ -0,0 +1,68 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+
+/**
+ * Reads the rows of one of the projections of {@link RemindersDbAdapter} into a row object that is
+ * reused for every row. The columns of a projection are always the same and in the same order, so
+ * their indices are looked up by name only once, with the first cursor read, and then every cell
+ * is read by its index as the primitive type of its column, instead of looking the columns up for
+ * every cursor and parsing the cells.
+ *
+ * A mapper can only read the cursors of the queries of its own projection. It keeps no state but
+ * the indices, so the same mapper can be used by any thread, each one with its own row object.
+ *
+ * @param <R> the type of the row object.
+ */
+public abstract class RowMapper<R> {
+
+    private final String[] columns;
+
+    /**
+     * Indices of the columns, in the order in which they were given, or <code>null</code> until
+     * the first cursor is read. Two threads can look them up at once, they just get the same.
+     */
+    private volatile int[] indices;
+
+    /**
+     * @param columns names of the columns of the projection that the mapper reads.
+     */
+    protected RowMapper(String... columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Creates a row object for reading the rows into it.
+     */
+    public abstract R newRow();
+
+    /**
+     * Reads the row where the cursor is placed.
+     *
+     * @param cursor cursor of one of the queries of the projection.
+     * @param row row object that gets the values of the row.
+     * @return the row object.
+     */
+    public final R read(Cursor cursor, R row) {
+        int[] indices = this.indices;
+        if (indices == null) {
+            indices = new int[columns.length];
+            for (int index = 0; index < columns.length; index++) {
+                indices[index] = cursor.getColumnIndexOrThrow(columns[index]);
+            }
+            this.indices = indices;
+        }
+        read(cursor, indices, row);
+        return row;
+    }
+
+    /**
+     * Copies the cells of the row where the cursor is placed into the row object.
+     *
+     * @param cursor the cursor.
+     * @param indices indices of the columns, in the order in which they were given to the
+     *                constructor.
+     * @param row the row object.
+     */
+    protected abstract void read(Cursor cursor, int[] indices, R row);
+}
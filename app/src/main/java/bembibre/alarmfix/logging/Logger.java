@@ -139,6 +139,41 @@ public class Logger {
         return currentFile;
     }
 
+    /**
+     * Deletes the log files older than the preserved ones. This is otherwise only done when a new
+     * file is started, so files left behind by an interrupted rotation would never go away.
+     *
+     * @return the bytes freed.
+     */
+    synchronized public static long pruneOldFiles() {
+        File logsDirectory = Logger.getLogsDirectory();
+        if (logsDirectory == null) {
+            return 0;
+        }
+        File[] files = logsDirectory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        List<String> names = new ArrayList<>();
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+        long freed = 0;
+        int top = names.size() - Logger.PRESERVED_FILES;
+        for (int index = 0; index < top; index++) {
+            File file = new File(logsDirectory, names.get(index));
+            long length = file.length();
+            if (file.delete()) {
+                freed += length;
+            }
+        }
+
+        // Listed again the next time a file is started.
+        Logger.managedFiles = null;
+        return freed;
+    }
+
     private static String getLogPrefix() {
         return "[" + Logger.DATE_FORMAT.format(new Date()) + "] ";
     }
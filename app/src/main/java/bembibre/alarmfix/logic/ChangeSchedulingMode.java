@@ -0,0 +1,37 @@
+package bembibre.alarmfix.logic;
+
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.widget.Toast;
+
+import bembibre.alarmfix.R;
+import bembibre.alarmfix.ReminderListActivity;
+import bembibre.alarmfix.alarms.SchedulingMode;
+import bembibre.alarmfix.core.SynchronizedWork;
+import bembibre.alarmfix.userinterface.UserInterfaceUtils;
+
+/**
+ * This class changes the way in which the alarms of the reminders are set, which sets again the
+ * alarms of all the reminders that haven't been notified yet.
+ */
+public class ChangeSchedulingMode extends AsyncTask<SchedulingMode, Void, Integer> {
+
+    private ReminderListActivity activity;
+
+    public ChangeSchedulingMode(ReminderListActivity activity) {
+        this.activity = activity;
+    }
+
+    protected Integer doInBackground(SchedulingMode... params) {
+        return SynchronizedWork.changeSchedulingMode(activity, params[0]);
+    }
+
+    protected void onPostExecute(@NonNull Integer failures) {
+        if (failures == 0) {
+            Toast.makeText(this.activity, this.activity.getResources().getString(R.string.scheduling_changed), Toast.LENGTH_SHORT).show();
+        } else {
+            UserInterfaceUtils.showSimpleInformationDialog(this.activity,
+                    this.activity.getResources().getString(R.string.scheduling_failure, failures));
+        }
+    }
+}
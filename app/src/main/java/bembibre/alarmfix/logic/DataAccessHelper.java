@@ -4,12 +4,10 @@ package bembibre.alarmfix.logic;
  * Created by Max Power on 14/12/2017.
  */
 
-import android.database.Cursor;
-
 import java.util.ArrayList;
 import java.util.List;
 
-import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.database.ReminderStore;
 import bembibre.alarmfix.models.YearsMonthsAndReminders;
 
 /**
@@ -17,27 +15,20 @@ import bembibre.alarmfix.models.YearsMonthsAndReminders;
  */
 public class DataAccessHelper {
 
-    private RemindersDbAdapter dbAdapter;
+    private ReminderStore dbAdapter;
 
-    public DataAccessHelper(RemindersDbAdapter dbAdapter) {
+    public DataAccessHelper(ReminderStore dbAdapter) {
         this.dbAdapter = dbAdapter;
     }
 
     public YearsMonthsAndReminders getAllReminderYears() {
-        YearsMonthsAndReminders years = new YearsMonthsAndReminders();
-        Cursor cursor = this.dbAdapter.fetchAllRemindersByYear();
-        if (cursor != null) {
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                int count = cursor.getInt(0);
-                int year = cursor.getInt(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_YEAR));
-                int month = cursor.getInt(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_MONTH));
-                System.out.println(year + ", " + month + ": " + count);
+        final YearsMonthsAndReminders years = new YearsMonthsAndReminders();
+        this.dbAdapter.visitMonthCounts(new ReminderStore.MonthCountVisitor() {
+            @Override
+            public void visit(int year, int month, int count) {
                 years.add(year, month, count);
-                cursor.moveToNext();
             }
-            cursor.close();
-        }
+        });
         return years;
     }
 }
@@ -1,11 +1,10 @@
 package bembibre.alarmfix.logic;
 
-import android.app.ProgressDialog;
-import android.content.Context;
 import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 
 import bembibre.alarmfix.R;
+import bembibre.alarmfix.ReminderListActivity;
 import bembibre.alarmfix.core.SynchronizedWork;
 import bembibre.alarmfix.userinterface.UserInterfaceUtils;
 
@@ -14,61 +13,37 @@ import bembibre.alarmfix.userinterface.UserInterfaceUtils;
  */
 
 /**
- * This class can delete all reminders at once.
+ * This class can delete all reminders at once. The reminders are only marked as deleted, with a
+ * single statement, so there is no progress to show, and the user can undo it from the list for
+ * a while.
  */
-public class DeleteAllReminders extends AsyncTask<Void, Float, Boolean> {
+public class DeleteAllReminders extends AsyncTask<Void, Void, Boolean> {
 
-    private Context context;
+    private ReminderListActivity activity;
 
     /**
-     * This informs the user of the progress.
+     * When the deletion started, for undoing it.
      */
-    private ProgressDialog dialog;
+    private long since;
 
-    public DeleteAllReminders(Context context) {
-        this.context = context;
-        dialog = new ProgressDialog(context);
-        dialog.setMessage(context.getResources().getString(R.string.deleting_message));
-        dialog.setTitle(context.getResources().getString(R.string.progress));
-        dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-        dialog.setCancelable(false);
-    }
-
-    /**
-     * The method for publishing progress made publicly available for making it be able to be called
-     * from our synchronized thread-safe context.
-     *
-     * @param progress
-     */
-    public void publishProgressFromOutside(float progress) {
-        this.publishProgress(progress);
+    public DeleteAllReminders(ReminderListActivity activity) {
+        this.activity = activity;
     }
 
     protected void onPreExecute() {
-        dialog.setProgress(0);
-        dialog.setMax(100);
-
-        // Show the dialog when the task begins.
-        dialog.show();
+        this.since = System.currentTimeMillis();
     }
 
     protected Boolean doInBackground(Void... params) {
-        return SynchronizedWork.deleteAllData(context, this);
-    }
-
-    protected void onProgressUpdate(Float... valores) {
-        int p = Math.round(100 * valores[0]);
-        dialog.setProgress(p);
+        return SynchronizedWork.deleteAllData(activity);
     }
 
     protected void onPostExecute(@NonNull Boolean success) {
-        dialog.dismiss();
-        String message;
         if (success) {
-            message = this.context.getResources().getString(R.string.delete_success);
+            this.activity.remindersDeleted(this.since);
         } else {
-            message = this.context.getResources().getString(R.string.delete_failure);
+            UserInterfaceUtils.showSimpleInformationDialog(this.activity,
+                    this.activity.getResources().getString(R.string.delete_failure));
         }
-        UserInterfaceUtils.showSimpleInformationDialog(this.context, message);
     }
 }
@@ -0,0 +1,44 @@
+package bembibre.alarmfix.logic;
+
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+
+import bembibre.alarmfix.R;
+import bembibre.alarmfix.ReminderListActivity;
+import bembibre.alarmfix.database.RemindersDbAdapter;
+import bembibre.alarmfix.logging.Logger;
+import bembibre.alarmfix.userinterface.UserInterfaceUtils;
+
+/**
+ * Opens the database for the list when the application hasn't done it yet, which only takes a
+ * while the first time after an update that upgrades the database. The list is loaded once it is
+ * open, and until then it says that the database is being updated.
+ */
+public class StartDatabase extends AsyncTask<Void, Void, Boolean> {
+
+    private ReminderListActivity activity;
+
+    public StartDatabase(ReminderListActivity activity) {
+        this.activity = activity;
+    }
+
+    protected Boolean doInBackground(Void... params) {
+        try {
+            // Waits for the start made by the application, if it is still running.
+            RemindersDbAdapter.getInstance(this.activity).start();
+            return true;
+        } catch (Exception e) {
+            Logger.log("The database could not be opened for the list.", e);
+            return false;
+        }
+    }
+
+    protected void onPostExecute(@NonNull Boolean success) {
+        if (success) {
+            this.activity.databaseReady();
+        } else {
+            UserInterfaceUtils.showSimpleInformationDialog(this.activity,
+                    this.activity.getResources().getString(R.string.database_failure));
+        }
+    }
+}
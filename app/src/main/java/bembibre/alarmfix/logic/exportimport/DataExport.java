@@ -2,7 +2,6 @@ package bembibre.alarmfix.logic.exportimport;
 
 import android.app.ProgressDialog;
 import android.content.Context;
-import android.database.Cursor;
 import android.os.AsyncTask;
 
 import org.json.JSONArray;
@@ -13,6 +12,7 @@ import java.io.File;
 import java.util.Calendar;
 
 import bembibre.alarmfix.R;
+import bembibre.alarmfix.database.ReminderStore;
 import bembibre.alarmfix.database.RemindersDbAdapter;
 import bembibre.alarmfix.logging.Logger;
 import bembibre.alarmfix.storage.Storage;
@@ -79,40 +79,16 @@ public class DataExport extends AsyncTask<Void, Float, Boolean> {
 
     protected Boolean doInBackground(Void... params) {
         boolean result;
-        RemindersDbAdapter dbHelper = RemindersDbAdapter.getInstance(this.context);
+        ReminderStore dbHelper = RemindersDbAdapter.getInstance(this.context);
         dbHelper.open();
-        int page = 0;
         JSONArray reminders = new JSONArray();
-        JSONObject reminder;
         try {
-            long totalReminders = dbHelper.countAllReminders();
-            Cursor cursor = dbHelper.fetchAllReminders(page);
-            long processedReminders = 0;
-            while ((cursor != null) && (cursor.moveToFirst())) {
-                do {
-                    String title = cursor.getString(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_TITLE));
-                    String body = cursor.getString(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_BODY));
-                    Long dateTime = cursor.getLong(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_DATE_TIME));
-                    int notified = cursor.getInt(cursor.getColumnIndexOrThrow(RemindersDbAdapter.KEY_NOTIFIED));
-                    boolean notifiedBoolean;
-                    notifiedBoolean = notified == 1;
-                    reminder = new JSONObject();
-                    reminder.put("title", title);
-                    reminder.put("body", body);
-                    reminder.put("date_time", dateTime);
-                    reminder.put("notified", notifiedBoolean);
-                    reminders.put(reminder);
-                    processedReminders++;
-
-                    publishProgress(((float) processedReminders) / totalReminders / 10 * 8);
-                } while (cursor.moveToNext());
-                cursor.close();
-                page++;
-                cursor = dbHelper.fetchAllReminders(page);
+            ExportVisitor visitor = new ExportVisitor(reminders, dbHelper.countAllReminders());
+            dbHelper.visitAllReminders(visitor);
+            if (visitor.failure != null) {
+                Logger.log("JSON encoding wrong programmed", visitor.failure);
+                reminders = null;
             }
-        } catch (JSONException e) {
-            Logger.log("JSON encoding wrong programmed", e);
-            reminders = null;
         } finally {
             dbHelper.close();
         }
@@ -140,6 +116,41 @@ public class DataExport extends AsyncTask<Void, Float, Boolean> {
         return result;
     }
 
+    /**
+     * Adds to an array every reminder that it visits, publishing the progress. If a reminder
+     * can't be encoded the walk is stopped and the exception is kept.
+     */
+    private class ExportVisitor implements ReminderStore.ReminderVisitor {
+        private final JSONArray reminders;
+        private final long totalReminders;
+        private long processedReminders = 0;
+        private JSONException failure = null;
+
+        private ExportVisitor(JSONArray reminders, long totalReminders) {
+            this.reminders = reminders;
+            this.totalReminders = totalReminders;
+        }
+
+        @Override
+        public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+            JSONObject reminder = new JSONObject();
+            try {
+                reminder.put("title", title);
+                reminder.put("body", body);
+                reminder.put("date_time", dateTime);
+                reminder.put("notified", notified);
+            } catch (JSONException e) {
+                failure = e;
+                return false;
+            }
+            reminders.put(reminder);
+            processedReminders++;
+
+            publishProgress(((float) processedReminders) / totalReminders / 10 * 8);
+            return true;
+        }
+    }
+
     protected void onProgressUpdate(Float... valores) {
         int p = Math.round(100 * valores[0]);
         dialog.setProgress(p);
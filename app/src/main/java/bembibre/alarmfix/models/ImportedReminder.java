@@ -3,9 +3,6 @@ package bembibre.alarmfix.models;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Calendar;
-import java.util.Date;
-
 /**
  * Created by Max Power on 13/12/2017.
  */
@@ -13,13 +10,12 @@ import java.util.Date;
 public class ImportedReminder {
     private String title;
     private String body;
-    private Calendar calendar;
+    private long dateTime;
 
     public ImportedReminder(JSONObject jsonReminder) throws JSONException {
         title = jsonReminder.getString("title");
         body = jsonReminder.getString("body");
-        calendar = Calendar.getInstance();
-        calendar.setTime(new Date(jsonReminder.getLong("date_time")));
+        dateTime = jsonReminder.getLong("date_time");
     }
 
     public String getTitle() {
@@ -30,7 +26,10 @@ public class ImportedReminder {
         return body;
     }
 
-    public Calendar getCalendar() {
-        return calendar;
+    /**
+     * Date and time of the reminder as milliseconds since the Epoch.
+     */
+    public long getDateTime() {
+        return dateTime;
     }
 }
@@ -0,0 +1,54 @@
+package bembibre.alarmfix.models;
+
+/**
+ * Immutable copy of the fields of a reminder as they were in the database when it was read,
+ * except for the body, which is loaded on its own. Being immutable, the same object can be handed
+ * to every thread that asks for the reminder.
+ */
+public class ReminderSnapshot {
+    private final long rowId;
+    private final String title;
+    private final boolean notified;
+    private final long alarmId;
+    private final long dateTime;
+    private final boolean archived;
+
+    public ReminderSnapshot(long rowId, String title, boolean notified, long alarmId, long dateTime, boolean archived) {
+        this.rowId = rowId;
+        this.title = title;
+        this.notified = notified;
+        this.alarmId = alarmId;
+        this.dateTime = dateTime;
+        this.archived = archived;
+    }
+
+    public long getRowId() {
+        return rowId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public boolean isNotified() {
+        return notified;
+    }
+
+    public long getAlarmId() {
+        return alarmId;
+    }
+
+    /**
+     * Date and time of the reminder as milliseconds since the Epoch.
+     */
+    public long getDateTime() {
+        return dateTime;
+    }
+
+    /**
+     * Whether the reminder is in the archive, so it can't have an alarm.
+     */
+    public boolean isArchived() {
+        return archived;
+    }
+}
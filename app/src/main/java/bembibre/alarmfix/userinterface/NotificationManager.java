@@ -29,6 +29,11 @@ public class NotificationManager {
     private static final String CHANNEL_ONE_NAME = "Channel One";
     private static final String NOTIFICATION_CHANNEL_DESCRIPTION = "The notification channel for Alarm Fix.";
 
+    /**
+     * Maximum number of titles shown in the notification for multiple reminders.
+     */
+    public static final int MAX_TITLES = 10;
+
     private Context context;
 
     public NotificationManager(Context context) {
@@ -52,19 +57,23 @@ public class NotificationManager {
     /**
      * Makes a notification for multiple reminders.
      *
-     * @param reminderTitles the titles.
+     * @param reminderTitles the titles of the first of them, at most {@link #MAX_TITLES}.
+     * @param remindersNumber the number of reminders, which can be more than the titles.
      *
      * @throws Exception when Android refuses to give access to the notifications service.
      */
-    public void notifyMultipleReminders(Iterable<String> reminderTitles) throws Exception {
+    public void notifyMultipleReminders(Iterable<String> reminderTitles, int remindersNumber) throws Exception {
         StringBuilder notificationBody = new StringBuilder();
-        int remindersNumber = 0;
+        int titlesNumber = 0;
         for (String title : reminderTitles) {
-            if (remindersNumber > 0) {
+            if (titlesNumber > 0) {
                 notificationBody.append("\n");
             }
             notificationBody.append(title);
-            remindersNumber++;
+            titlesNumber++;
+        }
+        if (remindersNumber > titlesNumber) {
+            notificationBody.append("\n\u2026");
         }
         if (remindersNumber > 0) {
             int string;
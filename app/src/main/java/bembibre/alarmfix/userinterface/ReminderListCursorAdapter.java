@@ -17,6 +17,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import bembibre.alarmfix.R;
+import bembibre.alarmfix.database.ReminderRow;
 import bembibre.alarmfix.database.RemindersDbAdapter;
 import bembibre.alarmfix.utils.GeneralUtils;
 
@@ -29,56 +30,55 @@ import bembibre.alarmfix.utils.GeneralUtils;
  */
 public class ReminderListCursorAdapter extends SimpleCursorAdapter {
 
-    private String dateFormat;
+    private final DateFormat dateFormat;
+
+    /**
+     * Row into which every row of the cursor is read while it is bound.
+     */
+    private final ReminderRow row = RemindersDbAdapter.LIST_MAPPER.newRow();
 
     public ReminderListCursorAdapter(Context context, int layout, Cursor c, String[] from, int[] to) {
         super(context, layout, c, from, to);
-        this.dateFormat = context.getResources().getString(R.string.date_time_readable_format);
+        this.dateFormat = new SimpleDateFormat(context.getResources().getString(R.string.date_time_readable_format));
     }
 
+    /**
+     * Binds the row with the mapper of the list, which reads the date and the notified flag as
+     * numbers instead of reading them as text and parsing them back.
+     */
     @Override
-    public void setViewText(TextView v, String text) {
-        if (v.getId() == R.id.text2) { // Make sure it matches your time field
-            // Special date formatting for the field that shows the reminder date.
-
-            DateFormat dateFormat = new SimpleDateFormat(this.dateFormat);
-            // You may want to try/catch with NumberFormatException in case `text` is not a numeric value
-            text = dateFormat.format(new Date(Long.parseLong(text)));
-        } else if (v.getId() == R.id.text3) {
-            /*
-             * Special format for the field that shows if the reminder has already been notified.
-             * For sake of coolness, the whole list item background gets changed.
-             */
-
-            boolean notified;
-            if ("0".equals(text)) {
-                notified = false;
-            } else if ("1".equals(text)) {
-                notified = true;
-            } else {
-                throw new RuntimeException("Application wrong programmed. The notified field of a reminder must not have got any value other than 0 or 1.");
-            }
+    public void bindView(View view, Context context, Cursor cursor) {
+        RemindersDbAdapter.LIST_MAPPER.read(cursor, row);
+        ((TextView) view.findViewById(R.id.text1)).setText(row.getTitle());
+        ((TextView) view.findViewById(R.id.text2)).setText(dateFormat.format(new Date(row.getDateTime())));
+        setNotifiedText((TextView) view.findViewById(R.id.text3), row.isNotified());
+    }
 
-            /*
-             * Some trickery.
-             * FrameLayout extends Viewgroup extends View
-             * LinearLayout extends Viewgroup extends View
-             * ViewGroup implements ViewParent
-             *
-             * In my case my ViewParent objects are FrameLayout or LinearLayout. They also can be
-             * seen as View objects for simplicity sake.
-             */
-            ViewParent parent = v.getParent();
-            View notifiedTextViewContainer = ((View)parent);
-            View topContainer = (View)notifiedTextViewContainer.getParent();
+    /**
+     * Special format for the field that shows if the reminder has already been notified. For sake
+     * of coolness, the whole list item background gets changed.
+     */
+    private void setNotifiedText(TextView v, boolean notified) {
+        /*
+         * Some trickery.
+         * FrameLayout extends Viewgroup extends View
+         * LinearLayout extends Viewgroup extends View
+         * ViewGroup implements ViewParent
+         *
+         * In my case my ViewParent objects are FrameLayout or LinearLayout. They also can be
+         * seen as View objects for simplicity sake.
+         */
+        ViewParent parent = v.getParent();
+        View notifiedTextViewContainer = ((View)parent);
+        View topContainer = (View)notifiedTextViewContainer.getParent();
 
-            if (notified) {
-                text = v.getResources().getString(R.string.notified);
-                topContainer.setBackgroundColor(v.getResources().getColor(R.color.notifiedReminder));
-            } else {
-                text = v.getResources().getString(R.string.not_notified);
-                topContainer.setBackgroundColor(v.getResources().getColor(R.color.notNotifiedReminder));
-            }
+        String text;
+        if (notified) {
+            text = v.getResources().getString(R.string.notified);
+            topContainer.setBackgroundColor(v.getResources().getColor(R.color.notifiedReminder));
+        } else {
+            text = v.getResources().getString(R.string.not_notified);
+            topContainer.setBackgroundColor(v.getResources().getColor(R.color.notNotifiedReminder));
         }
         v.setText(text);
     }
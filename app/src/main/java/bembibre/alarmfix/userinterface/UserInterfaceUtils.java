@@ -129,6 +129,31 @@ public class UserInterfaceUtils {
                 .show();
     }
 
+    /**
+     * Shows a dialog for choosing one of several options, which is closed as soon as one is
+     * chosen, or with the back button if the user doesn't want to choose.
+     *
+     * @param context      application context.
+     * @param itemIds      resource identifiers of the options.
+     * @param checkedItem  index of the option that is chosen now.
+     * @param whatToDo     action that will be done with the index of the chosen option.
+     */
+    public static void showSingleChoiceDialog(Context context, int[] itemIds, int checkedItem, final DialogInterface.OnClickListener whatToDo) {
+        String[] items = new String[itemIds.length];
+        for (int index = 0; index < itemIds.length; index++) {
+            items[index] = context.getResources().getString(itemIds[index]);
+        }
+        new AlertDialog.Builder(context)
+                .setSingleChoiceItems(items, checkedItem, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        whatToDo.onClick(dialog, which);
+                    }
+                })
+                .show();
+    }
+
     /**
      * Shows a simple alert dialog that makes an action when the user clicks the OK button.
      *
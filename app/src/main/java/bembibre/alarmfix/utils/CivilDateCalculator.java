@@ -0,0 +1,122 @@
+package bembibre.alarmfix.utils;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Turns instants, as milliseconds since the Epoch, into the year and month that they have got in
+ * the time zone of the phone, without allocating anything.
+ *
+ * The first instant of every month of a range of years is computed once for the current time
+ * zone and kept in a table, so finding the month of an instant is a binary search in that table.
+ * Instants outside of the range are computed with a {@link Calendar}. The table must be thrown
+ * away with {@link #invalidate()} when the time zone of the phone changes.
+ */
+public final class CivilDateCalculator {
+
+    /**
+     * First year of the table.
+     */
+    private static final int FIRST_YEAR = 1970;
+
+    /**
+     * Number of years of the table.
+     */
+    private static final int YEARS = 200;
+
+    private static final int MONTHS = YEARS * 12;
+
+    /**
+     * First instant of each month of the table, plus the first instant after the last month.
+     */
+    private static volatile long[] monthStarts;
+
+    private CivilDateCalculator() {
+    }
+
+    /**
+     * Returns the year of the given instant in the time zone of the phone.
+     *
+     * @param millis milliseconds since the Epoch.
+     * @return the year.
+     */
+    public static int getYear(long millis) {
+        int month = getMonthIndex(millis);
+        if (month < 0) {
+            return toCalendar(millis).get(Calendar.YEAR);
+        }
+        return FIRST_YEAR + (month / 12);
+    }
+
+    /**
+     * Returns the month of the given instant in the time zone of the phone, starting from 0
+     * like {@link Calendar} does.
+     *
+     * @param millis milliseconds since the Epoch.
+     * @return the month.
+     */
+    public static int getMonth(long millis) {
+        int month = getMonthIndex(millis);
+        if (month < 0) {
+            return toCalendar(millis).get(Calendar.MONTH);
+        }
+        return month % 12;
+    }
+
+    /**
+     * Throws away the table, so it is computed again for the current time zone the next time it
+     * is needed.
+     */
+    public static void invalidate() {
+        monthStarts = null;
+    }
+
+    /**
+     * Returns the number of months between the first month of the table and the month of the
+     * given instant, or -1 if the instant is outside of the table.
+     */
+    private static int getMonthIndex(long millis) {
+        long[] starts = getMonthStarts();
+        int position = Arrays.binarySearch(starts, millis);
+        if (position < 0) {
+            // The instant is after the start of the month right before the insertion point.
+            position = -position - 2;
+        }
+        if ((position < 0) || (position >= MONTHS)) {
+            return -1;
+        }
+        return position;
+    }
+
+    private static long[] getMonthStarts() {
+        long[] starts = monthStarts;
+        if (starts == null) {
+            starts = computeMonthStarts(TimeZone.getDefault());
+            monthStarts = starts;
+        }
+        return starts;
+    }
+
+    private static long[] computeMonthStarts(TimeZone zone) {
+        long[] starts = new long[MONTHS + 1];
+        Calendar calendar = Calendar.getInstance(zone);
+        for (int month = 0; month <= MONTHS; month++) {
+            /*
+             * Every month is set on its own rather than adding a month to the previous one,
+             * because in the zones where midnight can be skipped by a change of time the calendar
+             * would keep the shifted time for the rest of the months.
+             */
+            calendar.clear();
+            calendar.set(FIRST_YEAR + (month / 12), month % 12, 1, 0, 0, 0);
+            starts[month] = calendar.getTimeInMillis();
+        }
+        return starts;
+    }
+
+    private static Calendar toCalendar(long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
@@ -7,6 +7,7 @@ package bembibre.alarmfix.utils;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
 
 /**
  * Class with general utilities used throughout all the application.
@@ -26,4 +27,14 @@ public class GeneralUtils {
         DateFormat dateFormat = new SimpleDateFormat(GeneralUtils.DATE_TIME_FORMAT);
         return dateFormat.format(calendar.getTime());
     }
+
+    /**
+     * Returns the given date as a readable string.
+     * @param millis milliseconds since the Epoch.
+     * @return
+     */
+    public static String format(long millis) {
+        DateFormat dateFormat = new SimpleDateFormat(GeneralUtils.DATE_TIME_FORMAT);
+        return dateFormat.format(new Date(millis));
+    }
 }
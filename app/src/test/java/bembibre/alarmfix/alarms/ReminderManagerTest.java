@@ -0,0 +1,145 @@
+package bembibre.alarmfix.alarms;
+
+import android.app.AlarmManager;
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import bembibre.alarmfix.BuildConfig;
+import bembibre.alarmfix.database.AlarmRegistry;
+import bembibre.alarmfix.database.InMemoryReminderStore;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks the alarms that {@link ReminderManager} sets in each {@link SchedulingMode}, and that
+ * none of them goes off before its reminder.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ReminderManagerTest {
+
+    private static final long MINUTE = ReminderManager.COALESCING_WINDOW_MILLIS;
+
+    private AlarmRegistry registry;
+    private ShadowAlarmManager alarmManager;
+
+    /**
+     * The start of a minute an hour from now, so every alarm is in the future.
+     */
+    private long base;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new InMemoryReminderStore().getAlarmRegistry();
+        alarmManager = shadowOf((AlarmManager) RuntimeEnvironment.application.getSystemService(Context.ALARM_SERVICE));
+        base = ReminderManager.getWindowEnd(System.currentTimeMillis()) + 60 * MINUTE;
+    }
+
+    @Test
+    public void windowEndIsNeverBeforeTheMoment() throws Exception {
+        assertEquals(base, ReminderManager.getWindowEnd(base));
+        assertEquals(base + MINUTE, ReminderManager.getWindowEnd(base + 1));
+        assertEquals(base + MINUTE, ReminderManager.getWindowEnd(base + MINUTE - 1));
+        assertEquals(0, ReminderManager.getWindowEnd(-1));
+    }
+
+    @Test
+    public void chainedModeKeepsASingleAlarm() throws Exception {
+        ReminderManager reminderManager = createManager(SchedulingMode.CHAINED);
+        reminderManager.scheduleReminder(1, 1, base + 2 * MINUTE);
+        reminderManager.scheduleReminder(2, 1, base + 30 * 1000);
+        reminderManager.scheduleReminder(3, 1, base + 5 * MINUTE);
+        assertEquals(Collections.singletonList(base + MINUTE), getAlarmTimes());
+        assertEquals(base + MINUTE, reminderManager.getNextAlarmTime());
+    }
+
+    @Test
+    public void windowsModeSharesAnAlarmPerWindow() throws Exception {
+        ReminderManager reminderManager = createManager(SchedulingMode.WINDOWS);
+        reminderManager.scheduleReminder(1, 1, base + 10 * 1000);
+        reminderManager.scheduleReminder(2, 1, base + 50 * 1000);
+        reminderManager.scheduleReminder(3, 1, base + MINUTE);
+        reminderManager.scheduleReminder(4, 1, base + 3 * MINUTE);
+        List<Long> expected = new ArrayList<>();
+        expected.add(base + MINUTE);
+        expected.add(base + 3 * MINUTE);
+        assertEquals(expected, getAlarmTimes());
+    }
+
+    @Test
+    public void perReminderModeSetsTheExactMoments() throws Exception {
+        ReminderManager reminderManager = createManager(SchedulingMode.PER_REMINDER);
+        reminderManager.scheduleReminder(1, 1, base + 10 * 1000);
+        reminderManager.scheduleReminder(2, 1, base + 50 * 1000);
+        List<Long> expected = new ArrayList<>();
+        expected.add(base + 10 * 1000);
+        expected.add(base + 50 * 1000);
+        assertEquals(expected, getAlarmTimes());
+    }
+
+    @Test
+    public void noAlarmGoesOffBeforeItsReminder() throws Exception {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            for (long offset : new long[] {0, 1, 30 * 1000, MINUTE - 1}) {
+                ReminderManager reminderManager = createManager(mode);
+                reminderManager.unsetAllAlarms();
+                long when = base + offset;
+                reminderManager.scheduleReminder(1, 1, when);
+                List<Long> alarmTimes = getAlarmTimes();
+                assertEquals(mode + " " + offset, 1, alarmTimes.size());
+                assertTrue(mode + " " + offset, alarmTimes.get(0) >= when);
+                assertTrue(mode + " " + offset, alarmTimes.get(0) < when + MINUTE);
+            }
+        }
+    }
+
+    @Test
+    public void allTheAlarmsAreUnsetWhateverTheMode() throws Exception {
+        createManager(SchedulingMode.CHAINED).scheduleReminder(1, 1, base);
+        createManager(SchedulingMode.WINDOWS).scheduleReminder(2, 1, base + 2 * MINUTE);
+        createManager(SchedulingMode.PER_REMINDER).scheduleReminder(3, 1, base + 4 * MINUTE);
+        assertEquals(3, getAlarmTimes().size());
+        createManager(SchedulingMode.PER_REMINDER).unsetAllAlarms();
+        assertTrue(getAlarmTimes().isEmpty());
+        for (int kind : new int[] {AlarmRegistry.ALARM_KIND_REMINDER, AlarmRegistry.ALARM_KIND_WINDOW, AlarmRegistry.ALARM_KIND_NEXT}) {
+            assertEquals(0, registry.fetchArmedAlarmTargets(kind).length);
+        }
+    }
+
+    @Test
+    public void theChosenModeIsKept() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        assertEquals(SchedulingMode.DEFAULT, SchedulingMode.load(context));
+        SchedulingMode.WINDOWS.save(context);
+        assertEquals(SchedulingMode.WINDOWS, SchedulingMode.load(context));
+        assertFalse(new ReminderManager(context, registry).isChained());
+    }
+
+    private ReminderManager createManager(SchedulingMode mode) {
+        return new ReminderManager(RuntimeEnvironment.application, registry, mode);
+    }
+
+    /**
+     * Returns the moments of the alarms that are set in the system, in order.
+     */
+    private List<Long> getAlarmTimes() {
+        List<Long> alarmTimes = new ArrayList<>();
+        for (ShadowAlarmManager.ScheduledAlarm alarm : alarmManager.getScheduledAlarms()) {
+            alarmTimes.add(alarm.triggerAtTime);
+        }
+        Collections.sort(alarmTimes);
+        return alarmTimes;
+    }
+}
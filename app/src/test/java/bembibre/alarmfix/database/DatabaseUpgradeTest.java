@@ -0,0 +1,242 @@
+package bembibre.alarmfix.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import bembibre.alarmfix.BuildConfig;
+import bembibre.alarmfix.utils.CivilDateCalculator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds by hand the database of some older versions, with reminders in it, and checks that
+ * {@link DatabaseUpgrade} keeps the reminders, their bodies and their counts, and that it ends
+ * with the same schema as a database created from scratch once the background migrations are
+ * over.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class DatabaseUpgradeTest {
+
+    private static final String UPGRADED_DATABASE = "upgraded";
+    private static final String CREATED_DATABASE = "created";
+
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    /**
+     * The reminders table of version 1.
+     */
+    private static final String VERSION_1_CREATE =
+            "create table reminders (_id integer primary key autoincrement, title text not null, "
+                    + "body text not null, notified integer, alarm_id integer not null, "
+                    + "year integer not null, month integer not null, reminder_date_time integer not null);";
+
+    /**
+     * The indexes added by versions 2, 3 and 4.
+     */
+    private static final String[] VERSION_4_INDEXES = {
+            "create index reminders_year_month_date_time on reminders (year, month, reminder_date_time, notified, title);",
+            "create index reminders_not_notified_date_time on reminders (reminder_date_time) where notified = 0;",
+            "create index reminders_date_time on reminders (reminder_date_time);"
+    };
+
+    private Context context;
+    private RemindersDbAdapter dbAdapter;
+    private long[] dateTimes;
+
+    @Before
+    public void setUp() throws Exception {
+        context = RuntimeEnvironment.application;
+        long now = System.currentTimeMillis();
+        dateTimes = new long[] {now - 40 * DAY, now - 39 * DAY, now + 40 * DAY};
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (dbAdapter != null) {
+            dbAdapter.shutdown();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1() throws Exception {
+        SQLiteDatabase db = openOldDatabase();
+        try {
+            db.execSQL(VERSION_1_CREATE);
+            insertOldReminders(db);
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+        checkUpgrade();
+    }
+
+    @Test
+    public void upgradeFromVersion4() throws Exception {
+        SQLiteDatabase db = openOldDatabase();
+        try {
+            db.execSQL(VERSION_1_CREATE);
+            for (String index : VERSION_4_INDEXES) {
+                db.execSQL(index);
+            }
+            insertOldReminders(db);
+            db.setVersion(4);
+        } finally {
+            db.close();
+        }
+        checkUpgrade();
+    }
+
+    private SQLiteDatabase openOldDatabase() {
+        File path = context.getDatabasePath(UPGRADED_DATABASE);
+        path.getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(path, null);
+    }
+
+    /**
+     * Inserts a reminder for each date and one more that is deleted at once, so its identifier
+     * must not be given again.
+     */
+    private void insertOldReminders(SQLiteDatabase db) {
+        for (int index = 0; index <= dateTimes.length; index++) {
+            long dateTime = dateTimes[Math.min(index, dateTimes.length - 1)];
+            db.execSQL("insert into reminders (title, body, notified, alarm_id, year, month, reminder_date_time)"
+                    + " values (?, ?, ?, 1, ?, ?, ?)", new Object[] {"Title " + index, "Body word" + index,
+                    dateTime < System.currentTimeMillis() ? 1 : 0, CivilDateCalculator.getYear(dateTime),
+                    CivilDateCalculator.getMonth(dateTime), dateTime});
+        }
+        db.execSQL("delete from reminders where _id = ?", new Object[] {dateTimes.length + 1});
+    }
+
+    private void checkUpgrade() {
+        dbAdapter = RemindersDbAdapter.create(context, UPGRADED_DATABASE);
+        dbAdapter.start();
+
+        // The reminders, their bodies and their counts are kept, the counts are found by reading
+        // the reminders until they are filled in the background.
+        assertEquals(dateTimes.length, dbAdapter.countAllReminders());
+        assertEquals(expectedCounts(), readCounts());
+        for (int index = 0; index < dateTimes.length; index++) {
+            long rowId = index + 1;
+            assertEquals("Title " + index, dbAdapter.getReminder(rowId).getTitle());
+            assertEquals(dateTimes[index], dbAdapter.getReminder(rowId).getDateTime());
+            assertEquals("Body word" + index, dbAdapter.fetchReminderBody(rowId));
+        }
+        assertArrayEquals(new long[] {dateTimes.length}, dbAdapter.fetchNotNotifiedReminderIds());
+
+        // The older reminders are found once the search index has been filled in the background,
+        // and the counts and the indexes are the same as in a new database.
+        while (dbAdapter.runMigrationBatch(1)) {
+            // One batch after the other, as MigrationService does.
+        }
+        assertEquals(dateTimes.length, countRows(dbAdapter.searchReminders("word", RemindersDbAdapter.SEARCH_LIMIT)));
+        assertEquals(dateTimes.length, dbAdapter.countAllReminders());
+        assertEquals(expectedCounts(), readCounts());
+        assertEquals(createdSchema(), readSchema(dbAdapter.getDatabase()));
+
+        // The triggers work and the identifiers of the deleted reminders are not given again.
+        long rowId = dbAdapter.createReminder("New", "New body", dateTimes[2]);
+        assertEquals(dateTimes.length + 2, rowId);
+        assertEquals(1, countRows(dbAdapter.searchReminders("new", RemindersDbAdapter.SEARCH_LIMIT)));
+        assertEquals(dateTimes.length + 1, dbAdapter.countAllReminders());
+        assertTrue(dbAdapter.deleteReminder(1));
+        assertEquals(dateTimes.length, dbAdapter.countAllReminders());
+        assertEquals(1, dbAdapter.archiveNotifiedReminders(System.currentTimeMillis(), RemindersDbAdapter.ARCHIVE_BATCH_SIZE));
+        assertTrue(dbAdapter.getReminder(2).isArchived());
+        assertEquals(dateTimes.length, dbAdapter.countAllReminders());
+    }
+
+    private Map<String, Integer> readCounts() {
+        final Map<String, Integer> counts = new TreeMap<>();
+        dbAdapter.visitMonthCounts(new ReminderStore.MonthCountVisitor() {
+            @Override
+            public void visit(int year, int month, int count) {
+                counts.put(year + "/" + month, count);
+            }
+        });
+        return counts;
+    }
+
+    private Map<String, Integer> expectedCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (long dateTime : dateTimes) {
+            String key = CivilDateCalculator.getYear(dateTime) + "/" + CivilDateCalculator.getMonth(dateTime);
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    private Map<String, String> createdSchema() {
+        RemindersDbAdapter created = RemindersDbAdapter.create(context, CREATED_DATABASE);
+        created.start();
+        try {
+            return readSchema(created.getDatabase());
+        } finally {
+            created.shutdown();
+        }
+    }
+
+    /**
+     * Returns every table, index and trigger by its name. The tables are described by their
+     * columns, because the text kept by SQLite for a table that was renamed or altered is not the
+     * one of its creation.
+     */
+    private static Map<String, String> readSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new TreeMap<>();
+        Cursor cursor = db.rawQuery("select type, name, tbl_name, sql from sqlite_master", null);
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                String name = cursor.getString(1);
+                String description = type + " on " + cursor.getString(2) + ": ";
+                if ("table".equals(type)) {
+                    description += readColumns(db, name);
+                } else {
+                    description += cursor.getString(3);
+                }
+                schema.put(name, description);
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+
+    private static String readColumns(SQLiteDatabase db, String table) {
+        StringBuilder columns = new StringBuilder();
+        Cursor cursor = db.rawQuery("pragma table_info(" + table + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                // Name, type, not null, default value and primary key.
+                columns.append(cursor.getString(1)).append(' ').append(cursor.getString(2)).append(' ')
+                        .append(cursor.getInt(3)).append(' ').append(cursor.getString(4)).append(' ')
+                        .append(cursor.getInt(5)).append(", ");
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns.toString();
+    }
+
+    private static int countRows(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import bembibre.alarmfix.BuildConfig;
+import bembibre.alarmfix.userinterface.NotificationManager;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the query plan of every statement of {@link RemindersDbAdapter} that looks rows up, on a
+ * database created from scratch, so a change of the schema or of a query that makes SQLite fall
+ * back to reading a whole table or to sorting the rows fails the build.
+ *
+ * The plans are read with <code>explain query plan</code>, whose wording changed between SQLite
+ * versions ("SCAN TABLE reminders" became "SCAN reminders"), so the checks only look for the
+ * names of the indexes and for the parts that all of the versions share.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class QueryPlanTest {
+
+    private static final String PRIMARY_KEY = "USING INTEGER PRIMARY KEY";
+    private static final String SORT = "TEMP B-TREE";
+
+    private RemindersDbAdapter dbAdapter;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        dbAdapter = RemindersDbAdapter.create(RuntimeEnvironment.application);
+        dbAdapter.start();
+        db = dbAdapter.getDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dbAdapter.shutdown();
+    }
+
+    @Test
+    public void pointStatementsUseThePrimaryKey() throws Exception {
+        String[] statements = {
+                RemindersDbAdapter.FETCH_ACTIVE_REMINDER_SQL,
+                RemindersDbAdapter.FETCH_REMINDER_SQL,
+                RemindersDbAdapter.FETCH_BODY_SQL,
+                RemindersDbAdapter.UPDATE_REMINDER_SQL,
+                RemindersDbAdapter.UPDATE_NOTIFIED_SQL,
+                RemindersDbAdapter.TOMBSTONE_REMINDER_SQL,
+                RemindersDbAdapter.TOMBSTONE_ARCHIVED_REMINDER_SQL,
+                ArchiveDbAdapter.DELETE_ARCHIVED_REMINDER_SQL,
+                ArchiveDbAdapter.RESTORE_REMINDER_SQL
+        };
+        for (String sql : statements) {
+            List<String> plan = explain(sql);
+            for (String step : plan) {
+                if (step.startsWith("SEARCH") || step.startsWith("SCAN")) {
+                    assertTrue(sql + " -> " + plan, step.contains(PRIMARY_KEY));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void listingReadsTheCoveringIndexesWithoutSorting() throws Exception {
+        String sql = RemindersDbAdapter.FETCH_REMINDERS_BY_MONTH_SQL;
+        assertUsesIndex(sql, "reminders_year_month_date_time_deleted");
+        assertUsesIndex(sql, "reminders_archive_year_month_date_time_deleted");
+        assertNoTableScan(sql);
+        assertNoSort(sql);
+    }
+
+    @Test
+    public void dateRangeReadsTheDateIndexesWithoutSorting() throws Exception {
+        String sql = RemindersDbAdapter.FETCH_REMINDERS_BETWEEN_SQL + " limit " + RemindersDbAdapter.RANGE_LIMIT;
+        assertUsesIndex(sql, "reminders_date_time");
+        assertUsesIndex(sql, "reminders_archive_date_time");
+        assertNoTableScan(sql);
+        assertNoSort(sql);
+    }
+
+    @Test
+    public void upcomingReadsTheNotNotifiedIndexWithoutSorting() throws Exception {
+        String sql = RemindersDbAdapter.FETCH_UPCOMING_REMINDERS_SQL + " limit " + RemindersDbAdapter.UPCOMING_COUNT;
+        assertUsesIndex(sql, "reminders_not_notified_date_time");
+        assertNoSort(sql);
+    }
+
+    @Test
+    public void bootReadsTheNotNotifiedIndexWithoutSorting() throws Exception {
+        String sql = RemindersDbAdapter.FETCH_NOT_NOTIFIED_REMINDERS_SQL;
+        assertUsesIndex(sql, "reminders_not_notified_date_time");
+        assertNoSort(sql);
+        assertUsesIndex(RemindersDbAdapter.FETCH_NOT_NOTIFIED_REMINDER_IDS_SQL, "reminders_not_notified_date_time");
+        sql = RemindersDbAdapter.FETCH_PAST_REMINDERS_SQL + " limit " + NotificationManager.MAX_TITLES;
+        assertUsesIndex(sql, "reminders_not_notified_date_time");
+        assertNoSort(sql);
+        assertUsesIndex(RemindersDbAdapter.MARK_PAST_REMINDERS_NOTIFIED_SQL, "reminders_not_notified_date_time");
+    }
+
+    @Test
+    public void chainedAlarmReadsTheNotNotifiedIndexWithoutSorting() throws Exception {
+        String[] statements = {
+                RemindersDbAdapter.FETCH_DUE_REMINDERS_SQL,
+                RemindersDbAdapter.FETCH_NEXT_REMINDER_DATE_TIME_SQL
+        };
+        for (String sql : statements) {
+            assertUsesIndex(sql, "reminders_not_notified_date_time");
+            assertNoSort(sql);
+        }
+    }
+
+    @Test
+    public void bootBatchesSeekTheNotNotifiedIndexWithoutSorting() throws Exception {
+        String sql = RemindersDbAdapter.FETCH_NOT_NOTIFIED_REMINDERS_AFTER_SQL + " limit " + RemindersDbAdapter.BOOT_BATCH_SIZE;
+        assertUsesIndex(sql, "reminders_not_notified_date_time");
+        assertNoSort(sql);
+    }
+
+    @Test
+    public void archivingReadsTheDateIndexWithoutSorting() throws Exception {
+        String sql = ArchiveDbAdapter.FETCH_ARCHIVE_CANDIDATES_SQL + " limit " + RemindersDbAdapter.ARCHIVE_BATCH_SIZE;
+        assertUsesIndex(sql, "reminders_date_time");
+        assertNoSort(sql);
+    }
+
+    @Test
+    public void exportPagesReadTheDateIndexesWithoutSorting() throws Exception {
+        String limit = " limit " + RemindersDbAdapter.PAGE_SIZE;
+        String[][] pages = {
+                {RemindersDbAdapter.firstPageSql(false) + limit, "reminders_date_time"},
+                {RemindersDbAdapter.nextPageSql(false) + limit, "reminders_date_time"},
+                {RemindersDbAdapter.firstPageSql(true) + limit, "reminders_archive_date_time"},
+                {RemindersDbAdapter.nextPageSql(true) + limit, "reminders_archive_date_time"}
+        };
+        for (String[] page : pages) {
+            assertUsesIndex(page[0], page[1]);
+            assertNoSort(page[0]);
+            // The bodies are joined by their primary key.
+            assertTrue(explain(page[0]).toString().contains(PRIMARY_KEY));
+        }
+    }
+
+    @Test
+    public void undoAndPurgeReadTheDeletedIndexes() throws Exception {
+        String limit = " limit " + RemindersDbAdapter.PURGE_BATCH_SIZE;
+        String[][] statements = {
+                {RemindersDbAdapter.UNDO_DELETIONS_SQL, "reminders_deleted"},
+                {RemindersDbAdapter.UNDO_ARCHIVED_DELETIONS_SQL, "reminders_archive_deleted"},
+                {RemindersDbAdapter.FETCH_DELETED_REMINDERS_SQL + limit, "reminders_deleted"},
+                {RemindersDbAdapter.FETCH_DELETED_ARCHIVED_REMINDERS_SQL + limit, "reminders_archive_deleted"}
+        };
+        for (String[] statement : statements) {
+            assertUsesIndex(statement[0], statement[1]);
+            assertNoSort(statement[0]);
+        }
+    }
+
+    @Test
+    public void countsOnlyReadTheMonthCounts() throws Exception {
+        String[] statements = {
+                RemindersDbAdapter.COUNT_ALL_REMINDERS_SQL,
+                RemindersDbAdapter.FETCH_MONTH_COUNTS_SQL
+        };
+        for (String sql : statements) {
+            List<String> plan = explain(sql);
+            for (String step : plan) {
+                assertFalse(sql + " -> " + plan, Pattern.compile("\\breminders(_archive)?\\b").matcher(step).find());
+            }
+            assertNoSort(sql);
+        }
+    }
+
+    @Test
+    public void armedAlarmsAreLookedUpByTheirKey() throws Exception {
+        String[] statements = {
+                AlarmRegistryDbAdapter.FETCH_ARMED_ALARM_SQL,
+                AlarmRegistryDbAdapter.DELETE_ARMED_ALARM_SQL,
+                AlarmRegistryDbAdapter.FETCH_ARMED_ALARM_TARGETS_SQL,
+                AlarmRegistryDbAdapter.fetchArmedAlarmsSql(AlarmRegistry.ALARM_KIND_REMINDER, new long[] {1, 2, 3}),
+                AlarmRegistryDbAdapter.deleteArmedAlarmsSql(AlarmRegistry.ALARM_KIND_REMINDER, new long[] {1, 2, 3})
+        };
+        for (String sql : statements) {
+            assertUsesIndex(sql, "sqlite_autoindex_armed_alarms_1");
+            assertNoTableScan(sql);
+        }
+    }
+
+    @Test
+    public void searchJoinsTheDocumentsByTheirPrimaryKey() throws Exception {
+        String sql = RemindersDbAdapter.SEARCH_SQL;
+        List<String> plan = explain(sql);
+        int primaryKeySteps = 0;
+        for (String step : plan) {
+            if (step.contains(PRIMARY_KEY)) {
+                primaryKeySteps++;
+            }
+        }
+        // One for the reminders table and one for the archive. The matches are sorted by date.
+        assertEquals(sql + " -> " + plan, 2, primaryKeySteps);
+    }
+
+    /**
+     * The maintenance refreshes the statistics of the planner, which can change the plans, so all
+     * of the checks are run again once it has analyzed a database whose reminders are mostly
+     * notified, archived or deleted, as they are after a long use. The SQLite of the tests is older
+     * than 3.18, where <code>PRAGMA optimize</code> does nothing, so the tables are analyzed one
+     * by one.
+     */
+    @Test
+    public void plansHoldAfterTheMaintenance() throws Exception {
+        long hour = 60 * 60 * 1000;
+        for (int index = 0; index < 2000; index++) {
+            long rowId = dbAdapter.createReminder("Reminder " + index, "", index * hour);
+            if (index < 1900) {
+                dbAdapter.updateReminder(rowId, true);
+            }
+            if (index % 40 == 0) {
+                dbAdapter.deleteReminder(rowId);
+            }
+        }
+        int archived;
+        do {
+            archived = dbAdapter.archiveNotifiedReminders(800 * hour, RemindersDbAdapter.ARCHIVE_BATCH_SIZE);
+        } while (archived == RemindersDbAdapter.ARCHIVE_BATCH_SIZE);
+        new DatabaseMaintenance(dbAdapter).optimize(db, Long.MAX_VALUE);
+        assertTrue(countStatistics("reminders") > 0);
+        assertTrue(countStatistics("reminders_archive") > 0);
+
+        pointStatementsUseThePrimaryKey();
+        listingReadsTheCoveringIndexesWithoutSorting();
+        dateRangeReadsTheDateIndexesWithoutSorting();
+        upcomingReadsTheNotNotifiedIndexWithoutSorting();
+        bootReadsTheNotNotifiedIndexWithoutSorting();
+        chainedAlarmReadsTheNotNotifiedIndexWithoutSorting();
+        bootBatchesSeekTheNotNotifiedIndexWithoutSorting();
+        archivingReadsTheDateIndexWithoutSorting();
+        exportPagesReadTheDateIndexesWithoutSorting();
+        undoAndPurgeReadTheDeletedIndexes();
+        countsOnlyReadTheMonthCounts();
+        armedAlarmsAreLookedUpByTheirKey();
+        searchJoinsTheDocumentsByTheirPrimaryKey();
+    }
+
+    @Test
+    public void sqliteVersionsAreCompared() throws Exception {
+        assertEquals(3008010, DatabaseMaintenance.parseVersion("3.8.10.2"));
+        assertEquals(3018000, DatabaseMaintenance.parseVersion("3.18"));
+        assertEquals(3032002, DatabaseMaintenance.parseVersion("3.32.2"));
+    }
+
+    /**
+     * Returns how many rows of statistics the planner has got for the indexes of a table.
+     */
+    private long countStatistics(String table) {
+        Cursor cursor = db.rawQuery("select count(*) from sqlite_stat1 where tbl = ? and idx is not null",
+                new String[] {table});
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the steps of the plan of a statement, with all of its parameters bound.
+     */
+    private List<String> explain(String sql) {
+        String[] args = new String[countParameters(sql)];
+        Arrays.fill(args, "0");
+        Cursor cursor = db.rawQuery("explain query plan " + sql, args);
+        List<String> plan = new ArrayList<>();
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumnIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * Numbered parameters count up to the highest number, the rest count one by one.
+     */
+    private static int countParameters(String sql) {
+        int highest = 0;
+        int anonymous = 0;
+        for (int index = 0; index < sql.length(); index++) {
+            if (sql.charAt(index) == '?') {
+                int end = index + 1;
+                while ((end < sql.length()) && (Character.isDigit(sql.charAt(end)))) {
+                    end++;
+                }
+                if (end > index + 1) {
+                    highest = Math.max(highest, Integer.parseInt(sql.substring(index + 1, end)));
+                } else {
+                    anonymous++;
+                }
+            }
+        }
+        return Math.max(highest, anonymous);
+    }
+
+    private void assertUsesIndex(String sql, String index) {
+        List<String> plan = explain(sql);
+        Pattern pattern = Pattern.compile("INDEX " + index + "\\b");
+        for (String step : plan) {
+            if (pattern.matcher(step).find()) {
+                return;
+            }
+        }
+        fail(sql + " doesn't use " + index + " -> " + plan);
+    }
+
+    private void assertNoTableScan(String sql) {
+        List<String> plan = explain(sql);
+        for (String step : plan) {
+            assertFalse(sql + " -> " + plan, step.startsWith("SCAN") && !step.contains("USING"));
+        }
+    }
+
+    private void assertNoSort(String sql) {
+        List<String> plan = explain(sql);
+        for (String step : plan) {
+            assertFalse(sql + " -> " + plan, step.contains(SORT));
+        }
+    }
+}
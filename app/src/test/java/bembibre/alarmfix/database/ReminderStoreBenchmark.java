@@ -0,0 +1,157 @@
+package bembibre.alarmfix.database;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+import bembibre.alarmfix.BuildConfig;
+import bembibre.alarmfix.alarms.ReminderManager;
+import bembibre.alarmfix.core.CoreOperations;
+import bembibre.alarmfix.core.SynchronizedWork;
+import bembibre.alarmfix.logic.DataAccessHelper;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the import, boot, export, count, deletion and purge work of the application against
+ * each one of the implementations of {@link ReminderStore}, on a plain Java virtual machine. Half
+ * of the reminders are in the past, so the boot marks them as notified, and the other half are
+ * scheduled.
+ *
+ * It is skipped unless the system property {@link #OUTPUT_PROPERTY} names the file where the
+ * results are written, as comma separated values, for example with
+ * <code>./gradlew testDebugUnitTest -PbenchmarkOutput=build/reminder-store-benchmark.csv</code>.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ReminderStoreBenchmark {
+
+    private static final String OUTPUT_PROPERTY = "alarmfix.benchmark.output";
+
+    private static final int REMINDERS = 5000;
+    private static final long MINUTE = 60 * 1000;
+
+    private static PrintWriter output;
+
+    private RemindersDbAdapter dbAdapter;
+
+    @BeforeClass
+    public static void openOutput() throws Exception {
+        String path = System.getProperty(OUTPUT_PROPERTY);
+        Assume.assumeTrue("No file for the results of the benchmark", path != null);
+        File file = new File(path);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        output = new PrintWriter(new FileWriter(file));
+        output.println("store,operation,reminders,micros,micros_each");
+    }
+
+    @AfterClass
+    public static void closeOutput() throws Exception {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dbAdapter = RemindersDbAdapter.create(RuntimeEnvironment.application);
+        dbAdapter.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dbAdapter.shutdown();
+    }
+
+    @Test
+    public void inMemoryStore() throws Exception {
+        run("in memory", new InMemoryReminderStore());
+    }
+
+    @Test
+    public void sqliteStore() throws Exception {
+        run("sqlite", dbAdapter);
+    }
+
+    private void run(String name, ReminderStore store) {
+        final long now = System.currentTimeMillis();
+        long start;
+        int index;
+
+        store.open();
+        try {
+            start = System.nanoTime();
+            for (index = 0; index < REMINDERS; index++) {
+                long dateTime = now + (index - REMINDERS / 2) * 7 * MINUTE;
+                assertNotNull(CoreOperations.createReminderAndAlarm(RuntimeEnvironment.application, store,
+                        "Title " + index, "Body " + index, dateTime, null, null, true));
+            }
+            report(name, "import", start);
+
+            start = System.nanoTime();
+            ReminderManager reminderManager = new ReminderManager(RuntimeEnvironment.application, store.getAlarmRegistry());
+            SynchronizedWork.BootPosition position = SynchronizedWork.phoneHasJustBeenTurnedOn(RuntimeEnvironment.application,
+                    reminderManager, store);
+            report(name, "boot", start);
+            if (position != null) {
+                start = System.nanoTime();
+                while (SynchronizedWork.scheduleLaterReminders(reminderManager, store, position) == RemindersDbAdapter.BOOT_BATCH_SIZE) {
+                    // One batch after the other, as the background stage of the boot does.
+                }
+                report(name, "boot later stages", start);
+            }
+            assertTrue(store.fetchNotNotifiedReminderIds().length <= REMINDERS / 2);
+
+            final int[] exported = new int[1];
+            start = System.nanoTime();
+            store.visitAllReminders(new ReminderStore.ReminderVisitor() {
+                @Override
+                public boolean visit(long rowId, String title, String body, boolean notified, long alarmId, long dateTime) {
+                    exported[0]++;
+                    return true;
+                }
+            });
+            report(name, "export", start);
+            assertEquals(REMINDERS, exported[0]);
+
+            start = System.nanoTime();
+            new DataAccessHelper(store).getAllReminderYears();
+            report(name, "month counts", start);
+
+            start = System.nanoTime();
+            CoreOperations.deleteAllReminders(store);
+            report(name, "delete all", start);
+            assertEquals(0, store.countAllReminders());
+
+            int purged = 0;
+            int batch;
+            start = System.nanoTime();
+            do {
+                batch = CoreOperations.purgeDeletedReminders(RuntimeEnvironment.application, store,
+                        System.currentTimeMillis() + 1, RemindersDbAdapter.PURGE_BATCH_SIZE);
+                purged += batch;
+            } while (batch == RemindersDbAdapter.PURGE_BATCH_SIZE);
+            report(name, "purge", start);
+            assertEquals(REMINDERS, purged);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void report(String store, String operation, long start) {
+        long micros = (System.nanoTime() - start) / 1000;
+        output.println(store + "," + operation + "," + REMINDERS + "," + micros + "," + (micros / REMINDERS));
+    }
+}
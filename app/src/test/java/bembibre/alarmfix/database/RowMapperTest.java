@@ -0,0 +1,141 @@
+package bembibre.alarmfix.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import bembibre.alarmfix.BuildConfig;
+import bembibre.alarmfix.utils.CivilDateCalculator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that each mapper of {@link RemindersDbAdapter} can read all of the queries of its
+ * projection. A mapper looks the indices of its columns up only with the first cursor that it
+ * reads, so all of the queries that it reads must return the same columns in the same order.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class RowMapperTest {
+
+    private RemindersDbAdapter dbAdapter;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() throws Exception {
+        dbAdapter = RemindersDbAdapter.create(RuntimeEnvironment.application);
+        dbAdapter.start();
+        db = dbAdapter.getDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dbAdapter.shutdown();
+    }
+
+    @Test
+    public void queriesOfAProjectionHaveTheSameColumns() throws Exception {
+        assertSameColumns(
+                RemindersDbAdapter.FETCH_REMINDERS_BY_MONTH_SQL,
+                RemindersDbAdapter.FETCH_REMINDERS_BETWEEN_SQL,
+                RemindersDbAdapter.FETCH_UPCOMING_REMINDERS_SQL,
+                RemindersDbAdapter.SEARCH_SQL);
+        assertSameColumns(
+                RemindersDbAdapter.FETCH_ACTIVE_REMINDER_SQL,
+                RemindersDbAdapter.FETCH_REMINDER_SQL);
+        assertSameColumns(
+                RemindersDbAdapter.FETCH_NOT_NOTIFIED_REMINDERS_SQL,
+                RemindersDbAdapter.FETCH_DUE_REMINDERS_SQL,
+                RemindersDbAdapter.FETCH_PAST_REMINDERS_SQL,
+                RemindersDbAdapter.FETCH_NOT_NOTIFIED_REMINDERS_AFTER_SQL);
+        assertSameColumns(
+                RemindersDbAdapter.FETCH_NOT_NOTIFIED_REMINDER_IDS_SQL,
+                ArchiveDbAdapter.FETCH_ARCHIVE_CANDIDATES_SQL);
+        assertSameColumns(
+                RemindersDbAdapter.FETCH_DELETED_REMINDERS_SQL,
+                RemindersDbAdapter.FETCH_DELETED_ARCHIVED_REMINDERS_SQL);
+        assertSameColumns(
+                RemindersDbAdapter.firstPageSql(false),
+                RemindersDbAdapter.nextPageSql(false),
+                RemindersDbAdapter.firstPageSql(true),
+                RemindersDbAdapter.nextPageSql(true));
+    }
+
+    @Test
+    public void mappersReadTheValuesOfTheirColumns() throws Exception {
+        long now = System.currentTimeMillis();
+        long rowId = dbAdapter.createReminder("Title", "Body", now);
+        dbAdapter.updateReminder(rowId, "Title", "Body", now, 7);
+
+        Cursor cursor = db.rawQuery(RemindersDbAdapter.FETCH_REMINDER_SQL, new String[] {String.valueOf(rowId)});
+        try {
+            assertTrue(cursor.moveToFirst());
+            ReminderRow row = RemindersDbAdapter.REMINDER_MAPPER.read(cursor, RemindersDbAdapter.REMINDER_MAPPER.newRow());
+            assertEquals(rowId, row.getRowId());
+            assertEquals("Title", row.getTitle());
+            assertFalse(row.isNotified());
+            assertEquals(7, row.getAlarmId());
+            assertEquals(now, row.getDateTime());
+            assertFalse(row.isArchived());
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.rawQuery(RemindersDbAdapter.FETCH_MONTH_COUNTS_SQL, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            MonthCountRow row = RemindersDbAdapter.MONTH_COUNT_MAPPER.read(cursor,
+                    RemindersDbAdapter.MONTH_COUNT_MAPPER.newRow());
+            assertEquals(CivilDateCalculator.getYear(now), row.year);
+            assertEquals(CivilDateCalculator.getMonth(now), row.month);
+            assertEquals(1, row.count);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertSameColumns(String... queries) {
+        String[] expected = columnNames(queries[0]);
+        for (String sql : queries) {
+            assertEquals(sql, Arrays.asList(expected), Arrays.asList(columnNames(sql)));
+        }
+    }
+
+    /**
+     * Names of the columns of a query, which are known without running it.
+     */
+    private String[] columnNames(String sql) {
+        Cursor cursor = db.rawQuery("select * from (" + sql + ") limit 0", bindings(sql));
+        try {
+            return cursor.getColumnNames();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String[] bindings(String sql) {
+        int highest = 0;
+        int unnumbered = 0;
+        for (int index = 0; index < sql.length(); index++) {
+            if (sql.charAt(index) == '?') {
+                if ((index + 1 < sql.length()) && Character.isDigit(sql.charAt(index + 1))) {
+                    highest = Math.max(highest, sql.charAt(index + 1) - '0');
+                } else {
+                    unnumbered++;
+                }
+            }
+        }
+        String[] args = new String[Math.max(highest, unnumbered)];
+        Arrays.fill(args, "0");
+        return args;
+    }
+}